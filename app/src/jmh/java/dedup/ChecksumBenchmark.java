@@ -0,0 +1,84 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the checksum of a single file at different file and buffer
+ * sizes. The files come from the page cache after the first warmup, so this
+ * measures the hashing and copying rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    @Param({ "4096", "1048576", "67108864" })
+    long fileSize;
+
+    @Param({ "8192", "65536", "1048576" })
+    int bufferSize;
+
+    @Param({ "CRC32", "XXHASH64" })
+    HashAlgorithm algorithm;
+
+    @Param({ "STREAM", "CHANNEL" })
+    IoMode ioMode;
+
+    Path dir;
+
+    Path file;
+
+    ScanOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dedup-bench");
+        file = Fixtures.createFile(dir, fileSize, Fixtures.SEED);
+        options = new ScanOptions().setBufferSize(bufferSize).setHashAlgorithm(algorithm).setIoMode(ioMode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    /**
+     * The original CRC32 checksum, which always reads with its own buffer,
+     * so only the file size matters for it
+     */
+    @Benchmark
+    public long checksumFor() throws IOException {
+        return FileComparator.checksumFor(file);
+    }
+
+    @Benchmark
+    public Digest digestFor() throws IOException {
+        return FileComparator.digestFor(file, options);
+    }
+
+    @Benchmark
+    public long sampleChecksumFor() throws IOException {
+        return FileComparator.sampleChecksumFor(file, ScanOptions.DEFAULT_SAMPLE_SIZE);
+    }
+
+}
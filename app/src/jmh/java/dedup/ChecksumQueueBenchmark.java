@@ -0,0 +1,80 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures handing files through the checksum queue with a given backlog
+ * queued, one batch in and one batch out per operation, as the walkers and
+ * checksum threads do in a scan. The cost per file should barely grow with
+ * the backlog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumQueueBenchmark {
+
+    static final int FILES = 1 << 16;
+
+    static final Path[] PATHS = Fixtures.paths(FILES, 256);
+
+    @Param({ "1000", "1000000" })
+    int backlog;
+
+    @Param({ "1", "16" })
+    int batchSize;
+
+    ReadScheduler queue;
+
+    List<FileEntry> in;
+
+    List<FileEntry> out;
+
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = new ReadScheduler(new ScanOptions());
+        var fill = new ArrayList<FileEntry>(backlog);
+        for (int i = 0; i < backlog; ++i) {
+            fill.add(new FileEntry(PATHS[i & (FILES - 1)], i));
+        }
+        queue.putAll(fill);
+        in = new ArrayList<>(batchSize);
+        out = new ArrayList<>(batchSize);
+        next = 0;
+    }
+
+    @Benchmark
+    public int putAndTake() throws InterruptedException {
+        in.clear();
+        for (int i = 0; i < batchSize; ++i) {
+            in.add(new FileEntry(PATHS[next++ & (FILES - 1)], next));
+        }
+        queue.putAll(in);
+
+        out.clear();
+        int n = queue.take(batchSize, out);
+        queue.done(out);
+        return n;
+    }
+
+}
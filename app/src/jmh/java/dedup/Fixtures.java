@@ -0,0 +1,151 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+/**
+ * Deterministic fixtures for the benchmarks. Everything is derived from a
+ * fixed seed, so every run and every machine sees the same file contents,
+ * paths and sizes.
+ */
+final class Fixtures {
+
+    static final long SEED = 0x5EED_DED0L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Writes a file of pseudo random bytes
+     *
+     * @param dir  the directory to create the file in
+     * @param size the size of the file
+     * @param seed the seed of the content, equal seeds give equal files
+     * @return the created file
+     */
+    static Path createFile(Path dir, long size, long seed) throws IOException {
+        var file = dir.resolve("fixture-" + size + "-" + seed + ".bin");
+        var rnd = new Random(seed);
+        var chunk = new byte[1 << 20];
+        try (var ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long left = size;
+            while (left > 0) {
+                rnd.nextBytes(chunk);
+                var buf = ByteBuffer.wrap(chunk, 0, (int) Math.min(left, chunk.length));
+                while (buf.hasRemaining()) {
+                    left -= ch.write(buf);
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Creates paths spread over directories as a file walker would see
+     * them, without touching the file system
+     */
+    static Path[] paths(int count, int perDir) {
+        var paths = new Path[count];
+        for (int i = 0; i < count; ++i) {
+            paths[i] = Path.of("/bench/tree", "dir" + (i / perDir), "file" + i + ".bin");
+        }
+        return paths;
+    }
+
+    /**
+     * Creates file sizes spread over a wide range, so most sizes are unique
+     * as on a real file system and a few collide
+     */
+    static long[] sizes(int count) {
+        var rnd = new Random(SEED);
+        var sizes = new long[count];
+        for (int i = 0; i < count; ++i) {
+            sizes[i] = MemoryReport.nextSize(rnd);
+        }
+        return sizes;
+    }
+
+    /**
+     * Creates file attributes of a regular file with the given size
+     */
+    static BasicFileAttributes attributes(long size) {
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return FileTime.fromMillis(0);
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return true;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Deletes a fixture directory and everything in it
+     */
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir))
+            return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
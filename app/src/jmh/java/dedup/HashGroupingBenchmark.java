@@ -0,0 +1,99 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures grouping checksum results into the hash map the scanners keep,
+ * with several checksum threads adding to it at once. The digests are
+ * generated so that a given share of the files has a duplicate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class HashGroupingBenchmark {
+
+    static final int FILES = 1 << 20;
+
+    static final Path[] PATHS = Fixtures.paths(FILES, 100);
+
+    /**
+     * The percentage of files that share their digest with another file
+     */
+    @Param({ "1", "50" })
+    int duplicatePercent;
+
+    Digest[] digests;
+
+    Map<Digest, Collection<Path>> hashMap;
+
+    final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void generate() {
+        var rnd = new Random(Fixtures.SEED);
+        digests = new Digest[FILES];
+        for (int i = 0; i < FILES; ++i) {
+            if (i > 0 && rnd.nextInt(100) < duplicatePercent) {
+                digests[i] = digests[rnd.nextInt(i)];
+            } else {
+                digests[i] = Digest.of(rnd.nextLong());
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        hashMap = new ConcurrentHashMap<>();
+        next.set(0);
+    }
+
+    /**
+     * Groups the way the threaded scanner does, a lookup first and an
+     * insert only for a new digest
+     */
+    @Benchmark
+    public Collection<Path> getThenPut() {
+        int i = next.getAndIncrement() & (FILES - 1);
+        var sum = digests[i];
+        if (!hashMap.containsKey(sum)) {
+            hashMap.putIfAbsent(sum, new ConcurrentLinkedDeque<>());
+        }
+        var bucket = hashMap.get(sum);
+        bucket.add(PATHS[i]);
+        return bucket;
+    }
+
+    @Benchmark
+    public Collection<Path> computeIfAbsent() {
+        int i = next.getAndIncrement() & (FILES - 1);
+        var bucket = hashMap.computeIfAbsent(digests[i], k -> new ConcurrentLinkedDeque<>());
+        bucket.add(PATHS[i]);
+        return bucket;
+    }
+
+}
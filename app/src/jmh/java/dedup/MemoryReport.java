@@ -0,0 +1,94 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Compares the heap used by the size bookkeeping of the walkers before and
+ * after the switch to SizeIndex and PathStore.
+ *
+ * A synthetic set of files is fed into a HashMap of boxed sizes to Path
+ * entries, as SimpleFileWalker used to keep, and into a SizeIndex with a
+ * PathStore. The retained heap of each is measured after a full GC.
+ *
+ * Usage: MemoryReport [files] [files per directory]
+ */
+public class MemoryReport {
+
+    public static void main(String[] args) throws InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perDir = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        long base = usedHeap();
+        var legacy = fillLegacy(files, perDir);
+        long legacyBytes = usedHeap() - base;
+        int legacySizes = legacy.size();
+        legacy = null;
+
+        base = usedHeap();
+        var index = new SizeIndex();
+        var paths = new PathStore();
+        fillCompact(index, paths, files, perDir);
+        long compactBytes = usedHeap() - base;
+
+        System.out.println(String.format("Files: %,d in %,d directories, %,d distinct sizes", files,
+                paths.directories(), legacySizes));
+        System.out.println(String.format("HashMap<Long, Entry<Path, Boolean>>: %,d bytes (%.1f per size)",
+                legacyBytes, (double) legacyBytes / legacySizes));
+        System.out.println(String.format("SizeIndex + PathStore:               %,d bytes (%.1f per size)",
+                compactBytes, (double) compactBytes / index.size()));
+        System.out.println(String.format("  SizeIndex estimate: %,d bytes, PathStore estimate: %,d bytes",
+                index.estimateBytes(), paths.estimateBytes()));
+        System.out.println(String.format("Saving: %.1f%%", 100.0 - 100.0 * compactBytes / legacyBytes));
+    }
+
+    static Map<Long, Entry<Path, Boolean>> fillLegacy(int files, int perDir) {
+        var rnd = new Random(42);
+        var map = new HashMap<Long, Entry<Path, Boolean>>();
+        for (int i = 0; i < files; ++i) {
+            long size = nextSize(rnd);
+            var v = map.get(size);
+            if (v == null) {
+                map.put(size, new SimpleEntry<>(pathOf(i, perDir), false));
+            } else {
+                v.setValue(true);
+            }
+        }
+        return map;
+    }
+
+    static void fillCompact(SizeIndex index, PathStore paths, int files, int perDir) {
+        var rnd = new Random(42);
+        for (int i = 0; i < files; ++i) {
+            long size = nextSize(rnd);
+            int id = i;
+            index.offer(size, () -> paths.add(pathOf(id, perDir)));
+        }
+    }
+
+    /**
+     * File sizes spread over a wide range, so most sizes are unique as on
+     * a real file system
+     */
+    static long nextSize(Random rnd) {
+        return 1 + (long) Math.exp(rnd.nextDouble() * 23);
+    }
+
+    static Path pathOf(int i, int perDir) {
+        return Path.of("/data/projects/archive", "dir" + (i / perDir), "file" + i + ".bin");
+    }
+
+    static long usedHeap() throws InterruptedException {
+        var rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+}
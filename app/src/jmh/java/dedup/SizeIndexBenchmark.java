@@ -0,0 +1,117 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the size bookkeeping the walkers do for every file they visit.
+ *
+ * The simple walker is used by one thread at a time, the threaded walkers
+ * share one index between all traversal threads, so that is measured with
+ * several threads contending for it. Every iteration starts from an empty
+ * index and walks the same generated paths and sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SizeIndexBenchmark {
+
+    static final int FILES = 1 << 20;
+
+    static final Path[] PATHS = Fixtures.paths(FILES, 100);
+
+    static final BasicFileAttributes[] ATTRIBUTES = new BasicFileAttributes[FILES];
+
+    static {
+        var sizes = Fixtures.sizes(FILES);
+        for (int i = 0; i < FILES; ++i) {
+            ATTRIBUTES[i] = Fixtures.attributes(sizes[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SimpleState {
+
+        SimpleFileWalker walker;
+
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            walker = new SimpleFileWalker((file, size) -> {
+            }, Path.of(System.getProperty("java.io.tmpdir")));
+            next = 0;
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+
+        ThreadedScanner.Data data;
+
+        final AtomicInteger next = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            // The queue is drained slower than it is filled, so it must
+            // not block the walkers
+            var options = new ScanOptions().setParallelism(4).setQueueCapacity(Integer.MAX_VALUE);
+            data = ThreadedScanner.Data.create(options, new ScanMetrics());
+            next.set(0);
+        }
+
+    }
+
+    /**
+     * A walker per thread, as walkers collect their files in batches
+     */
+    @State(Scope.Thread)
+    public static class WalkerState {
+
+        ThreadedFileWalker walker;
+
+        @Setup(Level.Iteration)
+        public void setUp(SharedState shared) {
+            walker = new ThreadedFileWalker(shared.data, Path.of("/bench/tree"));
+        }
+
+    }
+
+    @Benchmark
+    public Object simpleVisitFile(SimpleState state) throws IOException {
+        int i = state.next++ & (FILES - 1);
+        return state.walker.visitFile(PATHS[i], ATTRIBUTES[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object threadedAddFile(SharedState state, WalkerState walker) throws IOException {
+        int i = state.next.getAndIncrement() & (FILES - 1);
+        var result = walker.walker.visitFile(PATHS[i], ATTRIBUTES[i]);
+        // Drain the queue, the checksum threads would do so in a scan
+        var entry = state.data.CHECKSUM_ITEMS.poll();
+        if (entry != null)
+            state.data.CHECKSUM_ITEMS.done(entry);
+        return result;
+    }
+
+}
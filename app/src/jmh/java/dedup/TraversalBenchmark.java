@@ -0,0 +1,154 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many directory entries per second the traversals list. The
+ * tree is listed one directory at a time, as the threaded scanners do,
+ * with Files.walkFileTree() skipping the sub trees and with a
+ * DirectoryReader, and as a whole with one Files.walkFileTree(), as the
+ * simple scanner does. The entries are files of one byte, so the numbers
+ * are about the listing and the attribute reads, and after the first
+ * iteration they are served from the page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraversalBenchmark {
+
+    static final int DIRS = 64;
+
+    static final int SUB_DIRS = 8;
+
+    static final int FILES = 64;
+
+    /**
+     * The files and the sub directories listed per pass
+     */
+    static final int ENTRIES = DIRS * SUB_DIRS * (FILES + 1) + DIRS;
+
+    Path root;
+
+    final List<Path> dirs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("dedup-bench");
+        dirs.add(root);
+        for (int d = 0; d < DIRS; ++d) {
+            var dir = Files.createDirectory(root.resolve("d" + d));
+            dirs.add(dir);
+            for (int s = 0; s < SUB_DIRS; ++s) {
+                var sub = Files.createDirectory(dir.resolve("s" + s));
+                dirs.add(sub);
+                for (int f = 0; f < FILES; ++f)
+                    Files.write(sub.resolve("f" + f), new byte[1]);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    /**
+     * Counts what a walk visits, without descending when told to skip
+     */
+    static class Counter extends SimpleFileVisitor<Path> implements DirectoryReader.EntryVisitor {
+
+        final Path base;
+
+        final boolean skip;
+
+        long entries;
+
+        Counter(Path base, boolean skip) {
+            this.base = base;
+            this.skip = skip;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (dir.equals(base))
+                return FileVisitResult.CONTINUE;
+            ++entries;
+            return skip ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            entries += attrs.size();
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public void directory(Path dir, BasicFileAttributes attrs) {
+            ++entries;
+        }
+
+        @Override
+        public void file(Path file, BasicFileAttributes attrs, int links) {
+            entries += attrs.size();
+        }
+
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long fileTreePerDirectory() throws IOException {
+        long entries = 0;
+        for (var dir : dirs) {
+            var counter = new Counter(dir, true);
+            Files.walkFileTree(dir, counter);
+            entries += counter.entries;
+        }
+        return entries;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long directoryStreamPerDirectory() throws IOException {
+        long entries = 0;
+        for (var dir : dirs) {
+            var counter = new Counter(dir, true);
+            DirectoryReader.read(dir, counter);
+            entries += counter.entries;
+        }
+        return entries;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public long fileTreeWhole() throws IOException {
+        var counter = new Counter(root, false);
+        Files.walkFileTree(root, counter);
+        return counter.entries;
+    }
+
+}
@@ -8,6 +8,7 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
 
 public class App {
 
@@ -18,11 +19,65 @@ public class App {
         testWalker(dirs, new SimpleScanner(), "SIMPLE");
         testWalker(dirs, new HybridScanner(), "HYBRID");
         testWalker(dirs, new ThreadedScanner(), "THREADED");
+        testWalker(dirs, new VirtualThreadScanner(), "VIRTUAL");
 
         // ========================== FILE WALKERS TEST ========================
         testScanner(dirs, new SimpleScanner(), "SIMPLE");
         testScanner(dirs, new HybridScanner(), "HYBRID");
         testScanner(dirs, new ThreadedScanner(), "THREADED");
+        testScanner(dirs, new VirtualThreadScanner(), "VIRTUAL");
+        testScanner(dirs, new ExternalSortScanner(), "EXTERNAL");
+
+        // ========================== SCALING TEST =============================
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int n = 1; n <= cores; n *= 2) {
+            var options = new ScanOptions().setParallelism(n);
+            testScanner(dirs, new ThreadedScanner(options), "THREADED x" + n);
+        }
+
+        // ========================== METRICS TEST =============================
+        if (Boolean.getBoolean("dedup.metrics")) {
+            var scanner = new ThreadedScanner();
+            testScanner(dirs, scanner, "THREADED");
+            System.out.print(scanner.getMetrics().getReport());
+        }
+
+        // ========================== TIME BUDGET TEST =========================
+        var budget = System.getProperty("dedup.budget");
+        if (budget != null) {
+            testBudgetScanner(dirs, Duration.parse(budget));
+        }
+
+        // ========================== BLOCK LEVEL TEST =========================
+        if (Boolean.getBoolean("dedup.chunks")) {
+            testChunkScanner(dirs);
+        }
+
+        // ========================== ARCHIVES TEST ============================
+        if (Boolean.getBoolean("dedup.archives")) {
+            testScanner(dirs, new SimpleScanner(new ScanOptions().setArchives(true)), "ARCHIVES");
+        }
+
+        // ========================== SIMILAR IMAGES TEST ======================
+        if (Boolean.getBoolean("dedup.images")) {
+            testImageScanner(dirs);
+        }
+
+        // ========================== TREE LEVEL TEST ==========================
+        if (Boolean.getBoolean("dedup.trees")) {
+            testTreeScanner(dirs);
+        }
+
+        // ========================== WATCH MODE ===============================
+        if (Boolean.getBoolean("dedup.watch")) {
+            watch(dirs);
+        }
+
+        // ========================== CHECKSUM CACHE TEST ======================
+        var cacheFile = System.getProperty("dedup.cache");
+        if (cacheFile != null) {
+            testCachedScanner(dirs, Path.of(cacheFile));
+        }
     }
 
     static Collection<Path> getDirectory(String[] args) {
@@ -45,9 +100,63 @@ public class App {
 
     static void testScanner(Collection<Path> dirs, DuplicateScanner drv, String name) {
         var start = System.nanoTime();
-        var res = drv.scan(dirs);
+        var report = new DuplicateReport();
+        drv.scanWithSizes(dirs, report::add);
+        var dur = Duration.ofNanos(System.nanoTime() - start);
+        printReport(report, dur, name);
+        printLinkSummary(drv.getLinkGroups(), name);
+    }
+
+    static void testBudgetScanner(Collection<Path> dirs, Duration budget) throws InterruptedException {
+        var handle = new ThreadedScanner(new ScanOptions().setTimeBudget(budget)).start(dirs);
+        while (!handle.await(1, TimeUnit.SECONDS)) {
+            System.out.println(handle.getProgress());
+        }
+        var progress = handle.getProgress();
+        printDuplicateResults(handle.get(), progress.getElapsed(), "BUDGET " + progress.getState());
+    }
+
+    static void testChunkScanner(Collection<Path> dirs) {
+        var start = System.nanoTime();
+        var report = new ChunkScanner().scan(dirs);
         var dur = Duration.ofNanos(System.nanoTime() - start);
-        printDuplicateResults(res, dur, name);
+        System.out.println("BLOCK LEVEL scan took: %s, %s".formatted(dur, report.getSummary()));
+        report.getSharing().stream().limit(20).forEach(s -> System.out.println("\t" + s));
+    }
+
+    static void testImageScanner(Collection<Path> dirs) {
+        var start = System.nanoTime();
+        var res = new ImageScanner().scan(dirs);
+        printDuplicateResults(res, Duration.ofNanos(System.nanoTime() - start), "SIMILAR IMAGES");
+    }
+
+    static void testTreeScanner(Collection<Path> dirs) {
+        var start = System.nanoTime();
+        var report = new TreeScanner().scan(dirs);
+        var dur = Duration.ofNanos(System.nanoTime() - start);
+        System.out.println("TREE LEVEL scan took: %s, %s".formatted(dur, report.getSummary()));
+        report.getDirectoryGroups().stream().limit(20).forEach(g -> System.out.println("\t" + g));
+    }
+
+    static void watch(Collection<Path> dirs) throws IOException, InterruptedException {
+        try (var watcher = new DuplicateWatcher()) {
+            var start = System.nanoTime();
+            var res = watcher.start(dirs);
+            printDuplicateResults(res, Duration.ofNanos(System.nanoTime() - start), "WATCH");
+            watcher.setListener((groups, size) -> {
+                System.out.println(String.format("Size %d now has %d duplicates", size, groups.size()));
+            });
+            watcher.watch();
+        }
+    }
+
+    static void testCachedScanner(Collection<Path> dirs, Path cacheFile) throws IOException {
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            var options = new ScanOptions().setChecksumCache(cache);
+            testScanner(dirs, new ThreadedScanner(options), "CACHED");
+            System.out.println(cache.getReport());
+            cache.compact();
+        }
     }
 
     static void testWalker(Collection<Path> dirs, DuplicateScanner drv, String name) {
@@ -62,19 +171,37 @@ public class App {
         System.out.println(fmt.formatted(type, duration, fileMap.size()));
     }
 
+    static void printLinkSummary(Collection<Collection<Path>> links, String type) {
+        long paths = 0;
+        for (var group : links)
+            paths += group.size();
+        var fmt = "%s found %d files with several links, %d paths in total";
+        System.out.println(String.format(fmt, type, links.size(), paths));
+    }
+
     static void printDuplicateResults(Collection<Collection<Path>> list, Duration duration, String type) {
-        var fmt = "%s Duplicate finder took: %s and found: %d duplicates";
-        System.out.println(String.format(fmt, type, duration, list.size()));
-
-        if (list.size() <= 20) {
-            int i = 0;
-            for (var col : list) {
-                ++i;
-                System.out.println(String.format("\nList: %d has %d duplicates!", i, col.size()));
-                var items = col.stream().map(Path::toString).toArray(String[]::new);
-                System.out.println(String.format("\t%s", String.join("\n\t", items)));
-            }
+        var report = new DuplicateReport();
+        list.forEach(report);
+        printReport(report, duration, type);
+    }
+
+    static void printReport(DuplicateReport report, Duration duration, String type) {
+        var fmt = "%s Duplicate finder took: %s and found: %s";
+        System.out.println(String.format(fmt, type, duration, report.getSummary()));
+
+        int i = 0;
+        for (var group : report.getTop()) {
+            ++i;
+            System.out.println(String.format("\nList: %d, %s", i, group));
+            var items = group.getPaths().stream().map(Path::toString).toArray(String[]::new);
+            System.out.println(String.format("\t%s", String.join("\n\t", items)));
         }
+        if (report.getGroups() == 0)
+            return;
+        System.out.println("\nBy size:");
+        report.getSizeHistogram().forEach(b -> System.out.println("\t" + b));
+        System.out.println("By directory:");
+        report.getDirectories(10).forEach(d -> System.out.println("\t" + d));
     }
 
 }
@@ -0,0 +1,348 @@
+package dedup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of zip, jar, war, ear and tar archives, plain or
+ * gzipped, as a stream, without extracting them. Every file in an archive
+ * is passed on with its size and the digest FileComparator.digestFor()
+ * would give it, under a path made of the archive path, "!/" and the name
+ * of the entry, e.g. outer.zip!/inner/file.
+ *
+ * Archives in archives are read as they are streamed past, up to a
+ * nesting depth of MAX_DEPTH, and are passed on as entries themselves too.
+ */
+public class ArchiveReader {
+
+    /**
+     * Receives the files found in an archive
+     */
+    public interface EntryConsumer {
+
+        void accept(Path path, long size, Digest digest);
+
+    }
+
+    /**
+     * How deep archives in archives are opened
+     */
+    public static final int MAX_DEPTH = 8;
+
+    public static final String SEPARATOR = "!/";
+
+    private static final int BLOCK = 512;
+
+    private enum Format {
+        ZIP, TAR, TGZ
+    }
+
+    private final ScanOptions options;
+
+    public ArchiveReader() {
+        this(ScanOptions.defaults());
+    }
+
+    public ArchiveReader(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * @param file a file
+     * @return true if the name of the file is that of an archive that can
+     *         be read
+     */
+    public static boolean isArchive(Path file) {
+        return formatOf(file.getFileName().toString()) != null;
+    }
+
+    private static Format formatOf(String name) {
+        var lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".zip") || lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear"))
+            return Format.ZIP;
+        if (lower.endsWith(".tar"))
+            return Format.TAR;
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz"))
+            return Format.TGZ;
+        return null;
+    }
+
+    /**
+     * Passes on every file in the archive and in the archives it holds
+     *
+     * @param archive  an archive file
+     * @param consumer receives the files
+     * @throws IOException if the archive cannot be read, the entries found
+     *                     until then have been passed on
+     */
+    public void read(Path archive, EntryConsumer consumer) throws IOException {
+        var format = formatOf(archive.getFileName().toString());
+        if (format == null)
+            return;
+        try (var in = new BufferedInputStream(Files.newInputStream(archive), options.getBufferSize())) {
+            read(in, format, archive.toString(), 1, consumer);
+        }
+    }
+
+    private void read(InputStream in, Format format, String prefix, int depth, EntryConsumer consumer)
+            throws IOException {
+        switch (format) {
+        case ZIP:
+            readZip(in, prefix, depth, consumer);
+            break;
+        case TGZ:
+            readTar(new GZIPInputStream(in, options.getBufferSize()), prefix, depth, consumer);
+            break;
+        default:
+            readTar(in, prefix, depth, consumer);
+        }
+    }
+
+    private void readZip(InputStream in, String prefix, int depth, EntryConsumer consumer) throws IOException {
+        var zip = new ZipInputStream(in);
+        for (var e = zip.getNextEntry(); e != null; e = zip.getNextEntry()) {
+            if (!e.isDirectory())
+                entry(zip, e.getName(), e.getSize(), prefix, depth, consumer);
+        }
+    }
+
+    private void readTar(InputStream in, String prefix, int depth, EntryConsumer consumer) throws IOException {
+        var header = new byte[BLOCK];
+        String longName = null;
+        while (readBlock(in, header)) {
+            if (header[0] == 0)
+                return;
+            long size = parseSize(header);
+            byte type = header[156];
+            var body = new Bounded(in, size);
+            if (type == 'L') {
+                longName = trim(body.readAll());
+            } else if (type == 'x') {
+                var path = paxPath(body.readAll());
+                if (path != null)
+                    longName = path;
+            } else {
+                var name = longName != null ? longName : tarName(header);
+                longName = null;
+                if (type == '0' || type == 0 || type == '7')
+                    entry(body, name, size, prefix, depth, consumer);
+            }
+            body.skipRest();
+            long padding = (BLOCK - size % BLOCK) % BLOCK;
+            in.skipNBytes(padding);
+        }
+    }
+
+    private void entry(InputStream in, String name, long size, String prefix, int depth, EntryConsumer consumer)
+            throws IOException {
+        Path path;
+        var entryPath = prefix + SEPARATOR + name;
+        try {
+            path = Path.of(entryPath);
+        } catch (InvalidPathException ex) {
+            return;
+        }
+
+        var digest = new StreamDigest(options, size);
+        var content = new Digesting(in, digest);
+        var nested = formatOf(name);
+        if (nested != null && depth < MAX_DEPTH) {
+            try {
+                read(content, nested, entryPath, depth + 1, consumer);
+            } catch (IOException ex) {
+                // A broken archive in an archive is still an entry
+            }
+        }
+        content.skipRest();
+        if (digest.size() > 0)
+            consumer.accept(path, digest.size(), digest.digest());
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int n = in.readNBytes(block, 0, BLOCK);
+        if (n == 0)
+            return false;
+        if (n < BLOCK)
+            throw new EOFException("Truncated tar header");
+        return true;
+    }
+
+    private static long parseSize(byte[] header) {
+        // Large sizes are stored in base 256 with the high bit set
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; ++i)
+                size = (size << 8) | (header[i] & 0xFF);
+            return size;
+        }
+        long size = 0;
+        for (int i = 124; i < 136; ++i) {
+            int c = header[i];
+            if (c >= '0' && c <= '7')
+                size = (size << 3) | (c - '0');
+            else if (c != ' ' || size > 0)
+                break;
+        }
+        return size;
+    }
+
+    private static String tarName(byte[] header) {
+        var name = field(header, 0, 100);
+        // The ustar prefix holds the directories of long paths
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a'
+                && header[261] == 'r') {
+            var dirs = field(header, 345, 155);
+            if (!dirs.isEmpty())
+                return dirs + "/" + name;
+        }
+        return name;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+            ++end;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trim(byte[] name) {
+        int end = 0;
+        while (end < name.length && name[end] != 0)
+            ++end;
+        return new String(name, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the path of a pax extended header, records of the form
+     *         "length key=value\n"
+     */
+    private static String paxPath(byte[] records) {
+        String path = null;
+        int pos = 0;
+        while (pos < records.length) {
+            int space = pos;
+            while (space < records.length && records[space] != ' ')
+                ++space;
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                break;
+            }
+            if (length <= 0 || pos + length > records.length)
+                break;
+            var record = new String(records, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path="))
+                path = record.substring(5);
+            pos += length;
+        }
+        return path;
+    }
+
+    /**
+     * The body of a tar entry, the archive stream is not closed with it
+     */
+    private static class Bounded extends FilterInputStream {
+
+        private long remaining;
+
+        Bounded(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                --remaining;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        byte[] readAll() throws IOException {
+            return readNBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+        }
+
+        void skipRest() throws IOException {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    /**
+     * Passes everything read from an entry on to its digest, the entry can
+     * be read by a nested archive and the rest skipped after that
+     */
+    private static class Digesting extends FilterInputStream {
+
+        private final StreamDigest digest;
+
+        private final byte[] skipBuffer = new byte[8192];
+
+        Digesting(InputStream in, StreamDigest digest) {
+            super(in);
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                digest.update(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                digest.update(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int read = read(skipBuffer, 0, (int) Math.min(n, skipBuffer.length));
+            return Math.max(read, 0);
+        }
+
+        void skipRest() throws IOException {
+            while (read(skipBuffer, 0, skipBuffer.length) >= 0) {
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,361 @@
+package dedup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the checksums of files on disk between scans, so a
+ * file that has not changed since the last scan costs a single stat
+ * instead of a full read.
+ *
+ * Entries are keyed by the absolute path of the file and are only used
+ * while the size, modification time and file key (inode) of the file
+ * still match. New checksums are appended to the cache file as they are
+ * calculated; compact() rewrites it without stale and superseded entries.
+ */
+public class ChecksumCache implements Closeable {
+
+    private static final int MAGIC = 0x44445550;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The entries read from the cache file, not yet checked against the
+     * file system during this run
+     */
+    private final Map<String, Entry> stored;
+
+    /**
+     * The entries that have been checked against the file system during
+     * this run, so further lookups of the same file need no stat
+     */
+    private final Map<String, Entry> current;
+
+    private final Path cacheFile;
+
+    private DataOutputStream log;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidated = new LongAdder();
+
+    private ChecksumCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        this.stored = new ConcurrentHashMap<>();
+        this.current = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Opens the cache stored in the given file, creating it if it does not
+     * exist yet.
+     *
+     * @param cacheFile the file that holds the cache
+     * @return the cache
+     * @throws IOException if the file exists but is not a checksum cache
+     */
+    public static ChecksumCache open(Path cacheFile) throws IOException {
+        var cache = new ChecksumCache(Objects.requireNonNull(cacheFile));
+        if (Files.exists(cacheFile)) {
+            cache.load();
+        } else {
+            cache.writeHeader();
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the sample checksum of the file, reading it from the cache if
+     * the file has not changed since it was stored.
+     *
+     * @see FileComparator#sampleChecksumFor(Path, int)
+     */
+    public long sampleChecksumFor(Path file, int sampleSize) throws IOException {
+        var entry = lookup(file);
+        synchronized (entry) {
+            if (entry.sampleSize == sampleSize) {
+                hits.increment();
+                return entry.sample;
+            }
+            misses.increment();
+            entry.sample = FileComparator.sampleChecksumFor(file, sampleSize);
+            entry.sampleSize = sampleSize;
+            append(entry);
+            return entry.sample;
+        }
+    }
+
+    /**
+     * Returns the digest of the file for the given options, reading it from
+     * the cache if the file has not changed since it was stored.
+     *
+     * @see FileComparator#digestFor(Path, ScanOptions)
+     */
+    public Digest digestFor(Path file, ScanOptions options) throws IOException {
+        if (!options.isFullHashStage() && !options.isSampleStage())
+            return FileComparator.SIZE_ONLY;
+        if (!options.isFullHashStage())
+            return Digest.of(sampleChecksumFor(file, options.getSampleSize()));
+
+        var entry = lookup(file);
+        synchronized (entry) {
+            long segmentSize = FileComparator.segmentSizeFor(entry.size, options);
+            if (entry.digest != null && entry.algorithm == options.getHashAlgorithm()
+                    && entry.segmentSize == segmentSize) {
+                hits.increment();
+                return entry.digest;
+            }
+            misses.increment();
+            entry.digest = FileComparator.digestFor(file, options);
+            entry.algorithm = options.getHashAlgorithm();
+            entry.segmentSize = segmentSize;
+            append(entry);
+            return entry.digest;
+        }
+    }
+
+    /**
+     * Drops the cached checksums of the given file
+     */
+    public void invalidate(Path file) {
+        var key = keyFor(file);
+        stored.remove(key);
+        current.remove(key);
+    }
+
+    /**
+     * Rewrites the cache file with one entry per file, dropping the entries
+     * of files that no longer exist or have changed since they were stored.
+     * This should not be called while a scan is using the cache.
+     */
+    public synchronized void compact() throws IOException {
+        for (var e : stored.entrySet()) {
+            try {
+                var attrs = Files.readAttributes(Path.of(e.getKey()), BasicFileAttributes.class);
+                if (e.getValue().matches(attrs)) {
+                    current.putIfAbsent(e.getKey(), e.getValue());
+                }
+            } catch (IOException | RuntimeException ex) {
+            }
+        }
+        stored.clear();
+
+        closeLog();
+        var tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (var entry : current.values()) {
+                entry.write(out);
+            }
+        }
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeLog();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of stored entries found to be out of date
+     */
+    public long getInvalidated() {
+        return invalidated.sum();
+    }
+
+    /**
+     * @return the number of files the cache holds checksums for
+     */
+    public int size() {
+        return stored.size() + current.size();
+    }
+
+    public String getReport() {
+        long total = getHits() + getMisses();
+        double ratio = total == 0 ? 0 : 100.0 * getHits() / total;
+        var fmt = "Checksum cache: %d hits, %d misses (%.1f%% hit rate), %d invalidated, %d entries";
+        return String.format(fmt, getHits(), getMisses(), ratio, getInvalidated(), size());
+    }
+
+    private Entry lookup(Path file) throws IOException {
+        var key = keyFor(file);
+        var entry = current.get(key);
+        if (entry != null)
+            return entry;
+
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        var old = stored.remove(key);
+        if (old != null && old.matches(attrs)) {
+            entry = old;
+        } else {
+            if (old != null)
+                invalidated.increment();
+            entry = new Entry(key, attrs);
+        }
+        var prev = current.putIfAbsent(key, entry);
+        return prev != null ? prev : entry;
+    }
+
+    private static String keyFor(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private void load() throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a checksum cache: " + cacheFile);
+            while (true) {
+                // Later records of the same file replace earlier ones
+                var entry = Entry.read(in);
+                stored.put(entry.path, entry);
+            }
+        } catch (EOFException eof) {
+            // End of the log, or a record cut short by a crash
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        try (var out = new DataOutputStream(Files.newOutputStream(cacheFile))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+    }
+
+    private synchronized void append(Entry entry) {
+        try {
+            if (log == null) {
+                var strm = Files.newOutputStream(cacheFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                log = new DataOutputStream(new BufferedOutputStream(strm));
+            }
+            entry.write(log);
+        } catch (IOException ex) {
+            // The checksum is still valid for this run, it just will not
+            // be there for the next one
+        }
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    private static class Entry {
+
+        final String path;
+
+        final long size;
+
+        final long modified;
+
+        final String fileKey;
+
+        /**
+         * The size the sample was taken with, 0 if there is no sample
+         */
+        int sampleSize;
+
+        long sample;
+
+        HashAlgorithm algorithm;
+
+        /**
+         * The size of the segments the digest was calculated in, 0 if the
+         * file was hashed as a whole
+         */
+        long segmentSize;
+
+        Digest digest;
+
+        Entry(String path, long size, long modified, String fileKey) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+        }
+
+        Entry(String path, BasicFileAttributes attrs) {
+            this(path, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKeyOf(attrs));
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(fileKeyOf(attrs));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeUTF(fileKey);
+            out.writeInt(sampleSize);
+            out.writeLong(sample);
+            if (digest == null) {
+                out.writeUTF("");
+            } else {
+                // The segment size is appended to the name, so entries
+                // without it read as whole file digests
+                out.writeUTF(segmentSize > 0 ? algorithm.name() + "@" + segmentSize : algorithm.name());
+                var bytes = digest.toBytes();
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            var entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+            entry.sampleSize = in.readInt();
+            entry.sample = in.readLong();
+            var algo = in.readUTF();
+            if (!algo.isEmpty()) {
+                var bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                try {
+                    int at = algo.indexOf('@');
+                    if (at >= 0) {
+                        entry.segmentSize = Long.parseLong(algo.substring(at + 1));
+                        algo = algo.substring(0, at);
+                    }
+                    entry.algorithm = HashAlgorithm.valueOf(algo);
+                    entry.digest = Digest.of(bytes);
+                } catch (IllegalArgumentException ex) {
+                    // Written by a version with an algorithm we do not know
+                }
+            }
+            return entry;
+        }
+
+        static String fileKeyOf(BasicFileAttributes attrs) {
+            var key = attrs.fileKey();
+            return key == null ? "" : key.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a block level scan: how many bytes the scanned files hold,
+ * how many of them are in chunks seen before and which files share them.
+ */
+public class ChunkReport {
+
+    private final int files;
+
+    private final long totalBytes;
+
+    private final long reclaimableBytes;
+
+    private final long chunks;
+
+    private final long distinctChunks;
+
+    private final List<Sharing> sharing;
+
+    ChunkReport(int files, long totalBytes, long reclaimableBytes, long chunks, long distinctChunks,
+            List<Sharing> sharing) {
+        this.files = files;
+        this.totalBytes = totalBytes;
+        this.reclaimableBytes = reclaimableBytes;
+        this.chunks = chunks;
+        this.distinctChunks = distinctChunks;
+        this.sharing = Collections.unmodifiableList(sharing);
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of bytes in all scanned files
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of bytes that would remain if every chunk was
+     *         stored once
+     */
+    public long getUniqueBytes() {
+        return totalBytes - reclaimableBytes;
+    }
+
+    /**
+     * @return the number of bytes in chunks that repeat a chunk seen before,
+     *         in another file or earlier in the same file
+     */
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public long getDistinctChunks() {
+        return distinctChunks;
+    }
+
+    /**
+     * @return the pairs of files that share chunks, with the most shared
+     *         bytes first
+     */
+    public List<Sharing> getSharing() {
+        return sharing;
+    }
+
+    public String getSummary() {
+        var fmt = "%,d files, %,d bytes in %,d chunks (%,d distinct), %,d bytes reclaimable (%.1f%%), %,d file pairs share chunks";
+        double percent = totalBytes > 0 ? 100.0 * reclaimableBytes / totalBytes : 0;
+        return String.format(fmt, files, totalBytes, chunks, distinctChunks, reclaimableBytes, percent,
+                sharing.size());
+    }
+
+    /**
+     * The bytes a file holds in chunks that were first seen in another file
+     */
+    public static final class Sharing {
+
+        private final Path first;
+
+        private final Path second;
+
+        private final long bytes;
+
+        Sharing(Path first, Path second, long bytes) {
+            this.first = first;
+            this.second = second;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the file the chunks were first seen in
+         */
+        public Path getFirst() {
+            return first;
+        }
+
+        /**
+         * @return the file that repeats the chunks
+         */
+        public Path getSecond() {
+            return second;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s <-> %s: %,d bytes", first, second, bytes);
+        }
+
+    }
+
+}
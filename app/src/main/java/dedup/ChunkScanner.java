@@ -0,0 +1,168 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This scanner finds duplicate data below the file level. Every file is cut
+ * into content defined chunks, see Chunker, and the chunks are kept in an
+ * index by their digest, so regions shared by files of any size are found,
+ * such as VM images of the same base system or logs that repeat each other.
+ *
+ * A chunk that is already in the index is counted as reclaimable and its
+ * bytes are credited to the pair of the file it was first seen in and the
+ * file that repeats it. The files are chunked in parallel but added to the
+ * index one after the other in the order of their paths, so a chunk is
+ * always attributed to the same file.
+ */
+public class ChunkScanner {
+
+    private final ScanOptions options;
+
+    private final Chunker chunker;
+
+    public ChunkScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public ChunkScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+        this.chunker = new Chunker(options.getChunkSize(), options.getHashAlgorithm());
+    }
+
+    /**
+     * Chunks every file below the given directories
+     *
+     * @param dirs a collection of the directories to scan
+     * @return the shared bytes found
+     */
+    public ChunkReport scan(Collection<Path> dirs) {
+        var files = new ArrayList<Path>();
+        var links = options.isCollapseLinks() ? new LinkIndex(dirs) : null;
+        for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
+            try {
+                new SimpleFileWalker((file, size) -> files.add(file), d).setLinkIndex(links).setAllFiles(true)
+                        .setFilter(options.getFilter()).setTraversal(options.getTraversal()).walk();
+            } catch (IOException ex) {
+            }
+        }
+
+        files.sort(null);
+        var index = new Index();
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        try {
+            // The chunks of a few files ahead are read while the index takes
+            // those of the next one
+            int window = options.getParallelism() * 2;
+            var pending = new ArrayDeque<Future<List<Chunk>>>();
+            int next = 0;
+            for (int id = 0; id < files.size(); ++id) {
+                for (; next < files.size() && next - id < window; ++next) {
+                    var file = files.get(next);
+                    pending.add(threads.submit(() -> chunk(file)));
+                }
+                for (var c : pending.remove().get()) {
+                    index.addChunk(id, c.digest, c.length);
+                }
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            threads.shutdownNow();
+        }
+        return index.report(files);
+    }
+
+    /**
+     * @return the chunks of the file, none if it cannot be read
+     */
+    private List<Chunk> chunk(Path file) {
+        var result = new ArrayList<Chunk>();
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            chunker.chunk(ch, (digest, length) -> result.add(new Chunk(digest, length)));
+        } catch (IOException ex) {
+            result.clear();
+        }
+        return result;
+    }
+
+    private static final class Chunk {
+
+        final Digest digest;
+
+        final int length;
+
+        Chunk(Digest digest, int length) {
+            this.digest = digest;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * The chunks of all files by their digest
+     */
+    private static class Index {
+
+        /**
+         * The id of the file every chunk was first seen in
+         */
+        final Map<Digest, Integer> chunks = new HashMap<>();
+
+        /**
+         * The repeated bytes by the ids of the file they were first seen in
+         * and the file that repeats them, packed into a long
+         */
+        final Map<Long, long[]> shared = new HashMap<>();
+
+        long totalBytes;
+
+        long reclaimableBytes;
+
+        long chunkCount;
+
+        void addChunk(int file, Digest digest, int length) {
+            totalBytes += length;
+            ++chunkCount;
+            var first = chunks.putIfAbsent(digest, file);
+            if (first == null)
+                return;
+
+            reclaimableBytes += length;
+            if (first != file) {
+                long pair = ((long) first << 32) | file;
+                shared.computeIfAbsent(pair, k -> new long[1])[0] += length;
+            }
+        }
+
+        ChunkReport report(List<Path> files) {
+            var sharing = new ArrayList<ChunkReport.Sharing>(shared.size());
+            for (var e : shared.entrySet()) {
+                long pair = e.getKey();
+                sharing.add(new ChunkReport.Sharing(files.get((int) (pair >>> 32)), files.get((int) pair),
+                        e.getValue()[0]));
+            }
+            sharing.sort(Comparator.comparingLong(ChunkReport.Sharing::getBytes).reversed());
+            return new ChunkReport(files.size(), totalBytes, reclaimableBytes, chunkCount,
+                    chunks.size(), sharing);
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.SplittableRandom;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This class splits a stream of bytes into chunks at boundaries that depend
+ * on the content only, so a region shared by two files is cut into the same
+ * chunks in both, wherever it starts.
+ *
+ * It rolls a gear hash over the bytes and cuts where the top bits of the
+ * hash are all zero, which happens once every average chunk size on random
+ * data. Chunks are kept between a quarter and four times the average size.
+ */
+public class Chunker {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * A random value for every byte, generated from a fixed seed so chunk
+     * boundaries are the same in every run
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        var rnd = new SplittableRandom(0x6765_6172_6364_6331L);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = rnd.nextLong();
+        }
+    }
+
+    private final HashAlgorithm algorithm;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long mask;
+
+    /**
+     * @param averageSize the average chunk size, a power of two
+     * @param algorithm   the algorithm to identify chunks with
+     */
+    public Chunker(int averageSize, HashAlgorithm algorithm) {
+        if (averageSize < 64 || Integer.bitCount(averageSize) != 1)
+            throw new IllegalArgumentException("Average chunk size must be a power of two of at least 64");
+        this.algorithm = algorithm;
+        this.minSize = averageSize / 4;
+        this.maxSize = averageSize * 4;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.mask = -1L << (64 - bits);
+    }
+
+    /**
+     * Reads the channel to its end and hands every chunk to the consumer
+     *
+     * @param ch       the channel to read
+     * @param consumer receives the digest and length of every chunk in order
+     * @throws IOException if the channel could not be read
+     */
+    public void chunk(ReadableByteChannel ch, ObjIntConsumer<Digest> consumer) throws IOException {
+        var buf = new byte[BUFFER_SIZE];
+        var wrapped = ByteBuffer.wrap(buf);
+        var hasher = algorithm.newHasher();
+        long hash = 0;
+        int length = 0;
+
+        int n;
+        while ((n = ch.read(wrapped.clear())) > -1) {
+            int start = 0;
+            for (int i = 0; i < n; ++i) {
+                hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+                if (++length >= minSize && ((hash & mask) == 0 || length >= maxSize)) {
+                    hasher.update(ByteBuffer.wrap(buf, start, i + 1 - start));
+                    consumer.accept(hasher.digest(), length);
+                    hasher = algorithm.newHasher();
+                    hash = 0;
+                    length = 0;
+                    start = i + 1;
+                }
+            }
+            if (start < n) {
+                hasher.update(ByteBuffer.wrap(buf, start, n - start));
+            }
+        }
+        if (length > 0) {
+            consumer.accept(hasher.digest(), length);
+        }
+    }
+
+}
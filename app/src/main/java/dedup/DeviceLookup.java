@@ -0,0 +1,67 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells the FileStore a file is stored on, for the read scheduling and the
+ * metrics of a scan to share.
+ *
+ * Looking up a FileStore reads the mount table on most platforms, so it is
+ * done once per device. Where the file system has unix attributes the
+ * device is told by the device number of the file, which is a plain stat,
+ * elsewhere by the root of its path, such as the drive letter. The number
+ * of entries is bounded by the number of devices, not of directories.
+ */
+public class DeviceLookup {
+
+    private final Map<Object, Optional<FileStore>> stores;
+
+    public DeviceLookup() {
+        stores = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param file a file
+     * @return the FileStore of the file, or null if it cannot be determined
+     */
+    public FileStore storeOf(Path file) {
+        var key = deviceKey(file);
+        if (key == null)
+            return null;
+        return stores.computeIfAbsent(key, k -> {
+            try {
+                return Optional.of(Files.getFileStore(file));
+            } catch (IOException ex) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * @param file a file
+     * @return the name of the FileStore of the file, or null if it cannot be
+     *         determined
+     */
+    public String nameOf(Path file) {
+        var store = storeOf(file);
+        return store != null ? store.name() : null;
+    }
+
+    private static Object deviceKey(Path file) {
+        if (file.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            try {
+                return Files.getAttribute(file, "unix:dev");
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        return file.toAbsolutePath().getRoot();
+    }
+
+}
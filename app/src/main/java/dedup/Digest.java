@@ -0,0 +1,73 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable hash value that can be used as a map key, whatever the
+ * width of the hash that produced it.
+ */
+public final class Digest {
+
+    private final byte[] bytes;
+
+    private final int hash;
+
+    private Digest(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    public static Digest of(byte[] bytes) {
+        return new Digest(Objects.requireNonNull(bytes).clone());
+    }
+
+    public static Digest of(long value) {
+        return new Digest(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+    }
+
+    public static Digest of(long high, long low) {
+        return new Digest(ByteBuffer.allocate(2 * Long.BYTES).putLong(high).putLong(low).array());
+    }
+
+    /**
+     * @return a copy of the hash bytes
+     */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * @return the number of bytes in this digest
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof Digest))
+            return false;
+        var other = (Digest) obj;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
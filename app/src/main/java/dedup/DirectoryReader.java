@@ -0,0 +1,178 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Lists the entries of a single directory with a DirectoryStream.
+ *
+ * Java does not tell the type of an entry from the listing, so every entry
+ * has its attributes read once, without following links. Where the
+ * platform has a SecureDirectoryStream they are read relative to the open
+ * directory, so the kernel does not resolve the whole path again for every
+ * entry. A directory is not looked at again when it is listed itself, and
+ * entries that are neither files, links nor directories, such as pipes
+ * and devices, are skipped.
+ *
+ * When the link counts are asked for and the file system has unix
+ * attributes, they are read by path through the unix view instead, which
+ * gets the link count of an entry from the same stat as its other
+ * attributes.
+ */
+public final class DirectoryReader {
+
+    /**
+     * The basic attributes and the link count, as named by the unix view
+     */
+    private static final String UNIX_ATTRIBUTES = "unix:lastModifiedTime,lastAccessTime,creationTime,size,"
+            + "isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,nlink";
+
+    /**
+     * Receives the entries of a directory
+     */
+    public interface EntryVisitor {
+
+        void directory(Path dir, BasicFileAttributes attrs);
+
+        /**
+         * @param file  a regular file or a symbolic link
+         * @param attrs the attributes of the file, or of the link itself
+         * @param links the number of links of the file, or -1 if it was not
+         *              read
+         */
+        void file(Path file, BasicFileAttributes attrs, int links);
+
+    }
+
+    private DirectoryReader() {
+    }
+
+    /**
+     * Passes on the entries of the directory in the order they are listed
+     *
+     * @param dir     the directory to list
+     * @param visitor receives the entries
+     * @return the number of entries listed, including those that were
+     *         skipped
+     * @throws IOException if the directory cannot be listed, the entries
+     *                     listed until then have been passed on
+     */
+    public static int read(Path dir, EntryVisitor visitor) throws IOException {
+        return read(dir, visitor, false);
+    }
+
+    /**
+     * Passes on the entries of the directory in the order they are listed
+     *
+     * @param dir        the directory to list
+     * @param visitor    receives the entries
+     * @param linkCounts true to read the link counts of the files as well,
+     *                   where the file system tells them
+     * @return the number of entries listed, including those that were
+     *         skipped
+     * @throws IOException if the directory cannot be listed, the entries
+     *                     listed until then have been passed on
+     */
+    public static int read(Path dir, EntryVisitor visitor, boolean linkCounts) throws IOException {
+        boolean unix = linkCounts && dir.getFileSystem().supportedFileAttributeViews().contains("unix");
+        int entries = 0;
+        try (var stream = Files.newDirectoryStream(dir)) {
+            @SuppressWarnings("unchecked")
+            var secure = stream instanceof SecureDirectoryStream ? (SecureDirectoryStream<Path>) stream : null;
+            for (var entry : stream) {
+                ++entries;
+                BasicFileAttributes attrs;
+                int links = -1;
+                try {
+                    if (unix) {
+                        var map = Files.readAttributes(entry, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                        attrs = new UnixAttributes(map);
+                        links = (Integer) map.get("nlink");
+                    } else if (secure != null) {
+                        attrs = secure.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class,
+                                LinkOption.NOFOLLOW_LINKS).readAttributes();
+                    } else {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    }
+                } catch (IOException ex) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    visitor.directory(entry, attrs);
+                } else if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+                    visitor.file(entry, attrs, links);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        return entries;
+    }
+
+    /**
+     * The basic attributes of an entry as read through the unix view
+     */
+    private static final class UnixAttributes implements BasicFileAttributes {
+
+        private final Map<String, Object> map;
+
+        UnixAttributes(Map<String, Object> map) {
+            this.map = map;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return (FileTime) map.get("lastModifiedTime");
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return (FileTime) map.get("lastAccessTime");
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return (FileTime) map.get("creationTime");
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return (Boolean) map.get("isRegularFile");
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return (Boolean) map.get("isDirectory");
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return (Boolean) map.get("isSymbolicLink");
+        }
+
+        @Override
+        public boolean isOther() {
+            return (Boolean) map.get("isOther");
+        }
+
+        @Override
+        public long size() {
+            return (Long) map.get("size");
+        }
+
+        @Override
+        public Object fileKey() {
+            return map.get("fileKey");
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+package dedup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class keeps the duplicates of a set of files current as files are
+ * added, changed and removed, without rescanning the others.
+ *
+ * Every file is kept with its size and modification time. A digest is only
+ * calculated for files that share their size with another file, and it is
+ * kept until the file changes, so a change costs at most the hashing of
+ * the files of the sizes it touched. Changes are recorded first and the
+ * affected sizes hashed in one go by refresh().
+ */
+public class DuplicateIndex {
+
+    private final ScanOptions options;
+
+    /**
+     * The files by their path, sorted so the files below a directory are
+     * next to each other
+     */
+    private final NavigableMap<String, FileState> files;
+
+    private final Map<Long, Set<String>> bySize;
+
+    /**
+     * The sizes that have had files added or removed since the last refresh
+     */
+    private final Set<Long> dirty;
+
+    public DuplicateIndex(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+        files = new TreeMap<>();
+        bySize = new HashMap<>();
+        dirty = new HashSet<>();
+    }
+
+    /**
+     * Adds a file, or updates it if it is already known. A file whose size
+     * and modification time have not changed keeps its digest.
+     *
+     * @param file     the file
+     * @param size     the size of its content
+     * @param modified its modification time in milliseconds
+     * @return true if the file is new or has changed
+     */
+    public synchronized boolean put(Path file, long size, long modified) {
+        var key = file.toString();
+        var old = files.get(key);
+        if (old != null) {
+            if (old.size == size && old.modified == modified)
+                return false;
+            remove(key, old);
+        }
+        if (size <= 0)
+            return old != null;
+        files.put(key, new FileState(file, size, modified));
+        bySize.computeIfAbsent(size, k -> new HashSet<>()).add(key);
+        dirty.add(size);
+        return true;
+    }
+
+    /**
+     * Removes a file, or every file below a directory
+     *
+     * @param path the path of a file or a directory
+     * @return the number of files removed
+     */
+    public synchronized int remove(Path path) {
+        var key = path.toString();
+        int removed = 0;
+        var state = files.get(key);
+        if (state != null) {
+            remove(key, state);
+            ++removed;
+        }
+
+        for (var e : List.copyOf(below(key).entrySet())) {
+            remove(e.getKey(), e.getValue());
+            ++removed;
+        }
+        return removed;
+    }
+
+    /**
+     * The files below a directory sort between the directory name followed
+     * by the separator and the directory name followed by the character
+     * after the separator
+     */
+    private NavigableMap<String, FileState> below(String dir) {
+        var base = dir.endsWith(File.separator) ? dir.substring(0, dir.length() - 1) : dir;
+        return files.subMap(base + File.separatorChar, true, base + (char) (File.separatorChar + 1), false);
+    }
+
+    private void remove(String key, FileState state) {
+        files.remove(key);
+        var paths = bySize.get(state.size);
+        paths.remove(key);
+        if (paths.isEmpty())
+            bySize.remove(state.size);
+        dirty.add(state.size);
+    }
+
+    /**
+     * @return the paths of every file below the directory, or the path of
+     *         the file itself
+     */
+    public synchronized List<Path> list(Path path) {
+        var key = path.toString();
+        var result = new ArrayList<Path>();
+        var state = files.get(key);
+        if (state != null)
+            result.add(state.path);
+        for (var s : below(key).values()) {
+            result.add(s.path);
+        }
+        return result;
+    }
+
+    /**
+     * Hashes the files that share their size with another file and have
+     * no digest yet, which after the first refresh are only the files of
+     * the sizes that have changed
+     *
+     * @return the sizes whose duplicates may have changed
+     */
+    public Set<Long> refresh() {
+        Set<Long> changed;
+        var pending = new ArrayList<FileState>();
+        synchronized (this) {
+            changed = new HashSet<>(dirty);
+            dirty.clear();
+            for (long size : changed) {
+                var paths = bySize.get(size);
+                if (paths == null || paths.size() < 2)
+                    continue;
+                for (var key : paths) {
+                    var state = files.get(key);
+                    if (state.digest == null)
+                        pending.add(state);
+                }
+            }
+        }
+
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        try {
+            var digests = new ArrayList<Future<Digest>>(pending.size());
+            for (var state : pending) {
+                digests.add(threads.submit(() -> digestFor(state.path)));
+            }
+            for (int i = 0; i < pending.size(); ++i) {
+                var state = pending.get(i);
+                Digest digest;
+                try {
+                    digest = digests.get(i).get();
+                } catch (ExecutionException ex) {
+                    // Unreadable files are left without a digest and not
+                    // reported, until they change again
+                    continue;
+                }
+                synchronized (this) {
+                    state.digest = digest;
+                }
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            threads.shutdownNow();
+        }
+        return changed;
+    }
+
+    private Digest digestFor(Path file) throws IOException {
+        var cache = options.getChecksumCache();
+        if (cache != null)
+            return cache.digestFor(file, options);
+        return FileComparator.digestFor(file, options);
+    }
+
+    /**
+     * @param size a file size
+     * @return the groups of duplicates of the given size
+     */
+    public synchronized Collection<Collection<Path>> getDuplicates(long size) {
+        var paths = bySize.get(size);
+        if (paths == null || paths.size() < 2)
+            return List.of();
+
+        var byDigest = new HashMap<Digest, Collection<Path>>();
+        for (var key : paths) {
+            var state = files.get(key);
+            if (state.digest != null)
+                byDigest.computeIfAbsent(state.digest, k -> new ArrayList<>()).add(state.path);
+        }
+        var result = new ArrayList<Collection<Path>>();
+        for (var group : byDigest.values()) {
+            if (group.size() > 1)
+                result.add(group);
+        }
+        return result;
+    }
+
+    /**
+     * @return every group of duplicates as of the last refresh
+     */
+    public synchronized Collection<Collection<Path>> getDuplicates() {
+        var result = new ArrayList<Collection<Path>>();
+        for (long size : bySize.keySet()) {
+            result.addAll(getDuplicates(size));
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of files in the index
+     */
+    public synchronized int size() {
+        return files.size();
+    }
+
+    /**
+     * A file as it was when it was last seen
+     */
+    private static class FileState {
+
+        final Path path;
+
+        final long size;
+
+        final long modified;
+
+        /**
+         * The digest of the content, null until the file shares its size
+         * with another file and the index has been refreshed
+         */
+        Digest digest;
+
+        FileState(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+    }
+
+}
@@ -0,0 +1,369 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Sums up the duplicate groups of a scan as they are found, so add() can
+ * be handed to DuplicateScanner.scanWithSizes() as the consumer, or the
+ * report itself to DuplicateScanner.scan(). Every group wastes
+ * its size times the number of copies beyond the first, and only the
+ * groups that waste the most are kept, so the report needs the same
+ * memory for a thousand groups as for millions.
+ *
+ * Next to the totals it keeps the groups by the power of two their size
+ * falls in, and the wasted bytes by the directories the copies are in.
+ * The copies of a group are all its paths but the first in path order.
+ * The directories are counted with the Space-Saving algorithm in twice as
+ * many counters as directories are reported, see getDirectories().
+ */
+public class DuplicateReport implements Consumer<Collection<Path>> {
+
+    /**
+     * The default number of groups that are kept
+     */
+    public static final int DEFAULT_TOP = 20;
+
+    /**
+     * The default number of directories that are reported
+     */
+    public static final int DEFAULT_DIRECTORIES = 1000;
+
+    private static final int BUCKETS = 64;
+
+    private static final Comparator<Group> BY_RECLAIMABLE = Comparator.comparingLong(Group::getReclaimable);
+
+    private static final Comparator<Directory> BY_BYTES = Comparator.comparingLong(Directory::getReclaimable)
+            .thenComparing(Directory::getPath);
+
+    private final int top;
+
+    private final int directoryLimit;
+
+    /**
+     * The kept groups with the one that wastes the least at the head
+     */
+    private final PriorityQueue<Group> groups;
+
+    private final long[] bucketGroups = new long[BUCKETS];
+
+    private final long[] bucketFiles = new long[BUCKETS];
+
+    private final long[] bucketBytes = new long[BUCKETS];
+
+    private final Map<Path, Directory> directories = new HashMap<>();
+
+    /**
+     * The counted directories with the one with the fewest bytes first
+     */
+    private final TreeSet<Directory> directoryCounters = new TreeSet<>(BY_BYTES);
+
+    private long groupCount;
+
+    private long fileCount;
+
+    private long reclaimable;
+
+    public DuplicateReport() {
+        this(DEFAULT_TOP, DEFAULT_DIRECTORIES);
+    }
+
+    /**
+     * @param top         the number of groups to keep
+     * @param directories the number of directories to report
+     */
+    public DuplicateReport(int top, int directories) {
+        if (top < 0 || directories < 0)
+            throw new IllegalArgumentException("Limits must not be negative");
+        this.top = top;
+        this.directoryLimit = directories;
+        this.groups = new PriorityQueue<>(top + 1, BY_RECLAIMABLE);
+    }
+
+    /**
+     * Adds a group of duplicates, reading the size of one of its files. A
+     * scanner that knows the size hands it over to add() instead, see
+     * DuplicateScanner.scanWithSizes().
+     */
+    @Override
+    public void accept(Collection<Path> group) {
+        long size = 0;
+        for (var path : group) {
+            try {
+                size = Files.size(path);
+                break;
+            } catch (IOException ex) {
+                // Gone since it was hashed, or not on disk like an entry of
+                // an archive
+            }
+        }
+        add(group, size);
+    }
+
+    /**
+     * @param group the paths of the duplicates
+     * @param size  the size of each of them
+     */
+    public synchronized void add(Collection<Path> group, long size) {
+        int n = group.size();
+        if (n < 2)
+            return;
+        long wasted = size * (n - 1);
+        ++groupCount;
+        fileCount += n;
+        reclaimable += wasted;
+
+        int bucket = BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(size, 1));
+        ++bucketGroups[bucket];
+        bucketFiles[bucket] += n;
+        bucketBytes[bucket] += wasted;
+
+        var paths = new ArrayList<>(group);
+        paths.sort(null);
+        if (directoryLimit > 0) {
+            for (var copy : paths.subList(1, n)) {
+                var dir = copy.getParent();
+                if (dir != null)
+                    countDirectory(dir, size);
+            }
+        }
+
+        if (top == 0)
+            return;
+        if (groups.size() < top) {
+            groups.add(new Group(paths, size, wasted));
+        } else if (wasted > groups.peek().getReclaimable()) {
+            groups.poll();
+            groups.add(new Group(paths, size, wasted));
+        }
+    }
+
+    /**
+     * Adds the bytes of a copy to the counter of its directory. Once all
+     * counters are taken, a new directory takes over the counter with the
+     * fewest bytes, as it may have had that many bytes before, and keeps
+     * them as its error.
+     */
+    private void countDirectory(Path dir, long bytes) {
+        var counter = directories.get(dir);
+        if (counter != null) {
+            directoryCounters.remove(counter);
+            counter.reclaimable += bytes;
+        } else if (directories.size() < 2 * directoryLimit) {
+            counter = new Directory(dir, bytes, 0);
+            directories.put(dir, counter);
+        } else {
+            var min = directoryCounters.pollFirst();
+            directories.remove(min.path);
+            counter = new Directory(dir, min.reclaimable + bytes, min.reclaimable);
+            directories.put(dir, counter);
+        }
+        directoryCounters.add(counter);
+    }
+
+    public synchronized long getGroups() {
+        return groupCount;
+    }
+
+    /**
+     * @return the number of paths in all groups
+     */
+    public synchronized long getFiles() {
+        return fileCount;
+    }
+
+    /**
+     * @return the bytes that deleting all copies would free
+     */
+    public synchronized long getReclaimable() {
+        return reclaimable;
+    }
+
+    /**
+     * @return the kept groups, the one that wastes the most first
+     */
+    public synchronized List<Group> getTop() {
+        var sorted = new ArrayList<>(groups);
+        sorted.sort(BY_RECLAIMABLE.reversed());
+        return sorted;
+    }
+
+    /**
+     * @return a bucket for every power of two of file sizes there are
+     *         groups of, smallest sizes first, the first one starts at 0
+     */
+    public synchronized List<Bucket> getSizeHistogram() {
+        var buckets = new ArrayList<Bucket>();
+        for (int i = 0; i < BUCKETS; ++i) {
+            if (bucketGroups[i] > 0)
+                buckets.add(new Bucket(i == 0 ? 0 : 1L << i, bucketGroups[i], bucketFiles[i], bucketBytes[i]));
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the directories with the most bytes in copies. As long as no
+     * more directories were seen than there are counters, the bytes are
+     * exact. After that the bytes of a directory are at most its error more
+     * than it really has, and any directory with more bytes than the
+     * counter with the fewest is among the counted ones.
+     *
+     * @param limit the number of directories to return
+     * @return the directories, most bytes first
+     */
+    public synchronized List<Directory> getDirectories(int limit) {
+        var result = new ArrayList<Directory>();
+        for (var counter : directoryCounters.descendingSet()) {
+            if (result.size() == Math.min(limit, directoryLimit))
+                break;
+            result.add(new Directory(counter.path, counter.reclaimable, counter.error));
+        }
+        return result;
+    }
+
+    public String getSummary() {
+        var fmt = "%,d groups, %,d files, %,d bytes reclaimable";
+        return String.format(fmt, getGroups(), getFiles(), getReclaimable());
+    }
+
+    /**
+     * A group of duplicates and what deleting its copies frees
+     */
+    public static final class Group {
+
+        private final List<Path> paths;
+
+        private final long size;
+
+        private final long reclaimable;
+
+        Group(List<Path> paths, long size, long reclaimable) {
+            this.paths = Collections.unmodifiableList(paths);
+            this.size = size;
+            this.reclaimable = reclaimable;
+        }
+
+        /**
+         * @return the paths in path order
+         */
+        public List<Path> getPaths() {
+            return paths;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getReclaimable() {
+            return reclaimable;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d bytes reclaimable, %d x %,d bytes", reclaimable, paths.size(), size);
+        }
+
+    }
+
+    /**
+     * The bytes in copies of one directory
+     */
+    public static final class Directory {
+
+        private final Path path;
+
+        private long reclaimable;
+
+        private final long error;
+
+        Directory(Path path, long reclaimable, long error) {
+            this.path = path;
+            this.reclaimable = reclaimable;
+            this.error = error;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the bytes of the copies in the directory, at most
+         *         getError() more than there really are
+         */
+        public long getReclaimable() {
+            return reclaimable;
+        }
+
+        /**
+         * @return the bytes the directory may have been counted with
+         *         before it had a counter of its own
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            if (error == 0)
+                return String.format("%s: %,d bytes reclaimable", path, reclaimable);
+            return String.format("%s: %,d bytes reclaimable, up to %,d fewer", path, reclaimable, error);
+        }
+
+    }
+
+    /**
+     * The groups of files of at least a size and less than twice that
+     */
+    public static final class Bucket {
+
+        private final long minSize;
+
+        private final long groups;
+
+        private final long files;
+
+        private final long reclaimable;
+
+        Bucket(long minSize, long groups, long files, long reclaimable) {
+            this.minSize = minSize;
+            this.groups = groups;
+            this.files = files;
+            this.reclaimable = reclaimable;
+        }
+
+        public long getMinSize() {
+            return minSize;
+        }
+
+        public long getGroups() {
+            return groups;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getReclaimable() {
+            return reclaimable;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(">= %,d bytes: %,d groups, %,d files, %,d bytes reclaimable", minSize, groups, files,
+                    reclaimable);
+        }
+
+    }
+
+}
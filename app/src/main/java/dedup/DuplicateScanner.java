@@ -2,6 +2,9 @@ package dedup;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 public interface DuplicateScanner {
 
@@ -10,16 +13,53 @@ public interface DuplicateScanner {
      * of duplicates.
      * Each entry in the returned Collection should be a collection of Paths
      * that point to similar files.
-     * 
+     *
      * @param dirs a collection of the directories to scan for duplicates
      * @return a collection of duplicates
      */
     public Collection<Collection<Path>> scan(Collection<Path> dirs);
 
+    /**
+     * This method should traverse the FileSystem and hand each collection
+     * of duplicates to the consumer as soon as it is final, i.e. once every
+     * file of its size has been found and hashed, instead of returning them
+     * all when the scan is done.
+     * The consumer may be called from several threads at once.
+     *
+     * @param dirs     a collection of the directories to scan for duplicates
+     * @param consumer receives each collection of duplicates
+     */
+    public default void scan(Collection<Path> dirs, Consumer<Collection<Path>> consumer) {
+        Objects.requireNonNull(consumer);
+        scanWithSizes(dirs, (group, size) -> consumer.accept(group));
+    }
+
+    /**
+     * Like scan(dirs, consumer), but hands the size of the files of each
+     * collection over along with it, so the consumer does not have to look
+     * it up, see DuplicateReport.add(). That is also the size of the
+     * entries of an archive, which are not on disk.
+     *
+     * @param dirs     a collection of the directories to scan for duplicates
+     * @param consumer receives each collection of duplicates and the size of
+     *                 its files
+     */
+    public void scanWithSizes(Collection<Path> dirs, ObjLongConsumer<Collection<Path>> consumer);
+
+    /**
+     * Returns the groups of paths that the last scan found to point to the
+     * same file, such as hard links. Only the first path of each group takes
+     * part in the duplicate groups, since removing the others would not
+     * reclaim any space.
+     *
+     * @return a collection of link groups, empty if links are not collapsed
+     */
+    public Collection<Collection<Path>> getLinkGroups();
+
     /**
      * Scans a given list of directories for possible duplicates and save the
      * entries in the given resultset.
-     * 
+     *
      * @param dirs
      * @param resultset
      * @return
@@ -0,0 +1,299 @@
+package dedup;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * This class scans a set of directories once and then keeps their
+ * duplicates current from the events of a WatchService.
+ *
+ * Every directory is registered for create, modify and delete events.
+ * Events are collected until the directories have been quiet for the
+ * settle time, so a file that is being written is hashed once it is
+ * complete, and then only the sizes the events touched are rehashed and
+ * regrouped in the DuplicateIndex. If the WatchService loses events, the
+ * directories are walked again and only the files whose size or
+ * modification time differ are rehashed.
+ *
+ * A watcher is meant to be driven by a single thread, its index can be
+ * read from any. Hard links are not collapsed in watch mode and symbolic
+ * links are skipped.
+ */
+public class DuplicateWatcher implements Closeable {
+
+    /**
+     * The default time the directories have to be quiet before the
+     * collected events are applied
+     */
+    public static final Duration DEFAULT_SETTLE_TIME = Duration.ofMillis(200);
+
+    private final ScanOptions options;
+
+    private final DuplicateIndex index;
+
+    private final WatchService watcher;
+
+    private final Map<WatchKey, Path> keys;
+
+    private final Set<Path> roots;
+
+    private Duration settleTime;
+
+    private ObjLongConsumer<Collection<Collection<Path>>> listener;
+
+    public DuplicateWatcher() throws IOException {
+        this(ScanOptions.defaults());
+    }
+
+    public DuplicateWatcher(ScanOptions options) throws IOException {
+        this.options = Objects.requireNonNull(options);
+        index = new DuplicateIndex(options);
+        watcher = FileSystems.getDefault().newWatchService();
+        keys = new HashMap<>();
+        roots = new HashSet<>();
+        settleTime = DEFAULT_SETTLE_TIME;
+    }
+
+    /**
+     * @param settleTime the time the directories have to be quiet before
+     *                   the collected events are applied
+     * @return this watcher
+     */
+    public DuplicateWatcher setSettleTime(Duration settleTime) {
+        if (settleTime.isNegative())
+            throw new IllegalArgumentException("Settle time must not be negative");
+        this.settleTime = settleTime;
+        return this;
+    }
+
+    /**
+     * @param listener receives the current duplicates of every size that
+     *                 was affected by a change, an empty collection if
+     *                 the size has no duplicates left
+     * @return this watcher
+     */
+    public DuplicateWatcher setListener(ObjLongConsumer<Collection<Collection<Path>>> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Scans the directories and starts watching them
+     *
+     * @param dirs the directories to watch
+     * @return the duplicates found by the scan
+     */
+    public Collection<Collection<Path>> start(Collection<Path> dirs) throws IOException {
+        for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
+            if (Files.isDirectory(d)) {
+                roots.add(d);
+                walk(d, null);
+            }
+        }
+        index.refresh();
+        return index.getDuplicates();
+    }
+
+    /**
+     * Waits for changes and applies them
+     *
+     * @param timeout the time to wait for the first event
+     * @param unit    the unit of the timeout
+     * @return the sizes whose duplicates may have changed, empty if there
+     *         were no events
+     */
+    public Set<Long> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var key = watcher.poll(timeout, unit);
+        if (key == null)
+            return Set.of();
+
+        // Collect events until the directories are quiet
+        boolean overflow = false;
+        do {
+            overflow |= handle(key);
+        } while ((key = watcher.poll(settleTime.toNanos(), TimeUnit.NANOSECONDS)) != null);
+
+        if (overflow)
+            resync();
+        var changed = index.refresh();
+        if (listener != null) {
+            for (long size : changed) {
+                listener.accept(index.getDuplicates(size), size);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Applies changes until the watcher is closed or the thread is
+     * interrupted
+     */
+    public void watch() throws InterruptedException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                poll(1, TimeUnit.SECONDS);
+            }
+        } catch (ClosedWatchServiceException ex) {
+        }
+    }
+
+    /**
+     * @return the current duplicates
+     */
+    public Collection<Collection<Path>> getDuplicates() {
+        return index.getDuplicates();
+    }
+
+    public DuplicateIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * Records the events of a key in the index
+     *
+     * @return true if events were lost
+     */
+    private boolean handle(WatchKey key) {
+        var dir = keys.get(key);
+        boolean overflow = false;
+        for (var event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null)
+                continue;
+            var path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) {
+                index.remove(path);
+            } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                walk(path, null);
+            } else {
+                visit(path, event.kind() == ENTRY_MODIFY);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            if (dir != null)
+                index.remove(dir);
+        }
+        return overflow;
+    }
+
+    /**
+     * Walks the directories again and applies the differences to the index
+     */
+    private void resync() {
+        var seen = new HashSet<Path>();
+        for (var root : roots) {
+            walk(root, seen);
+        }
+        for (var root : roots) {
+            for (var file : index.list(root)) {
+                if (!seen.contains(file))
+                    index.remove(file);
+            }
+        }
+    }
+
+    /**
+     * @param modified true to rehash the file even if its time has not
+     *                 moved on, as the clock may be coarser than the writes
+     */
+    private void visit(Path file, boolean modified) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException ex) {
+            index.remove(file);
+            return;
+        }
+        if (attrs.isDirectory())
+            return;
+        if (modified)
+            index.remove(file);
+        put(file, attrs);
+    }
+
+    private void put(Path file, BasicFileAttributes attrs) {
+        // Links are not collapsed here, so a symbolic link would be reported
+        // as a duplicate of its target, it counts as empty instead
+        long size = attrs.isSymbolicLink() ? 0 : attrs.size();
+        var filter = options.getFilter();
+        if (filter != null && size > 0 && !filter.acceptFile(file, size, attrs)) {
+            index.remove(file);
+            return;
+        }
+        index.put(file, size, attrs.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Registers the directories below dir and puts their files into the
+     * index
+     *
+     * @param seen collects the files found, or null
+     */
+    private void walk(Path dir, Set<Path> seen) {
+        var filter = options.getFilter();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    if (filter != null && !roots.contains(d) && !filter.acceptDirectory(d, attrs))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    try {
+                        keys.put(d.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                    } catch (IOException ex) {
+                        // The files are still indexed, but changes to
+                        // them are only picked up by a resync
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    put(file, attrs);
+                    if (seen != null)
+                        seen.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+package dedup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * This scanner keeps its bookkeeping on disk, so the heap it uses stays the
+ * same however many files are scanned.
+ *
+ * The paths of all files go to a PathLog and a (size, path id) record of
+ * every file to an ExternalSorter. Merging the sorted runs brings the files
+ * of a size together, so only the sizes that collide are hashed, and their
+ * (size, digest, path id) records go to a second ExternalSorter. Merging
+ * that one brings the duplicates together, and each group is handed over as
+ * soon as it has been read.
+ *
+ * Links are not collapsed, as that needs an index of every file key on the
+ * heap.
+ */
+public class ExternalSortScanner implements DuplicateScanner {
+
+    private final ScanOptions options;
+
+    public ExternalSortScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public ExternalSortScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    @Override
+    public Collection<Collection<Path>> scan(Collection<Path> dirs) {
+        var duplicates = new LinkedList<Collection<Path>>();
+        scan(dirs, duplicates::add);
+        return duplicates;
+    }
+
+    @Override
+    public void scanWithSizes(Collection<Path> dirs, ObjLongConsumer<Collection<Path>> consumer) {
+        Objects.requireNonNull(consumer);
+        Objects.requireNonNull(dirs);
+        var dir = options.getSpillDirectory();
+        try (var paths = new PathLog(dir);
+                var bySize = new ExternalSorter<>(dir, options.getRunSize(), SIZE_ORDER, SIZE_CODEC);
+                var byHash = new ExternalSorter<>(dir, options.getRunSize(), HASH_ORDER, HASH_CODEC)) {
+            walk(dirs, paths, bySize);
+            hashCollisions(bySize, paths, byHash);
+            emitGroups(byHash, paths, consumer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Collection<Path> getPotentialDuplicates(Collection<Path> dirs, Collection<Path> result) {
+        Objects.requireNonNull(dirs);
+        var dir = options.getSpillDirectory();
+        try (var paths = new PathLog(dir);
+                var bySize = new ExternalSorter<>(dir, options.getRunSize(), SIZE_ORDER, SIZE_CODEC)) {
+            walk(dirs, paths, bySize);
+            forEachCollision(bySize, record -> {
+                try {
+                    result.add(paths.get(record.id));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<Collection<Path>> getLinkGroups() {
+        return List.of();
+    }
+
+    private void walk(Collection<Path> dirs, PathLog paths, ExternalSorter<SizeRecord> bySize)
+            throws IOException {
+        for (var d : Set.copyOf(dirs)) {
+            try {
+                new SimpleFileWalker((file, size) -> {
+                    try {
+                        bySize.add(new SizeRecord(size, paths.append(file)));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, d).setAllFiles(true).setFilter(options.getFilter()).setTraversal(options.getTraversal()).walk();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            } catch (IOException ex) {
+            }
+        }
+        paths.flush();
+    }
+
+    /**
+     * Hands every file that shares its size with another file to the action,
+     * in the order of their size
+     */
+    private static void forEachCollision(ExternalSorter<SizeRecord> bySize, Consumer<SizeRecord> action)
+            throws IOException {
+        // Like the size index of the walkers, the first file of a size is
+        // held back until a second one comes along
+        SizeRecord first = null;
+        boolean known = false;
+        for (var it = bySize.sorted(); it.hasNext();) {
+            var record = it.next();
+            if (first != null && first.size == record.size) {
+                if (!known)
+                    action.accept(first);
+                action.accept(record);
+                known = true;
+            } else {
+                first = record;
+                known = false;
+            }
+        }
+    }
+
+    private void hashCollisions(ExternalSorter<SizeRecord> bySize, PathLog paths, ExternalSorter<HashRecord> byHash)
+            throws IOException {
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        // Bounds the files waiting for a thread, which keeps the heap bounded
+        var inFlight = new Semaphore(options.getParallelism() * 4);
+        var failure = new IOException[1];
+        try {
+            forEachCollision(bySize, record -> {
+                Path file;
+                try {
+                    file = paths.get(record.id);
+                    inFlight.acquire();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted while hashing"));
+                }
+                threads.execute(() -> {
+                    try {
+                        addDigest(file, record, byHash);
+                    } catch (IOException ex) {
+                        synchronized (failure) {
+                            failure[0] = ex;
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            threads.shutdown();
+            try {
+                threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException iex) {
+                threads.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    /**
+     * Hashes a file and adds its record to the sorter. Unreadable files are
+     * skipped, only a failure to spill the sorter is thrown.
+     */
+    private void addDigest(Path file, SizeRecord record, ExternalSorter<HashRecord> byHash) throws IOException {
+        Digest digest;
+        try {
+            digest = digestFor(file);
+        } catch (IOException ex) {
+            return;
+        }
+        synchronized (byHash) {
+            byHash.add(new HashRecord(record.size, digest.toBytes(), record.id));
+        }
+    }
+
+    private Digest digestFor(Path file) throws IOException {
+        var cache = options.getChecksumCache();
+        if (cache != null)
+            return cache.digestFor(file, options);
+        return FileComparator.digestFor(file, options);
+    }
+
+    private void emitGroups(ExternalSorter<HashRecord> byHash, PathLog paths,
+            ObjLongConsumer<Collection<Path>> consumer) throws IOException {
+        var verifier = new GroupVerifier(options);
+        var group = new ArrayList<HashRecord>();
+        for (var it = byHash.sorted(); it.hasNext();) {
+            var record = it.next();
+            if (!group.isEmpty() && HASH_ORDER_WITHOUT_ID.compare(group.get(0), record) != 0) {
+                emit(group, paths, verifier, consumer);
+                group.clear();
+            }
+            group.add(record);
+        }
+        emit(group, paths, verifier, consumer);
+    }
+
+    private void emit(List<HashRecord> group, PathLog paths, GroupVerifier verifier,
+            ObjLongConsumer<Collection<Path>> consumer) throws IOException {
+        if (group.size() < 2)
+            return;
+        var files = new ArrayList<Path>(group.size());
+        for (var record : group) {
+            files.add(paths.get(record.id));
+        }
+        long size = group.get(0).size;
+        if (options.isVerifyStage()) {
+            verifier.split(files).forEach(split -> consumer.accept(split, size));
+        } else {
+            consumer.accept(files, size);
+        }
+    }
+
+    /**
+     * The size of a file and the id of its path in the PathLog
+     */
+    static final class SizeRecord {
+
+        final long size;
+
+        final long id;
+
+        SizeRecord(long size, long id) {
+            this.size = size;
+            this.id = id;
+        }
+
+    }
+
+    /**
+     * The size and digest of a file and the id of its path in the PathLog
+     */
+    static final class HashRecord {
+
+        final long size;
+
+        final byte[] digest;
+
+        final long id;
+
+        HashRecord(long size, byte[] digest, long id) {
+            this.size = size;
+            this.digest = digest;
+            this.id = id;
+        }
+
+    }
+
+    static final Comparator<SizeRecord> SIZE_ORDER = Comparator.<SizeRecord>comparingLong(r -> r.size)
+            .thenComparingLong(r -> r.id);
+
+    static final Comparator<HashRecord> HASH_ORDER_WITHOUT_ID = Comparator.<HashRecord>comparingLong(r -> r.size)
+            .thenComparing((a, b) -> Arrays.compare(a.digest, b.digest));
+
+    static final Comparator<HashRecord> HASH_ORDER = HASH_ORDER_WITHOUT_ID.thenComparingLong(r -> r.id);
+
+    static final ExternalSorter.Codec<SizeRecord> SIZE_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutput out, SizeRecord record) throws IOException {
+            out.writeLong(record.size);
+            out.writeLong(record.id);
+        }
+
+        @Override
+        public SizeRecord read(DataInput in) throws IOException {
+            return new SizeRecord(in.readLong(), in.readLong());
+        }
+    };
+
+    static final ExternalSorter.Codec<HashRecord> HASH_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutput out, HashRecord record) throws IOException {
+            out.writeLong(record.size);
+            out.writeByte(record.digest.length);
+            out.write(record.digest);
+            out.writeLong(record.id);
+        }
+
+        @Override
+        public HashRecord read(DataInput in) throws IOException {
+            long size = in.readLong();
+            var digest = new byte[in.readUnsignedByte()];
+            in.readFully(digest);
+            return new HashRecord(size, digest, in.readLong());
+        }
+    };
+
+}
@@ -0,0 +1,291 @@
+package dedup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * This class sorts more records than fit on the heap. Records are buffered
+ * up to a fixed number, then sorted and written to a run file, and the runs
+ * are merged when the records are read back. At most MAX_FAN_IN runs are
+ * read at once, each with a buffer of its own, so when there are more the
+ * oldest of them are first merged into longer runs, as many times as it
+ * takes. The heap used stays the same however many records are added.
+ *
+ * @param <T> the type of the records
+ */
+public class ExternalSorter<T> implements Closeable {
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The largest number of runs merged at once
+     */
+    static final int MAX_FAN_IN = 64;
+
+    /**
+     * Writes and reads a record to and from a run file
+     */
+    public interface Codec<T> {
+
+        void write(DataOutput out, T record) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+    }
+
+    private final Path dir;
+
+    private final int runSize;
+
+    private final Comparator<T> order;
+
+    private final Codec<T> codec;
+
+    private final List<T> buffer;
+
+    private final List<Run> runs;
+
+    private final List<Closeable> readers;
+
+    private long count;
+
+    /**
+     * @param dir     the directory to write the runs to
+     * @param runSize the number of records held on the heap
+     * @param order   the order to sort the records in
+     * @param codec   writes and reads the records
+     */
+    public ExternalSorter(Path dir, int runSize, Comparator<T> order, Codec<T> codec) {
+        this.dir = Objects.requireNonNull(dir);
+        this.runSize = runSize;
+        this.order = Objects.requireNonNull(order);
+        this.codec = Objects.requireNonNull(codec);
+        buffer = new ArrayList<>(Math.min(runSize, 1 << 16));
+        runs = new ArrayList<>();
+        readers = new ArrayList<>();
+    }
+
+    public void add(T record) throws IOException {
+        buffer.add(record);
+        ++count;
+        if (buffer.size() >= runSize)
+            spill();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(order);
+        var file = Files.createTempFile(dir, "dedup-run", ".bin");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_SIZE))) {
+            for (var record : buffer) {
+                codec.write(out, record);
+            }
+        }
+        runs.add(new Run(file, buffer.size()));
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of records added
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * @return the number of runs written to disk
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the records in order. No records may be added afterwards.
+     * Reading a run may fail with an UncheckedIOException.
+     */
+    public Iterator<T> sorted() throws IOException {
+        // The records on the heap take one of the sources of the last merge
+        while (runs.size() > MAX_FAN_IN - 1) {
+            var group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+            runs.subList(0, MAX_FAN_IN).clear();
+            runs.add(mergeRuns(group));
+        }
+
+        buffer.sort(order);
+        var sources = new ArrayList<Iterator<T>>();
+        sources.add(buffer.iterator());
+        for (var run : runs) {
+            var in = open(run);
+            readers.add(in);
+            sources.add(new RunIterator(in, run.count));
+        }
+        return merge(sources);
+    }
+
+    /**
+     * Merges runs into a new one and deletes them
+     */
+    private Run mergeRuns(List<Run> group) throws IOException {
+        var inputs = new ArrayList<DataInputStream>();
+        var file = Files.createTempFile(dir, "dedup-run", ".bin");
+        long records = 0;
+        try {
+            var sources = new ArrayList<Iterator<T>>();
+            for (var run : group) {
+                var in = open(run);
+                inputs.add(in);
+                sources.add(new RunIterator(in, run.count));
+                records += run.count;
+            }
+            try (var out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_SIZE))) {
+                for (var it = merge(sources); it.hasNext();) {
+                    codec.write(out, it.next());
+                }
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        } finally {
+            for (var in : inputs) {
+                in.close();
+            }
+        }
+        for (var run : group) {
+            Files.deleteIfExists(run.file);
+        }
+        return new Run(file, records);
+    }
+
+    private static DataInputStream open(Run run) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), IO_BUFFER_SIZE));
+    }
+
+    /**
+     * @return the records of the sorted sources in order
+     */
+    private Iterator<T> merge(List<Iterator<T>> records) {
+        var sources = new PriorityQueue<Source>((a, b) -> order.compare(a.head, b.head));
+        for (var it : records) {
+            var source = new Source(it);
+            if (source.advance())
+                sources.add(source);
+        }
+
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !sources.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                var source = sources.poll();
+                if (source == null)
+                    throw new NoSuchElementException();
+                var record = source.head;
+                if (source.advance())
+                    sources.add(source);
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Deletes the runs
+     */
+    @Override
+    public void close() throws IOException {
+        for (var in : readers) {
+            in.close();
+        }
+        for (var run : runs) {
+            Files.deleteIfExists(run.file);
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private static class Run {
+
+        final Path file;
+
+        final long count;
+
+        Run(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+
+    }
+
+    private class RunIterator implements Iterator<T> {
+
+        final DataInputStream in;
+
+        long left;
+
+        RunIterator(DataInputStream in, long count) {
+            this.in = in;
+            this.left = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return left > 0;
+        }
+
+        @Override
+        public T next() {
+            if (left == 0)
+                throw new NoSuchElementException();
+            --left;
+            try {
+                return codec.read(in);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+    }
+
+    /**
+     * A sorted source of records with its smallest record at hand
+     */
+    private class Source {
+
+        final Iterator<T> records;
+
+        T head;
+
+        Source(Iterator<T> records) {
+            this.records = records;
+        }
+
+        boolean advance() {
+            if (!records.hasNext())
+                return false;
+            head = records.next();
+            return true;
+        }
+
+    }
+
+}
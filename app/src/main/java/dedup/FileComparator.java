@@ -2,20 +2,52 @@ package dedup;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 
 /**
- * This class compares files for equality using CRC32 checksums.
- * 
+ * This class compares files for equality using CRC32 checksums, or any of
+ * the other HashAlgorithms when it is given ScanOptions.
+ *
  */
 public class FileComparator {
 
     private static int BUFSIZE = 8192;
 
+    /**
+     * The largest region of a file that is mapped into memory at once
+     */
+    private static final long MAP_WINDOW = 256L << 20;
+
+    /**
+     * A direct buffer per thread, so channel reads do not allocate a new
+     * buffer for every file
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+    /**
+     * Tells the device of a segmented file, for its limit of reads
+     */
+    private static final DeviceLookup DEVICES = new DeviceLookup();
+
+    /**
+     * The digest of every file when both the sample and the full checksum
+     * stage are switched off, the files are then grouped by size alone
+     */
+    static final Digest SIZE_ONLY = Digest.of(0L);
+
     public static long checksumFor(Path file) throws IOException {
         Objects.requireNonNull(file);
         var strm = new BufferedInputStream(Files.newInputStream(file));
@@ -29,6 +61,68 @@ public class FileComparator {
         }
     }
 
+    /**
+     * Calculates a checksum over the first and last sampleSize bytes of
+     * the file. The length of the file is part of the checksum so files of
+     * different sizes do not end up with the same sample.
+     * Files no larger than twice the sample size are read in full.
+     *
+     * @param file       the file to sample
+     * @param sampleSize the number of bytes to read from each end
+     * @return the CRC32 of the sampled bytes and the file length
+     * @throws IOException
+     */
+    public static long sampleChecksumFor(Path file, int sampleSize) throws IOException {
+        Objects.requireNonNull(file);
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            var crc = new CRC32();
+            long size = ch.size();
+            var buf = ByteBuffer.allocate((int) Math.min(size, 2L * sampleSize));
+            if (size <= 2L * sampleSize) {
+                readFully(ch, buf, 0);
+            } else {
+                buf.limit(sampleSize);
+                readFully(ch, buf, 0);
+                buf.limit(2 * sampleSize);
+                readFully(ch, buf, size - sampleSize);
+            }
+            buf.flip();
+            crc.update(buf);
+            crc.update(ByteBuffer.allocate(Long.BYTES).putLong(size).flip());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Calculates the digest used to group files for the given options,
+     * i.e. the full checksum unless that stage has been switched off. The
+     * content is not read at all when the sample stage is off as well.
+     */
+    public static Digest digestFor(Path file, ScanOptions options) throws IOException {
+        if (!options.isFullHashStage() && !options.isSampleStage())
+            return SIZE_ONLY;
+        if (!options.isFullHashStage())
+            return Digest.of(sampleChecksumFor(file, options.getSampleSize()));
+
+        var hasher = options.getHashAlgorithm().newHasher();
+        if (options.getIoMode() == IoMode.STREAM && segmentSizeFor(Files.size(file), options) == 0) {
+            hashStream(file, hasher);
+        } else {
+            hashChannel(file, hasher, options);
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * @param size    the size of a file
+     * @param options the options of the scan
+     * @return the size of the segments the file is hashed in, or 0 if it is
+     *         hashed as a whole
+     */
+    public static long segmentSizeFor(long size, ScanOptions options) {
+        return size >= options.getSegmentThreshold() ? options.getSegmentSize() : 0;
+    }
+
     public static boolean isSameFile(Path path1, Path path2) throws IOException {
         if (path1 == path2)
             return true;
@@ -43,4 +137,129 @@ public class FileComparator {
         return chk1 == chk2;
     }
 
+    private static void hashStream(Path file, Hasher hasher) throws IOException {
+        try (var strm = Files.newInputStream(file)) {
+            var buf = new byte[BUFSIZE];
+            int n;
+            while ((n = strm.read(buf, 0, BUFSIZE)) > -1) {
+                hasher.update(ByteBuffer.wrap(buf, 0, n));
+            }
+        }
+    }
+
+    private static void hashChannel(Path file, Hasher hasher, ScanOptions options) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long segmentSize = segmentSizeFor(size, options);
+            if (segmentSize > 0) {
+                hashSegments(file, ch, hasher, segmentSize, options);
+                return;
+            }
+
+            if (options.getIoMode() == IoMode.MMAP && size >= options.getMapThreshold()) {
+                for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                    hasher.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+                }
+                return;
+            }
+
+            var buf = getBuffer(options.getBufferSize());
+            while (ch.read(buf.clear()) > -1) {
+                hasher.update(buf.flip());
+            }
+        }
+    }
+
+    /**
+     * Hashes the segments of a file in parallel with positional reads and
+     * feeds the file size, the segment size and the digests of the segments
+     * in order into the given hasher. No more segments are read at once than
+     * the device of the file allows reads, and the next segment is only
+     * started once the oldest one is done.
+     *
+     * The segments are hashed on threads of their own, which are kept apart
+     * from the common pool, so segments neither starve nor are starved by
+     * other work in it. The threads only live as long as the file is hashed,
+     * which is short next to reading a file above the segment threshold.
+     */
+    private static void hashSegments(Path file, FileChannel ch, Hasher hasher, long segmentSize,
+            ScanOptions options) throws IOException {
+        long size = ch.size();
+        int inFlight = Math.min(options.getParallelism(), options.getDeviceReads(DEVICES.nameOf(file)));
+        var executor = newSegmentExecutor(inFlight);
+        var segments = new ArrayDeque<Future<Digest>>();
+
+        var header = ByteBuffer.allocate(16).putLong(size).putLong(segmentSize);
+        hasher.update(header.flip());
+        try {
+            long pos = 0;
+            while (pos < size || !segments.isEmpty()) {
+                for (; pos < size && segments.size() < inFlight; pos += segmentSize) {
+                    long start = pos;
+                    long length = Math.min(segmentSize, size - pos);
+                    segments.add(executor.submit(() -> hashRange(ch, start, length, options)));
+                }
+                hasher.update(ByteBuffer.wrap(segments.poll().get().toBytes()));
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing " + file);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException("Could not hash " + file, ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newSegmentExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, task -> {
+            var thread = new Thread(task, "segment-hash");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Digest hashRange(FileChannel ch, long start, long length, ScanOptions options)
+            throws IOException {
+        var hasher = options.getHashAlgorithm().newHasher();
+        long end = start + length;
+        if (options.getIoMode() == IoMode.MMAP && length >= options.getMapThreshold()) {
+            for (long pos = start; pos < end; pos += MAP_WINDOW) {
+                hasher.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, end - pos)));
+            }
+            return hasher.digest();
+        }
+
+        var buf = getBuffer(options.getBufferSize());
+        for (long pos = start; pos < end;) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                break;
+            pos += n;
+            hasher.update(buf.flip());
+        }
+        return hasher.digest();
+    }
+
+    private static ByteBuffer getBuffer(int size) {
+        var buf = BUFFERS.get();
+        if (buf == null || buf.capacity() != size) {
+            buf = ByteBuffer.allocateDirect(size);
+            BUFFERS.set(buf);
+        }
+        return buf;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0)
+                break;
+            position += n;
+        }
+    }
+
 }
@@ -0,0 +1,34 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A file that qualifies for checksum calculation, together with the size
+ * it had when the walker found it.
+ */
+public final class FileEntry {
+
+    private final Path path;
+
+    private final long size;
+
+    public FileEntry(Path path, long size) {
+        this.path = Objects.requireNonNull(path);
+        this.size = size;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+}
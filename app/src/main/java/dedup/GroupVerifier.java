@@ -0,0 +1,179 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class splits a group of candidate files into groups of files with
+ * exactly the same content.
+ *
+ * All files of the group are read in lock-step, one buffer at a time, and
+ * the group is split as soon as the buffers differ. A file that ends up
+ * on its own is closed and not read any further, so a group of files that
+ * differ early costs little more than one buffer per file.
+ */
+public class GroupVerifier {
+
+    /**
+     * The most files that are held open at the same time. Larger groups
+     * are compared against one representative at a time.
+     */
+    public static final int MAX_OPEN_FILES = 256;
+
+    private final int bufferSize;
+
+    public GroupVerifier(ScanOptions options) {
+        this.bufferSize = Objects.requireNonNull(options).getBufferSize();
+    }
+
+    /**
+     * Splits the given files into groups of identical files. Files that
+     * are not identical to any other file, or that cannot be read, are left
+     * out of the result.
+     *
+     * @param group the candidate files
+     * @return the groups of two or more identical files
+     */
+    public Collection<Collection<Path>> split(Collection<Path> group) {
+        var result = new ArrayList<Collection<Path>>();
+        var remaining = new ArrayList<>(group);
+        if (remaining.size() <= MAX_OPEN_FILES) {
+            for (var same : compare(remaining)) {
+                if (same.size() > 1)
+                    result.add(same);
+            }
+            return result;
+        }
+
+        // Too many files to open at once, so pick a representative, collect
+        // every file identical to it batch by batch, and repeat with the rest
+        while (remaining.size() > 1) {
+            var rep = remaining.get(0);
+            var same = new ArrayList<Path>();
+            var rest = new ArrayList<Path>();
+            for (int i = 1; i < remaining.size(); i += MAX_OPEN_FILES - 1) {
+                var batch = new ArrayList<Path>(MAX_OPEN_FILES);
+                batch.add(rep);
+                batch.addAll(remaining.subList(i, Math.min(i + MAX_OPEN_FILES - 1, remaining.size())));
+                for (var part : compare(batch)) {
+                    if (part.contains(rep)) {
+                        part.remove(rep);
+                        same.addAll(part);
+                    } else {
+                        rest.addAll(part);
+                    }
+                }
+            }
+            if (!same.isEmpty()) {
+                same.add(0, rep);
+                result.add(same);
+            }
+            remaining = rest;
+        }
+        return result;
+    }
+
+    /**
+     * Partitions the files by content, including the files that are not
+     * identical to any other
+     */
+    private List<List<Path>> compare(List<Path> files) {
+        var result = new ArrayList<List<Path>>();
+        var members = new ArrayList<Member>(files.size());
+        try {
+            for (var file : files) {
+                try {
+                    members.add(new Member(file, bufferSize));
+                } catch (IOException ex) {
+                }
+            }
+
+            var work = new ArrayDeque<List<Member>>();
+            work.push(members);
+            while (!work.isEmpty()) {
+                var part = work.pop();
+                if (part.size() == 1) {
+                    result.add(paths(part));
+                    part.get(0).close();
+                    continue;
+                }
+
+                var byContent = new LinkedHashMap<ByteBuffer, List<Member>>();
+                for (var m : part) {
+                    try {
+                        byContent.computeIfAbsent(m.next(), k -> new ArrayList<>()).add(m);
+                    } catch (IOException ex) {
+                        m.close();
+                    }
+                }
+                for (var e : byContent.entrySet()) {
+                    if (e.getKey().hasRemaining()) {
+                        work.push(e.getValue());
+                    } else {
+                        // Every file in this part reached its end together
+                        result.add(paths(e.getValue()));
+                        e.getValue().forEach(Member::close);
+                    }
+                }
+            }
+        } finally {
+            members.forEach(Member::close);
+        }
+        return result;
+    }
+
+    private static List<Path> paths(List<Member> members) {
+        var list = new ArrayList<Path>(members.size());
+        for (var m : members) {
+            list.add(m.file);
+        }
+        return list;
+    }
+
+    private static class Member {
+
+        final Path file;
+
+        final ByteBuffer buf;
+
+        FileChannel ch;
+
+        Member(Path file, int bufferSize) throws IOException {
+            this.file = file;
+            this.ch = FileChannel.open(file, StandardOpenOption.READ);
+            this.buf = ByteBuffer.allocate(bufferSize);
+        }
+
+        /**
+         * Reads the next chunk of the file; an empty buffer means the end
+         * of the file has been reached
+         */
+        ByteBuffer next() throws IOException {
+            buf.clear();
+            while (buf.hasRemaining() && ch.read(buf) > -1) {
+            }
+            return buf.flip();
+        }
+
+        void close() {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ex) {
+                }
+                ch = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The hash functions that can be used for the full file checksum.
+ * The non-cryptographic ones are much faster, the wider ones give fewer
+ * false groupings on large data sets.
+ */
+public enum HashAlgorithm {
+
+    /**
+     * 32-bit CRC, as used by the original implementation
+     */
+    CRC32(() -> new ChecksumHasher(new CRC32())),
+
+    /**
+     * 32-bit CRC with the Castagnoli polynomial, hardware accelerated on
+     * most CPUs
+     */
+    CRC32C(() -> new ChecksumHasher(new CRC32C())),
+
+    /**
+     * 64-bit xxHash
+     */
+    XXHASH64(XxHash64::new),
+
+    /**
+     * 128-bit MurmurHash3 (x64 variant)
+     */
+    MURMUR3_128(Murmur3Hash128::new),
+
+    /**
+     * 256-bit SHA-2, for when a collision must be practically impossible
+     */
+    SHA256(() -> new MessageDigestHasher("SHA-256"));
+
+    private final Supplier<Hasher> factory;
+
+    private HashAlgorithm(Supplier<Hasher> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return a new hasher for this algorithm
+     */
+    public Hasher newHasher() {
+        return factory.get();
+    }
+
+    private static class ChecksumHasher implements Hasher {
+
+        private final Checksum checksum;
+
+        ChecksumHasher(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(ByteBuffer data) {
+            checksum.update(data);
+        }
+
+        @Override
+        public Digest digest() {
+            return Digest.of(checksum.getValue());
+        }
+
+    }
+
+    private static class MessageDigestHasher implements Hasher {
+
+        private final MessageDigest md;
+
+        MessageDigestHasher(String algorithm) {
+            try {
+                md = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer data) {
+            md.update(data);
+        }
+
+        @Override
+        public Digest digest() {
+            // A MessageDigest resets itself once digested, so a copy is
+            // digested instead
+            try {
+                return Digest.of(((MessageDigest) md.clone()).digest());
+            } catch (CloneNotSupportedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+    }
+
+}
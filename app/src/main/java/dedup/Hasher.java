@@ -0,0 +1,27 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming hash function. Content is fed in with one or more calls to
+ * update() and the result is read with digest(), which does not change
+ * the state, so it can be read again or more content can follow.
+ * Instances are not thread safe; get a fresh one from a HashAlgorithm
+ * for every file.
+ */
+public interface Hasher {
+
+    /**
+     * Hashes the remaining bytes of the buffer and moves its position to
+     * the limit
+     *
+     * @param data the bytes to hash
+     */
+    public void update(ByteBuffer data);
+
+    /**
+     * @return the hash of all the bytes passed to update()
+     */
+    public Digest digest();
+
+}
@@ -11,27 +11,44 @@ import java.util.Set;
  */
 public class HybridScanner extends ThreadedScanner {
 
+    public HybridScanner() {
+        super();
+    }
+
+    public HybridScanner(ScanOptions options) {
+        super(options);
+    }
+
     @Override
     public Collection<Path> getPotentialDuplicates(Collection<Path> dirs, Collection<Path> result) {
-        return scanSameSizeFiles(dirs, result);
+        begin(dirs);
+        try {
+            for (var d : Set.copyOf(dirs)) {
+                try {
+                    new SimpleFileWalker(result, d).setLinkIndex(getLinkIndex()).setFilter(getFilter())
+                            .setTraversal(getTraversal()).walk();
+                } catch (IOException ex) {
+                }
+            }
+            return result;
+        } finally {
+            end();
+        }
     }
 
     @Override
     protected void startTraversal() {
-        var resultset = getChecksumItems();
         var folders = getPendingFolderItems();
-        scanSameSizeFiles(folders, resultset);
-        folders.clear();
-    }
-
-    private Collection<Path> scanSameSizeFiles(Collection<Path> dirs, Collection<Path> result) {
-        for (var d : Set.copyOf(dirs)) {
+        for (var d : Set.copyOf(folders)) {
+            if (isStopped())
+                break;
             try {
-                new SimpleFileWalker(result, d).walk();
+                new SimpleFileWalker(this::addChecksumItem, d).setLinkIndex(getLinkIndex()).setMetrics(getMetrics())
+                        .setFilter(getFilter()).setTraversal(getTraversal()).setStop(this::isStopped).walk();
             } catch (IOException ex) {
             }
         }
-        return result;
+        folders.clear();
     }
 
 }
@@ -0,0 +1,132 @@
+package dedup;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A 64 bit perceptual hash of an image. The image is drawn on white at
+ * 32x32 pixels in gray, and the bits tell which of the 8x8 lowest
+ * frequencies of its discrete cosine transform are above their median.
+ * The hash stays about the same when an image is scaled, re-encoded or
+ * stored in another format, so similar images have hashes that differ in
+ * a few bits only.
+ */
+public final class ImageHash {
+
+    private static final int SIZE = 32;
+
+    private static final int LOW = 8;
+
+    /**
+     * The cosines of the transform, by frequency and position
+     */
+    private static final double[][] COS = new double[LOW][SIZE];
+
+    static {
+        for (int u = 0; u < LOW; ++u) {
+            for (int x = 0; x < SIZE; ++x) {
+                COS[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * SIZE));
+            }
+        }
+    }
+
+    private static final Set<String> SUFFIXES = Set.of(ImageIO.getReaderFileSuffixes());
+
+    private ImageHash() {
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file name has the suffix of a format that can be
+     *         read
+     */
+    public static boolean isImage(Path file) {
+        var name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param file an image file
+     * @return the perceptual hash of the image
+     * @throws IOException if the file cannot be read or is not an image
+     */
+    public static long of(Path file) throws IOException {
+        BufferedImage image;
+        try (var in = Files.newInputStream(file)) {
+            image = ImageIO.read(in);
+        }
+        if (image == null)
+            throw new IOException("Not an image: " + file);
+        return of(image);
+    }
+
+    public static long of(BufferedImage image) {
+        var small = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        var g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, SIZE, SIZE, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+
+        var gray = new double[SIZE][SIZE];
+        for (int y = 0; y < SIZE; ++y) {
+            for (int x = 0; x < SIZE; ++x) {
+                int rgb = small.getRGB(x, y);
+                gray[y][x] = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+            }
+        }
+
+        // The rows first, then the columns, only for the low frequencies
+        var rows = new double[SIZE][LOW];
+        for (int y = 0; y < SIZE; ++y) {
+            for (int u = 0; u < LOW; ++u) {
+                double sum = 0;
+                for (int x = 0; x < SIZE; ++x)
+                    sum += gray[y][x] * COS[u][x];
+                rows[y][u] = sum;
+            }
+        }
+        var coefficients = new double[LOW * LOW];
+        for (int v = 0; v < LOW; ++v) {
+            for (int u = 0; u < LOW; ++u) {
+                double sum = 0;
+                for (int y = 0; y < SIZE; ++y)
+                    sum += rows[y][u] * COS[v][y];
+                coefficients[v * LOW + u] = sum;
+            }
+        }
+
+        // The constant term only tells the brightness, it is left out of
+        // the median
+        var sorted = Arrays.copyOfRange(coefficients, 1, coefficients.length);
+        Arrays.sort(sorted);
+        double median = (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+
+        long hash = 0;
+        for (int i = 0; i < coefficients.length; ++i) {
+            if (coefficients[i] > median)
+                hash |= 1L << i;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of bits two hashes differ in
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+}
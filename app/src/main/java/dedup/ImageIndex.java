@@ -0,0 +1,109 @@
+package dedup;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A locality sensitive index of image hashes, see ImageHash, to find the
+ * hashes within a number of differing bits without comparing every pair.
+ *
+ * The 64 bits are cut into bands, and every band keeps the ids of the
+ * hashes sorted by the bits of that band. Two hashes that differ in at
+ * most d bits differ in at most d / bands bits in one of the bands, so a
+ * query looks up its own band values and all values within that many bits
+ * of them. Every hash within the distance is found, and only those that
+ * come close in one band are compared.
+ */
+public class ImageIndex {
+
+    private final long[] hashes;
+
+    private final int bands;
+
+    /**
+     * The band value in the high half and the id in the low half, sorted,
+     * for every band
+     */
+    private final long[][] keys;
+
+    /**
+     * @param hashes the image hashes, their index is their id
+     * @param bands  the number of bands to cut the hashes into, more bands
+     *               make for more lookups with fewer matches each
+     */
+    public ImageIndex(long[] hashes, int bands) {
+        if (bands < 2 || bands > Long.SIZE)
+            throw new IllegalArgumentException("Bands must be between 2 and 64");
+        this.hashes = hashes.clone();
+        this.bands = bands;
+        this.keys = new long[bands][hashes.length];
+        for (int b = 0; b < bands; ++b) {
+            var band = keys[b];
+            for (int i = 0; i < hashes.length; ++i)
+                band[i] = (bandOf(hashes[i], b) << 32) | i;
+            Arrays.sort(band);
+        }
+    }
+
+    public int size() {
+        return hashes.length;
+    }
+
+    public long getHash(int id) {
+        return hashes[id];
+    }
+
+    private int shift(int band) {
+        return band * Long.SIZE / bands;
+    }
+
+    private int width(int band) {
+        return shift(band + 1) - shift(band);
+    }
+
+    private long bandOf(long hash, int band) {
+        return (hash >>> shift(band)) & ((1L << width(band)) - 1);
+    }
+
+    /**
+     * Passes on the ids of the hashes that differ from the given hash in at
+     * most maxDistance bits. An id can be passed on more than once.
+     *
+     * @param hash        the hash to look for
+     * @param maxDistance the number of bits the hashes may differ in
+     * @param consumer    receives the ids
+     */
+    public void forEachSimilar(long hash, int maxDistance, IntConsumer consumer) {
+        int radius = maxDistance / bands;
+        for (int b = 0; b < bands; ++b) {
+            probe(b, bandOf(hash, b), 0, radius, hash, maxDistance, consumer);
+        }
+    }
+
+    /**
+     * Looks up the value and every value that differs from it in at most
+     * radius of the bits from the given one on
+     */
+    private void probe(int band, long value, int from, int radius, long hash, int maxDistance,
+            IntConsumer consumer) {
+        lookup(band, value, hash, maxDistance, consumer);
+        if (radius == 0)
+            return;
+        for (int bit = from; bit < width(band); ++bit) {
+            probe(band, value ^ (1L << bit), bit + 1, radius - 1, hash, maxDistance, consumer);
+        }
+    }
+
+    private void lookup(int band, long value, long hash, int maxDistance, IntConsumer consumer) {
+        var sorted = keys[band];
+        int i = Arrays.binarySearch(sorted, value << 32);
+        if (i < 0)
+            i = -i - 1;
+        for (; i < sorted.length && (sorted[i] >>> 32) == value; ++i) {
+            int id = (int) sorted[i];
+            if (ImageHash.distance(hash, hashes[id]) <= maxDistance)
+                consumer.accept(id);
+        }
+    }
+
+}
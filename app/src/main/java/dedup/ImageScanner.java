@@ -0,0 +1,134 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This scanner finds images that look alike, such as the same artwork
+ * stored as GIF and PNG or saved again with another encoder, which never
+ * have the same bytes. Every file with the suffix of a readable image
+ * format gets a perceptual hash, see ImageHash, and the hashes go into an
+ * ImageIndex, so each image is only compared with those that come close
+ * in one band of the hash instead of with every other image.
+ *
+ * Images are grouped transitively, if a is similar to b and b to c all
+ * three are in one group. Files that cannot be decoded are left out.
+ */
+public class ImageScanner {
+
+    private final ScanOptions options;
+
+    public ImageScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public ImageScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * Hashes every image below the given directories
+     *
+     * @param dirs a collection of the directories to scan
+     * @return the groups of similar images
+     */
+    public Collection<Collection<Path>> scan(Collection<Path> dirs) {
+        var files = new ArrayList<Path>();
+        var links = options.isCollapseLinks() ? new LinkIndex(dirs) : null;
+        for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
+            try {
+                new SimpleFileWalker((file, size) -> {
+                    if (ImageHash.isImage(file))
+                        files.add(file);
+                }, d).setLinkIndex(links).setAllFiles(true).setFilter(options.getFilter())
+                        .setTraversal(options.getTraversal()).walk();
+            } catch (IOException ex) {
+            }
+        }
+
+        var hashes = new long[files.size()];
+        var decoded = new boolean[files.size()];
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        for (int i = 0; i < files.size(); ++i) {
+            int id = i;
+            threads.execute(() -> {
+                try {
+                    hashes[id] = ImageHash.of(files.get(id));
+                    decoded[id] = true;
+                } catch (IOException | RuntimeException ex) {
+                    // Broken and unsupported variants of a format throw
+                    // all kinds of exceptions from the readers
+                }
+            });
+        }
+        threads.shutdown();
+        try {
+            threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException iex) {
+            threads.shutdownNow();
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+
+        var images = new ArrayList<Path>(files.size());
+        var imageHashes = new long[files.size()];
+        for (int i = 0; i < files.size(); ++i) {
+            if (decoded[i]) {
+                imageHashes[images.size()] = hashes[i];
+                images.add(files.get(i));
+            }
+        }
+        return group(images, new ImageIndex(Arrays.copyOf(imageHashes, images.size()),
+                options.getImageBands()));
+    }
+
+    private Collection<Collection<Path>> group(List<Path> images, ImageIndex index) {
+        var parent = new int[index.size()];
+        for (int i = 0; i < parent.length; ++i)
+            parent[i] = i;
+        for (int i = 0; i < parent.length; ++i) {
+            int id = i;
+            index.forEachSimilar(index.getHash(i), options.getImageDistance(), other -> {
+                if (other > id)
+                    union(parent, id, other);
+            });
+        }
+
+        var groups = new HashMap<Integer, Collection<Path>>();
+        for (int i = 0; i < parent.length; ++i) {
+            int root = find(parent, i);
+            if (root != i)
+                groups.computeIfAbsent(root, k -> new ArrayList<>()).add(images.get(i));
+        }
+        // The root is the smallest id of its group, it only gets a group of
+        // its own once it is known to have company
+        for (var e : groups.entrySet())
+            e.getValue().add(images.get(e.getKey()));
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra != rb)
+            parent[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+}
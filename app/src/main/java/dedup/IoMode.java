@@ -0,0 +1,25 @@
+package dedup;
+
+/**
+ * The ways FileComparator can read a file while hashing it.
+ */
+public enum IoMode {
+
+    /**
+     * A buffered input stream with a new heap buffer per file
+     */
+    STREAM,
+
+    /**
+     * A FileChannel reading into a direct buffer that is reused by the
+     * calling thread for every file
+     */
+    CHANNEL,
+
+    /**
+     * Memory-mapped reads for files at or above the mapping threshold;
+     * smaller files are read as with CHANNEL
+     */
+    MMAP
+
+}
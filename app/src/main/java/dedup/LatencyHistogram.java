@@ -0,0 +1,127 @@
+package dedup;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with a bucket per power of two nanoseconds.
+ *
+ * Recording is a few atomic additions, so it can be done for every file
+ * of a scan. Percentiles are reported as the upper bound of the bucket
+ * they fall in, which is at most twice the actual latency.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets;
+
+    private final LongAdder count;
+
+    private final LongAdder total;
+
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        total = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @param nanos the latency to record, negative values count as zero
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Forgets the recorded latencies. Latencies recorded meanwhile may be
+     * partly kept.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of all recorded latencies
+     */
+    public Duration getTotal() {
+        return Duration.ofNanos(total.sum());
+    }
+
+    /**
+     * @return the mean of the recorded latencies, zero if there are none
+     */
+    public Duration getMean() {
+        long n = count.sum();
+        return n == 0 ? Duration.ZERO : Duration.ofNanos(total.sum() / n);
+    }
+
+    /**
+     * @return the largest recorded latency
+     */
+    public Duration getMax() {
+        return Duration.ofNanos(max.get());
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket the percentile falls in, zero
+     *         if nothing was recorded
+     */
+    public Duration getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        var counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0)
+            return Duration.ZERO;
+
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1))
+                return Duration.ofNanos(Math.min(upperBound(i), max.get()));
+        }
+        return getMax();
+    }
+
+    /**
+     * Bucket n holds the latencies below 2^n that are at least 2^(n-1)
+     */
+    private static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%s p50=%s p99=%s max=%s", getCount(), getMean(), getPercentile(50),
+                getPercentile(99), getMax());
+    }
+
+}
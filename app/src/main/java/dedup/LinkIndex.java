@@ -0,0 +1,235 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * This class collapses the paths that point to the same file, such as hard
+ * links and symbolic links, by the file key of their attributes.
+ *
+ * Only the first path of a file is passed on to the size and checksum
+ * stages, so the content is hashed once and the other paths are not
+ * reported as duplicates, as removing them would not reclaim any space.
+ * They are kept as link groups instead.
+ *
+ * Where the file system tells the link count of a file, only the files
+ * with more than one link are kept in the index. The walkers read the link
+ * count together with the other attributes of a file, so a tree without
+ * hard links costs no extra reads. A symbolic
+ * link to a file of one link below the scanned roots is collapsed into
+ * that file right away, as the walk reaches the file by its own path,
+ * unless a filter keeps the walk from it.
+ * Paths are kept in a PathStore.
+ *
+ * File systems that have no file keys are not collapsed.
+ */
+public class LinkIndex {
+
+    /**
+     * The scanned roots and their real paths
+     */
+    private final List<Path[]> roots;
+
+    private final PathStore paths;
+
+    /**
+     * Maps a file key to the id of the first path seen with it
+     */
+    private final Map<Object, Integer> firstIds;
+
+    /**
+     * Maps the id of the first path of a file to the ids of its other paths
+     */
+    private final Map<Integer, Collection<Integer>> links;
+
+    /**
+     * The symbolic links collapsed into a file of one link, in case the
+     * scanned roots overlap
+     */
+    private final Set<Path> symbolicLinks;
+
+    /**
+     * @param roots the directories that are scanned
+     */
+    public LinkIndex(Collection<Path> roots) {
+        this.roots = new ArrayList<>();
+        for (var root : Set.copyOf(roots)) {
+            try {
+                this.roots.add(new Path[] { root, root.toRealPath() });
+            } catch (IOException ex) {
+                // Not walked either
+            }
+        }
+        paths = new PathStore();
+        firstIds = new ConcurrentHashMap<>();
+        links = new ConcurrentHashMap<>();
+        symbolicLinks = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Records a file and tells whether it is the first path of its content,
+     * looking up its link count
+     *
+     * @see #offer(Path, BasicFileAttributes, int)
+     */
+    public boolean offer(Path file, BasicFileAttributes attrs) {
+        return offer(file, attrs, -1);
+    }
+
+    /**
+     * Records a file and tells whether it is the first path of its content.
+     * Symbolic links are keyed by their target.
+     *
+     * @param file      the visited file
+     * @param attrs     the attributes the walker read for the file
+     * @param linkCount the number of links of the file the walker read with
+     *                  its attributes, or -1 to look it up if needed
+     * @return true if the file should be passed on, false if it is another
+     *         path of a file seen before
+     */
+    public boolean offer(Path file, BasicFileAttributes attrs, int linkCount) {
+        if (attrs.isSymbolicLink())
+            return offerSymbolicLink(file);
+        var key = attrs.fileKey();
+        if (key == null)
+            return true;
+        if (linkCount < 0)
+            linkCount = linkCount(file, LinkOption.NOFOLLOW_LINKS);
+        if (linkCount == 1)
+            return true;
+        return offer(file, key);
+    }
+
+    /**
+     * Returns the size of the content of a file. Where links are collapsed a
+     * symbolic link is hashed through to its target, so it is sized by the
+     * target with one read of its attributes, and a broken link counts as
+     * empty. Otherwise a link would be reported as a duplicate of its
+     * target, so it counts as empty too.
+     *
+     * @param links the index links are collapsed with, or null
+     */
+    static long sizeOf(Path file, BasicFileAttributes attrs, LinkIndex links) {
+        if (!attrs.isSymbolicLink())
+            return attrs.size();
+        if (links == null)
+            return 0;
+        try {
+            var target = Files.readAttributes(file, BasicFileAttributes.class);
+            return target.isRegularFile() ? target.size() : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private boolean offerSymbolicLink(Path file) {
+        BasicFileAttributes target;
+        try {
+            target = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return true;
+        }
+        var key = target.fileKey();
+        if (key == null)
+            return true;
+        if (linkCount(file) == 1) {
+            var real = walkedPath(file);
+            if (real != null) {
+                // The target itself is passed on without looking at the
+                // index, so it is only entered here as the first path
+                int first = firstIds.computeIfAbsent(key, k -> paths.add(real));
+                if (symbolicLinks.add(file))
+                    links.computeIfAbsent(first, k -> new ConcurrentLinkedDeque<>()).add(paths.add(file));
+                return false;
+            }
+        }
+        // A file of several links, or one that is not walked, is collapsed
+        // with the other paths of it by its key
+        return offer(file, key);
+    }
+
+    private boolean offer(Path file, Object key) {
+        var added = new boolean[1];
+        int first = firstIds.computeIfAbsent(key, k -> {
+            added[0] = true;
+            return paths.add(file);
+        });
+        if (added[0])
+            return true;
+        // The same path is seen twice when the scanned folders overlap
+        if (!paths.get(first).equals(file)) {
+            links.computeIfAbsent(first, k -> new ConcurrentLinkedDeque<>()).add(paths.add(file));
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of links of a file, or -1 where the file system
+     *         does not tell
+     */
+    private static int linkCount(Path file, LinkOption... options) {
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("unix"))
+            return -1;
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", options);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the path the walk reaches the target of a symbolic link by, or
+     *         null if the target is not below a scanned root
+     */
+    private Path walkedPath(Path link) {
+        Path real;
+        try {
+            real = link.toRealPath();
+        } catch (IOException ex) {
+            return null;
+        }
+        for (var root : roots) {
+            if (real.startsWith(root[1]))
+                return root[0].resolve(root[1].relativize(real));
+        }
+        return null;
+    }
+
+    /**
+     * @return the groups of paths that point to the same file, each starting
+     *         with the path that was passed on
+     */
+    public Collection<Collection<Path>> getLinkGroups() {
+        var groups = new ArrayList<Collection<Path>>(links.size());
+        for (var e : links.entrySet()) {
+            var group = new ArrayList<Path>(e.getValue().size() + 1);
+            group.add(paths.get(e.getKey()));
+            for (int id : e.getValue())
+                group.add(paths.get(id));
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * @return the number of paths that were collapsed into another
+     */
+    public int getLinkCount() {
+        int count = 0;
+        for (var ids : links.values()) {
+            count += ids.size();
+        }
+        return count;
+    }
+
+}
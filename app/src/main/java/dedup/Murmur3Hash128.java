@@ -0,0 +1,115 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A streaming implementation of the x64 128-bit MurmurHash3 with a seed
+ * of 0. The digest holds the two halves of the hash as little-endian
+ * longs, which matches the byte order other common implementations use.
+ */
+class Murmur3Hash128 implements Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final int BLOCK = 16;
+
+    private long h1;
+    private long h2;
+
+    private long total;
+
+    /**
+     * Holds the bytes of an incomplete block between calls to update()
+     */
+    private final ByteBuffer pending = ByteBuffer.allocate(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void update(ByteBuffer data) {
+        var in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        total += in.remaining();
+
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && in.hasRemaining()) {
+                pending.put(in.get());
+            }
+            if (pending.hasRemaining()) {
+                data.position(data.limit());
+                return;
+            }
+            pending.flip();
+            block(pending.getLong(), pending.getLong());
+            pending.clear();
+        }
+
+        while (in.remaining() >= BLOCK) {
+            block(in.getLong(), in.getLong());
+        }
+        pending.put(in);
+        data.position(data.limit());
+    }
+
+    @Override
+    public Digest digest() {
+        // The state is finalised on copies, so more can be hashed afterwards
+        var rest = pending.duplicate().flip();
+        long h1 = this.h1;
+        long h2 = this.h2;
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = rest.remaining() - 1; i >= 0; --i) {
+            long b = rest.get(i) & 0xFF;
+            if (i >= 8)
+                k2 ^= b << ((i - 8) * 8);
+            else
+                k1 ^= b << (i * 8);
+        }
+        h2 ^= mixK2(k2);
+        h1 ^= mixK1(k1);
+
+        h1 ^= total;
+        h2 ^= total;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return Digest.of(Long.reverseBytes(h1), Long.reverseBytes(h2));
+    }
+
+    private void block(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+}
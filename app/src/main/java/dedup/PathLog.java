@@ -0,0 +1,150 @@
+package dedup;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class keeps file paths in a file on disk instead of on the heap.
+ * Every path is appended as UTF-8 and identified by its offset in the file,
+ * so it can be read back with a single positional read.
+ *
+ * A path that does not survive the conversion to a String and back, such
+ * as one with a name that is not valid in the platform encoding, is
+ * appended as its URI instead, which keeps the bytes of the name. Its
+ * length is stored negated to tell it apart.
+ */
+public class PathLog implements Closeable {
+
+    private final Path file;
+
+    private final DataOutputStream out;
+
+    private final FileChannel in;
+
+    private long position;
+
+    /**
+     * @param dir the directory to create the log in
+     */
+    public PathLog(Path dir) throws IOException {
+        file = Files.createTempFile(dir, "dedup-paths", ".bin");
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        in = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the id to read the path back with
+     */
+    public long append(Path path) throws IOException {
+        long id = position;
+        position += write(out, path);
+        return id;
+    }
+
+    /**
+     * Reads a path back. The paths appended so far must have been flushed.
+     */
+    public Path get(long id) throws IOException {
+        var length = ByteBuffer.allocate(4);
+        readFully(length, id);
+        int n = length.flip().getInt();
+        var bytes = ByteBuffer.allocate(n >= 0 ? n : -n + 1);
+        readFully(bytes, id + 4);
+        return n >= 0 ? decode(bytes.array(), n, false, false) : decode(bytes.array(), -n, true, bytes.get(-n) != 0);
+    }
+
+    /**
+     * Writes a path the way the log stores it, for other files that hold
+     * paths
+     *
+     * @return the number of bytes written
+     */
+    static int write(DataOutput out, Path path) throws IOException {
+        var str = path.toString();
+        boolean verbatim = !isRestorable(str, path);
+        if (verbatim)
+            str = path.toUri().toString();
+        var bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(verbatim ? -bytes.length : bytes.length);
+        out.write(bytes);
+        if (!verbatim)
+            return 4 + bytes.length;
+        out.writeBoolean(path.isAbsolute());
+        return 5 + bytes.length;
+    }
+
+    /**
+     * Reads a path written by write()
+     */
+    static Path read(DataInput in) throws IOException {
+        int n = in.readInt();
+        var bytes = new byte[Math.abs(n)];
+        in.readFully(bytes);
+        return n >= 0 ? decode(bytes, n, false, false) : decode(bytes, -n, true, in.readBoolean());
+    }
+
+    /**
+     * @param verbatim true if the bytes are the URI of the path
+     */
+    private static Path decode(byte[] bytes, int length, boolean verbatim, boolean absolute) {
+        var str = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (!verbatim)
+            return Path.of(str);
+        var path = Path.of(URI.create(str));
+        // The URI of a relative path is resolved against the working
+        // directory
+        if (!absolute)
+            path = Path.of("").toAbsolutePath().relativize(path);
+        return path;
+    }
+
+    /**
+     * Writes the appended paths out, so they can be read back
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private static boolean isRestorable(String str, Path path) {
+        try {
+            return Path.of(str).equals(path);
+        } catch (InvalidPathException ex) {
+            return false;
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, pos);
+            if (n < 0)
+                throw new IOException("Unexpected end of " + file);
+            pos += n;
+        }
+    }
+
+    /**
+     * Closes and deletes the log
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+            in.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+package dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class stores file paths compactly under int ids.
+ *
+ * Every parent directory is stored once and the file names are packed as
+ * UTF-8 bytes into large arrays, so a stored file costs a few primitive
+ * slots plus the bytes of its name instead of a Path object holding its
+ * full path.
+ * Names that do not survive the conversion to a String and back, such as
+ * names that are not valid in the platform encoding, are kept as Paths.
+ *
+ * Adding takes no global lock: ids come from a counter, the slots of the
+ * ids are in fixed pages, and names are packed into one of several
+ * chunks, picked by the thread, each with a lock of its own. Only a new
+ * page or chunk is added under the lock of the store, once per many
+ * files. A path can be read by any thread that got its id handed over
+ * through a lock or a concurrent collection, as the size index and the
+ * queues do.
+ */
+public class PathStore {
+
+    private static final int CHUNK_BITS = 20;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int PAGE_BITS = 14;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int STRIPES = 8;
+
+    private final Map<Path, Integer> dirIds;
+
+    /**
+     * The directories by their id, in pages
+     */
+    private volatile Path[][] dirs;
+
+    /**
+     * The directory id of every file, in pages
+     */
+    private volatile int[][] parents;
+
+    /**
+     * The offset of the name of every file into the chunks, shifted left
+     * by 16 bits and combined with the length of the name, in pages
+     */
+    private volatile long[][] names;
+
+    private volatile byte[][] chunks;
+
+    private int chunkCount;
+
+    /**
+     * The chunks names are packed into, by thread
+     */
+    private final Writer[] writers;
+
+    /**
+     * The files whose name could not be stored as a String
+     */
+    private final Map<Integer, Path> verbatim;
+
+    private final AtomicInteger count;
+
+    private final AtomicInteger dirCount;
+
+    public PathStore() {
+        dirIds = new ConcurrentHashMap<>();
+        dirs = new Path[16][];
+        parents = new int[16][];
+        names = new long[16][];
+        chunks = new byte[16][];
+        writers = new Writer[STRIPES];
+        for (int i = 0; i < STRIPES; ++i)
+            writers[i] = new Writer();
+        verbatim = new ConcurrentHashMap<>();
+        count = new AtomicInteger();
+        dirCount = new AtomicInteger();
+    }
+
+    /**
+     * Stores a file path
+     *
+     * @param file the path of a file, with a parent directory
+     * @return the id to get the path back with
+     */
+    public int add(Path file) {
+        var dir = file.getParent();
+        int dirId = dirIds.computeIfAbsent(dir, this::addDirectory);
+
+        int id = count.getAndIncrement();
+        int page = id >>> PAGE_BITS;
+        int slot = id & (PAGE_SIZE - 1);
+        var names = namePage(page);
+        parents[page][slot] = dirId;
+
+        var str = file.getFileName().toString();
+        if (!isRestorable(dir, str, file)) {
+            verbatim.put(id, file);
+            names[slot] = -1;
+            return id;
+        }
+
+        var name = str.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF)
+            throw new IllegalArgumentException("File name too long: " + file);
+        var writer = writers[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        names[slot] = writer.write(name);
+        return id;
+    }
+
+    private int addDirectory(Path dir) {
+        int id = dirCount.getAndIncrement();
+        dirPage(id >>> PAGE_BITS)[id & (PAGE_SIZE - 1)] = dir;
+        return id;
+    }
+
+    /**
+     * @return the name page of the given page number, the parent page is
+     *         there too then
+     */
+    private long[] namePage(int page) {
+        var table = names;
+        if (page < table.length && table[page] != null && parents[page] != null)
+            return table[page];
+        synchronized (this) {
+            if (page >= names.length) {
+                int length = Math.max(page + 1, names.length * 2);
+                parents = Arrays.copyOf(parents, length);
+                names = Arrays.copyOf(names, length);
+            }
+            if (names[page] == null) {
+                parents[page] = new int[PAGE_SIZE];
+                names[page] = new long[PAGE_SIZE];
+            }
+            return names[page];
+        }
+    }
+
+    private Path[] dirPage(int page) {
+        var table = dirs;
+        if (page < table.length && table[page] != null)
+            return table[page];
+        synchronized (this) {
+            if (page >= dirs.length)
+                dirs = Arrays.copyOf(dirs, Math.max(page + 1, dirs.length * 2));
+            if (dirs[page] == null)
+                dirs[page] = new Path[PAGE_SIZE];
+            return dirs[page];
+        }
+    }
+
+    /**
+     * @return the index of a new chunk of name bytes
+     */
+    private synchronized int addChunk(byte[] chunk) {
+        if (chunkCount == chunks.length)
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        chunks[chunkCount] = chunk;
+        return chunkCount++;
+    }
+
+    /**
+     * @param id an id returned by add()
+     * @return the path stored under the id
+     */
+    public Path get(int id) {
+        if (id < 0 || id >= count.get())
+            throw new IndexOutOfBoundsException(id);
+        int page = id >>> PAGE_BITS;
+        int slot = id & (PAGE_SIZE - 1);
+        long ref = names[page][slot];
+        if (ref < 0)
+            return verbatim.get(id);
+        long offset = ref >>> 16;
+        var chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+        var name = new String(chunk, (int) (offset & (CHUNK_SIZE - 1)), (int) (ref & 0xFFFF),
+                StandardCharsets.UTF_8);
+        int dirId = parents[page][slot];
+        return dirs[dirId >>> PAGE_BITS][dirId & (PAGE_SIZE - 1)].resolve(name);
+    }
+
+    private static boolean isRestorable(Path dir, String name, Path file) {
+        try {
+            return dir.resolve(name).equals(file);
+        } catch (InvalidPathException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of stored files
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * @return the number of distinct parent directories
+     */
+    public int directories() {
+        return dirCount.get();
+    }
+
+    /**
+     * @return the approximate number of heap bytes held by the store,
+     *         not counting the directory paths that are shared with the
+     *         rest of the program
+     */
+    public synchronized long estimateBytes() {
+        long bytes = 64;
+        for (var page : parents)
+            bytes += page != null ? 16 + 4L * PAGE_SIZE : 0;
+        for (var page : names)
+            bytes += page != null ? 16 + 8L * PAGE_SIZE : 0;
+        for (var page : dirs)
+            bytes += page != null ? 16 + 4L * PAGE_SIZE : 0;
+        bytes += chunkCount * (16L + CHUNK_SIZE);
+        // The directory map entries
+        bytes += dirCount.get() * (32L + 16);
+        // The names kept as Paths, with their map entries
+        bytes += verbatim.size() * (32L + 16 + 96);
+        return bytes;
+    }
+
+    /**
+     * A chunk names are packed into, the first one is only allocated when
+     * it is needed
+     */
+    private class Writer {
+
+        private byte[] chunk;
+
+        private int index;
+
+        private int pos;
+
+        /**
+         * @return the offset of the name, shifted and combined with its
+         *         length
+         */
+        synchronized long write(byte[] name) {
+            if (chunk == null || pos + name.length > CHUNK_SIZE) {
+                chunk = new byte[CHUNK_SIZE];
+                index = addChunk(chunk);
+                pos = 0;
+            }
+            long offset = ((long) index << CHUNK_BITS) + pos;
+            System.arraycopy(name, 0, chunk, pos, name.length);
+            pos += name.length;
+            return (offset << 16) | name.length;
+        }
+
+    }
+
+}
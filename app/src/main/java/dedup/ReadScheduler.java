@@ -0,0 +1,524 @@
+package dedup;
+
+import java.nio.file.FileStore;
+import java.nio.file.Path;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue of files waiting for their checksum that hands them out by the
+ * device they are stored on.
+ *
+ * Every FileStore gets its own queue and a limit of concurrent reads, so a
+ * spinning disk can be held to a single reader while an SSD in the same
+ * scan is read by every thread. The devices are served in turn and each
+ * device queue is ordered by path, which keeps the files of a directory
+ * together and close to each other on most file systems.
+ *
+ * Like a work queue it keeps count of the files that have been added but
+ * not yet reported as done, so the producer can wait for all of them.
+ *
+ * The queue can be bounded, in which case put() blocks the walkers until
+ * the checksum threads have caught up. Both sides can hand files over in
+ * batches, so the lock is taken once per batch instead of once per file.
+ */
+public class ReadScheduler extends AbstractQueue<FileEntry> {
+
+    /**
+     * Orders files by their path, to read the files of a directory together
+     */
+    public static final Comparator<FileEntry> BY_PATH = (a, b) -> a.getPath().compareTo(b.getPath());
+
+    /**
+     * The key of files whose FileStore could not be determined
+     */
+    private static final Object UNKNOWN_STORE = new Object();
+
+    private final ScanOptions options;
+
+    private final DeviceLookup deviceLookup;
+
+    private final Map<Object, Device> devices;
+
+    /**
+     * The device of every file or batch that was handed out and is not done
+     */
+    private final Map<FileEntry, Device> taken;
+
+    /**
+     * The devices in the order they are served
+     */
+    private final List<Device> order;
+
+    /**
+     * The order of the files of a device
+     */
+    private Comparator<FileEntry> priority;
+
+    private final ReentrantLock lock;
+
+    private final Condition ready;
+
+    private final Condition idle;
+
+    private final Condition notFull;
+
+    /**
+     * The number of files that may be queued before put() blocks
+     */
+    private int capacity;
+
+    /**
+     * Set once the queue no longer accepts files
+     */
+    private boolean closed;
+
+    /**
+     * Where the next search for a device with pending reads starts
+     */
+    private int cursor;
+
+    private int queued;
+
+    /**
+     * The number of files that are queued or being worked on
+     */
+    private long outstanding;
+
+    public ReadScheduler(ScanOptions options) {
+        this(options, new DeviceLookup());
+    }
+
+    /**
+     * @param options      the options of the scan
+     * @param deviceLookup tells the devices of the files, it can be shared
+     *                     with the metrics of the scan
+     */
+    public ReadScheduler(ScanOptions options, DeviceLookup deviceLookup) {
+        this.options = Objects.requireNonNull(options);
+        this.deviceLookup = Objects.requireNonNull(deviceLookup);
+        devices = new HashMap<>();
+        taken = new IdentityHashMap<>();
+        order = new ArrayList<>();
+        lock = new ReentrantLock();
+        ready = lock.newCondition();
+        idle = lock.newCondition();
+        notFull = lock.newCondition();
+        priority = BY_PATH;
+        capacity = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param capacity the number of files that may be queued before put()
+     *                 blocks, Integer.MAX_VALUE for an unbounded queue,
+     *                 which is the default
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the order the files of every device are handed out in,
+     * including the files that are already queued
+     *
+     * @param priority orders the files that should be read first first
+     */
+    public void setPriority(Comparator<FileEntry> priority) {
+        Objects.requireNonNull(priority);
+        lock.lock();
+        try {
+            this.priority = priority;
+            for (var device : order) {
+                var pending = new PriorityQueue<FileEntry>(Math.max(1, device.pending.size()), priority);
+                pending.addAll(device.pending);
+                device.pending = pending;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a file if the queue has room for it
+     *
+     * @return false if the queue is full or closed
+     */
+    @Override
+    public boolean offer(FileEntry entry) {
+        var store = storeOf(entry.getPath());
+        lock.lock();
+        try {
+            if (closed || queued >= capacity)
+                return false;
+            enqueue(entry, store);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a file, waiting for room in the queue if it is full
+     *
+     * @return false if the queue has been closed, or the thread was
+     *         interrupted while waiting, in which case the interrupt
+     *         status is kept
+     */
+    public boolean put(FileEntry entry) {
+        return putAll(List.of(entry)) == 1;
+    }
+
+    /**
+     * Adds the files, waiting for room in the queue whenever it is full
+     *
+     * @return the number of files added, less than the given ones if the
+     *         queue has been closed or the thread was interrupted while
+     *         waiting, in which case the interrupt status is kept
+     */
+    public int putAll(List<FileEntry> entries) {
+        var stores = new Object[entries.size()];
+        for (int i = 0; i < stores.length; ++i) {
+            stores[i] = storeOf(entries.get(i).getPath());
+        }
+
+        int added = 0;
+        lock.lock();
+        try {
+            for (; added < stores.length; ++added) {
+                while (!closed && queued >= capacity) {
+                    notFull.await();
+                }
+                if (closed)
+                    break;
+                enqueue(entries.get(added), stores[added]);
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        return added;
+    }
+
+    private void enqueue(FileEntry entry, Object store) {
+        var device = devices.get(store);
+        if (device == null) {
+            device = new Device(store);
+            devices.put(store, device);
+            order.add(device);
+        }
+        device.pending.add(entry);
+        ++queued;
+        ++outstanding;
+        if (device.active < device.limit)
+            ready.signal();
+    }
+
+    /**
+     * Stops accepting files and drops the queued ones, waking any thread
+     * that waits to add files
+     *
+     * @return the dropped files
+     */
+    public List<FileEntry> close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            return drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the next file of a device that has a read to spare, or null
+     * if there is none. The caller must call done() once it has finished
+     * with the file.
+     */
+    @Override
+    public FileEntry poll() {
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the next file of a device that has a read to spare, waiting
+     * for one to become available. The caller must call done() once it has
+     * finished with the file.
+     */
+    public FileEntry take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            FileEntry entry;
+            while ((entry = next()) == null) {
+                ready.await();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves up to max files of a device that has a read to spare,
+     * waiting for one to become available. The files are read one after
+     * the other and take a single read of their device, the caller must
+     * call done() with the batch once it has finished with all of them.
+     *
+     * @param max   the largest number of files to retrieve
+     * @param batch receives the files
+     * @return the number of files retrieved, at least one
+     */
+    public int take(int max, List<FileEntry> batch) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Device device;
+            while ((device = nextDevice()) == null) {
+                ready.await();
+            }
+            int n = 0;
+            while (n < max && !device.pending.isEmpty()) {
+                batch.add(device.pending.poll());
+                ++n;
+            }
+            ++device.active;
+            taken.put(batch.get(batch.size() - n), device);
+            queued -= n;
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileEntry next() {
+        var device = nextDevice();
+        if (device == null)
+            return null;
+        ++device.active;
+        --queued;
+        notFull.signal();
+        var entry = device.pending.poll();
+        taken.put(entry, device);
+        return entry;
+    }
+
+    /**
+     * @return the next device in turn with pending files and a read to
+     *         spare, or null if there is none
+     */
+    private Device nextDevice() {
+        int n = order.size();
+        for (int i = 0; i < n; ++i) {
+            var device = order.get((cursor + i) % n);
+            if (device.active < device.limit && !device.pending.isEmpty()) {
+                cursor = (cursor + i + 1) % n;
+                return device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks a file retrieved from this queue as handled, which frees a read
+     * on its device
+     */
+    public void done(FileEntry entry) {
+        done(List.of(entry));
+    }
+
+    /**
+     * Marks a batch retrieved from this queue as handled, which frees the
+     * read it took on its device
+     */
+    public void done(List<FileEntry> batch) {
+        if (batch.isEmpty())
+            return;
+        lock.lock();
+        try {
+            var device = taken.remove(batch.get(0));
+            --device.active;
+            if (!device.pending.isEmpty())
+                ready.signal();
+            outstanding -= batch.size();
+            if (outstanding == 0)
+                idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every file added to the queue has been marked as done
+     */
+    public void awaitIdle() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (outstanding > 0) {
+                idle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every file added to the queue has been marked as done,
+     * at most for the given time
+     *
+     * @return true if the queue is idle, false if the time ran out
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (outstanding > 0) {
+                if (nanos <= 0)
+                    return false;
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the queued files, which no longer count as outstanding. The
+     * files being worked on are still to be marked as done.
+     *
+     * @return the removed files
+     */
+    public List<FileEntry> drain() {
+        lock.lock();
+        try {
+            var drained = new ArrayList<FileEntry>(queued);
+            for (var device : order) {
+                drained.addAll(device.pending);
+                device.pending.clear();
+            }
+            queued = 0;
+            outstanding -= drained.size();
+            notFull.signalAll();
+            if (outstanding == 0)
+                idle.signalAll();
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of files that are queued or being worked on
+     */
+    public long getOutstanding() {
+        lock.lock();
+        try {
+            return outstanding;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of devices files have been added for
+     */
+    public int getDevices() {
+        lock.lock();
+        try {
+            return devices.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public FileEntry peek() {
+        lock.lock();
+        try {
+            for (var device : order) {
+                if (!device.pending.isEmpty())
+                    return device.pending.peek();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the queued files
+     */
+    @Override
+    public Iterator<FileEntry> iterator() {
+        lock.lock();
+        try {
+            var snapshot = new ArrayList<FileEntry>(queued);
+            for (var device : order) {
+                snapshot.addAll(device.pending);
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object storeOf(Path file) {
+        var store = deviceLookup.storeOf(file);
+        return store != null ? store : UNKNOWN_STORE;
+    }
+
+    /**
+     * The queue and the reads in progress of one FileStore
+     */
+    private class Device {
+
+        PriorityQueue<FileEntry> pending;
+
+        final int limit;
+
+        int active;
+
+        Device(Object store) {
+            pending = new PriorityQueue<>(priority);
+            limit = store instanceof FileStore ? options.getDeviceReads(((FileStore) store).name())
+                    : options.getDeviceReads(null);
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package dedup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * This class narrows down the files that share a size with other files by
+ * a checksum of their head and tail. Only files whose sample collides with
+ * the sample of another file of the same size are passed on for the full
+ * checksum.
+ *
+ * It follows the same approach as the size map of the file walkers: the
+ * first file with a given sample is held back until a second one comes
+ * along, at which point both are passed on and any later file with the
+ * same sample goes straight through.
+ */
+public class SampleFilter {
+
+    private final int sampleSize;
+
+    private final ChecksumCache cache;
+
+    /**
+     * Maps a file size and sample checksum to the first file seen with them
+     */
+    private final Map<Digest, FileEntry> sampleMap;
+
+    /**
+     * Sizes and sample checksums that have been seen more than once
+     */
+    private final Set<Digest> knownSamples;
+
+    private ScanMetrics metrics;
+
+    public SampleFilter(ScanOptions options) {
+        this.sampleSize = Objects.requireNonNull(options).getSampleSize();
+        this.cache = options.getChecksumCache();
+        this.sampleMap = new ConcurrentHashMap<>();
+        this.knownSamples = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * @param metrics the metrics to record the sample latencies in, or null
+     * @return this filter
+     */
+    public SampleFilter setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Samples the given file and hands it, together with the file it
+     * collides with if this is the first collision, to the next stage.
+     *
+     * @param file the candidate file
+     * @param next the consumer for files that need the full checksum
+     * @throws IOException if the file could not be sampled
+     */
+    public void offer(FileEntry file, Consumer<FileEntry> next) throws IOException {
+        var path = file.getPath();
+        var event = new ScanEvents.ChecksumEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long sum = cache != null ? cache.sampleChecksumFor(path, sampleSize)
+                : FileComparator.sampleChecksumFor(path, sampleSize);
+        if (metrics != null)
+            metrics.record(ScanMetrics.Stage.SAMPLE, System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.size = file.getSize();
+            event.stage = ScanMetrics.Stage.SAMPLE.name();
+            event.commit();
+        }
+        var sample = Digest.of(file.getSize(), sum);
+        if (knownSamples.contains(sample)) {
+            next.accept(file);
+            return;
+        }
+
+        FileEntry old;
+        synchronized (sampleMap) {
+            old = sampleMap.putIfAbsent(sample, file);
+            if (old != null) {
+                knownSamples.add(sample);
+                sampleMap.remove(sample);
+            } else if (knownSamples.contains(sample)) {
+                // Another thread promoted this sample in the meantime
+                sampleMap.remove(sample);
+                old = file;
+                file = null;
+            }
+        }
+
+        if (old != null) {
+            next.accept(old);
+            if (file != null)
+                next.accept(file);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package dedup;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR events of a scan.
+ *
+ * Events cost next to nothing while no recording is running, so the
+ * scanners create them unconditionally and only fill them in once
+ * shouldCommit() says they will be recorded. Enable them with e.g.
+ * -XX:StartFlightRecording and look for the Dedup category.
+ */
+public final class ScanEvents {
+
+    private ScanEvents() {
+    }
+
+    @Name("dedup.Directory")
+    @Label("Directory Listed")
+    @Category("Dedup")
+    @StackTrace(false)
+    public static class DirectoryEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Files")
+        int files;
+
+    }
+
+    @Name("dedup.Checksum")
+    @Label("File Hashed")
+    @Category("Dedup")
+    @StackTrace(false)
+    public static class ChecksumEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Device")
+        String device;
+
+        @Label("Stage")
+        String stage;
+
+    }
+
+    @Name("dedup.Queues")
+    @Label("Scan Queues")
+    @Description("The depths of the queues of the running scans")
+    @Category("Dedup")
+    @Period("1 s")
+    @StackTrace(false)
+    public static class QueueEvent extends Event {
+
+        @Label("Pending Folders")
+        long pendingFolders;
+
+        @Label("Checksum Items")
+        long checksumItems;
+
+    }
+
+    /**
+     * Emits a QueueEvent for the given metrics every period while a
+     * recording is running, until the returned hook is removed
+     *
+     * @param metrics the metrics whose gauges to sample
+     * @return the hook to pass to stopSampling()
+     */
+    public static Runnable startSampling(ScanMetrics metrics) {
+        Runnable hook = () -> {
+            var event = new QueueEvent();
+            event.pendingFolders = metrics.getDepth(ScanMetrics.Queue.PENDING_FOLDERS);
+            event.checksumItems = metrics.getDepth(ScanMetrics.Queue.CHECKSUM_ITEMS);
+            event.commit();
+        };
+        FlightRecorder.addPeriodicEvent(QueueEvent.class, hook);
+        return hook;
+    }
+
+    public static void stopSampling(Runnable hook) {
+        FlightRecorder.removePeriodicEvent(hook);
+    }
+
+}
@@ -0,0 +1,210 @@
+package dedup;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * This class decides which directories and files a scan looks at. The
+ * walkers evaluate it while they traverse, so an excluded directory is
+ * never descended into and an excluded file never reaches the size index.
+ *
+ * Glob patterns without a slash are matched against the name of a file or
+ * directory, e.g. "*.tmp" or "node_modules", patterns with a slash against
+ * its whole path, e.g. "/var/cache/**". The directories a scan is
+ * started from are always walked.
+ *
+ * The rules are checked from the cheapest to the most expensive: the size
+ * first, then the globs and finally the predicates.
+ */
+public class ScanFilter {
+
+    /**
+     * The names of directories that hold version control metadata,
+     * dependencies or file system snapshots, which are rarely worth
+     * deduplicating
+     */
+    public static final List<String> COMMON_SKIPS = List.of(".git", ".hg", ".svn", "node_modules", ".snapshot",
+            ".snapshots", ".zfs");
+
+    private long minSize;
+
+    private long maxSize;
+
+    private final List<Rule> includes;
+
+    private final List<Rule> excludes;
+
+    private final List<Rule> directoryExcludes;
+
+    private final List<BiPredicate<Path, BasicFileAttributes>> predicates;
+
+    public ScanFilter() {
+        minSize = 1;
+        maxSize = Long.MAX_VALUE;
+        includes = new ArrayList<>();
+        excludes = new ArrayList<>();
+        directoryExcludes = new ArrayList<>();
+        predicates = new ArrayList<>();
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param minSize the size below which files are ignored, empty files
+     *                are always ignored
+     * @return this instance
+     */
+    public ScanFilter setMinSize(long minSize) {
+        if (minSize < 0)
+            throw new IllegalArgumentException("Minimum size must not be negative");
+        this.minSize = Math.max(1, minSize);
+        return this;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize the size above which files are ignored
+     * @return this instance
+     */
+    public ScanFilter setMaxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Maximum size must not be negative");
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Restricts the scan to files that match the glob, or any of the other
+     * globs given to this method
+     *
+     * @param glob a glob pattern
+     * @return this instance
+     */
+    public ScanFilter includeFiles(String glob) {
+        includes.add(new Rule(glob));
+        return this;
+    }
+
+    /**
+     * Ignores the files that match the glob
+     *
+     * @param glob a glob pattern
+     * @return this instance
+     */
+    public ScanFilter excludeFiles(String glob) {
+        excludes.add(new Rule(glob));
+        return this;
+    }
+
+    /**
+     * Skips the directories that match the glob, along with everything
+     * below them
+     *
+     * @param glob a glob pattern
+     * @return this instance
+     */
+    public ScanFilter excludeDirectories(String glob) {
+        directoryExcludes.add(new Rule(glob));
+        return this;
+    }
+
+    /**
+     * Skips the directories in COMMON_SKIPS
+     *
+     * @return this instance
+     */
+    public ScanFilter excludeCommonDirectories() {
+        COMMON_SKIPS.forEach(this::excludeDirectories);
+        return this;
+    }
+
+    /**
+     * Only scans the files the predicate accepts, e.g. regular files
+     * rather than symbolic links
+     *
+     * @param predicate tests the path and attributes of a file
+     * @return this instance
+     */
+    public ScanFilter requireFiles(BiPredicate<Path, BasicFileAttributes> predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    /**
+     * @param dir   a directory below one the scan was started from
+     * @param attrs the attributes of the directory
+     * @return true if the directory should be descended into
+     */
+    public boolean acceptDirectory(Path dir, BasicFileAttributes attrs) {
+        for (var rule : directoryExcludes) {
+            if (rule.matches(dir))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param file  a file
+     * @param size  the size of its content
+     * @param attrs the attributes of the file
+     * @return true if the file should be scanned
+     */
+    public boolean acceptFile(Path file, long size, BasicFileAttributes attrs) {
+        if (size < minSize || size > maxSize)
+            return false;
+        if (!includes.isEmpty()) {
+            boolean included = false;
+            for (var rule : includes) {
+                if (rule.matches(file)) {
+                    included = true;
+                    break;
+                }
+            }
+            if (!included)
+                return false;
+        }
+        for (var rule : excludes) {
+            if (rule.matches(file))
+                return false;
+        }
+        for (var predicate : predicates) {
+            if (!predicate.test(file, attrs))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A glob matched against the name or the whole path
+     */
+    private static class Rule {
+
+        private final PathMatcher matcher;
+
+        private final boolean byName;
+
+        Rule(String glob) {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            byName = glob.indexOf('/') < 0;
+        }
+
+        boolean matches(Path path) {
+            if (!byName)
+                return matcher.matches(path);
+            var name = path.getFileName();
+            return name != null && matcher.matches(name);
+        }
+
+    }
+
+}
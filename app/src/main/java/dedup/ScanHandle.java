@@ -0,0 +1,118 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle on a running scan, to follow its progress, cancel it or wait
+ * for it to end.
+ *
+ * Cancelling is cooperative: the scan stops walking new directories and
+ * taking new files off the checksum queue, then hands over the duplicates
+ * it has confirmed so far and ends as CANCELLED. A scan that runs out of
+ * its time budget does the same and ends as EXPIRED.
+ */
+public class ScanHandle {
+
+    public enum State {
+        RUNNING, COMPLETED, CANCELLED, EXPIRED
+    }
+
+    private final ScanMetrics metrics;
+
+    private final CountDownLatch done;
+
+    private final Collection<Collection<Path>> result;
+
+    private volatile State state;
+
+    private volatile boolean cancelled;
+
+    private volatile Thread runner;
+
+    /**
+     * @param metrics the metrics of the scan
+     * @param result  the collection the scan hands its duplicates to, or
+     *                null if they go elsewhere
+     */
+    ScanHandle(ScanMetrics metrics, Collection<Collection<Path>> result) {
+        this.metrics = metrics;
+        this.result = result;
+        this.done = new CountDownLatch(1);
+        this.state = State.RUNNING;
+    }
+
+    /**
+     * Asks the scan to stop. It returns at once, use await() to wait for
+     * the scan to end.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (runner != null)
+            runner.interrupt();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isDone() {
+        return state != State.RUNNING;
+    }
+
+    public ScanProgress getProgress() {
+        return new ScanProgress(state, metrics);
+    }
+
+    /**
+     * Waits for the scan to end
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Waits for the scan to end, at most for the given time
+     *
+     * @return true if the scan has ended
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Waits for the scan to end and returns the duplicates it found, which
+     * may be partial if it was cancelled or ran out of time
+     *
+     * @return the duplicates, or null if the scan handed them to a consumer
+     */
+    public Collection<Collection<Path>> get() throws InterruptedException {
+        await();
+        return result;
+    }
+
+    /**
+     * Binds the handle to the thread that runs the scan, which cancel()
+     * interrupts
+     */
+    synchronized void started(Thread thread) {
+        runner = thread;
+        if (cancelled)
+            thread.interrupt();
+    }
+
+    void finished(State state) {
+        synchronized (this) {
+            this.state = state;
+            runner = null;
+        }
+        done.countDown();
+    }
+
+}
@@ -0,0 +1,408 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class counts what a scan does, so a slow scan can be traced to the
+ * traversal, the size index or the hashing.
+ *
+ * The counters are LongAdders, which threads update without contending
+ * with each other, so the scanners record every directory and file. The
+ * queue depths are read through gauges the scanner registers, and their
+ * peaks are tracked whenever the scanner reports a depth.
+ *
+ * Every scan starts the metrics over, so they tell about the current or
+ * last scan of a scanner.
+ *
+ * While a JFR recording is running the scanners also emit the events in
+ * ScanEvents.
+ */
+public class ScanMetrics {
+
+    /**
+     * The stages of a scan that latencies are recorded for
+     */
+    public enum Stage {
+        /**
+         * Reading the entries and attributes of one directory
+         */
+        LIST,
+        /**
+         * Offering one file to the size index, including waiting for its lock
+         */
+        INDEX,
+        /**
+         * Calculating the sample checksum of one file
+         */
+        SAMPLE,
+        /**
+         * Calculating the full checksum of one file
+         */
+        HASH
+    }
+
+    /**
+     * The queues of a scan whose depth is tracked
+     */
+    public enum Queue {
+        PENDING_FOLDERS, CHECKSUM_ITEMS
+    }
+
+    private static final String UNKNOWN_DEVICE = "unknown";
+
+    private final LongAdder directories;
+
+    private final LongAdder files;
+
+    private final LongAdder filesHashed;
+
+    private final LongAdder bytesHashed;
+
+    private final LongAdder filesQueued;
+
+    private final LongAdder bytesQueued;
+
+    private final LongAdder filesDone;
+
+    private final LongAdder bytesDone;
+
+    private final Map<Stage, LatencyHistogram> latencies;
+
+    private final Map<String, Device> devices;
+
+    private final DeviceLookup deviceLookup;
+
+    private final Map<Queue, LongSupplier> gauges;
+
+    private final Map<Queue, LongAccumulator> peaks;
+
+    private volatile long started;
+
+    private volatile long traversed;
+
+    private volatile long finished;
+
+    public ScanMetrics() {
+        this(new DeviceLookup());
+    }
+
+    /**
+     * @param deviceLookup tells the devices of the hashed files, it can be
+     *                     shared with the read scheduling of the scan
+     */
+    public ScanMetrics(DeviceLookup deviceLookup) {
+        this.deviceLookup = Objects.requireNonNull(deviceLookup);
+        directories = new LongAdder();
+        files = new LongAdder();
+        filesHashed = new LongAdder();
+        bytesHashed = new LongAdder();
+        filesQueued = new LongAdder();
+        bytesQueued = new LongAdder();
+        filesDone = new LongAdder();
+        bytesDone = new LongAdder();
+        latencies = new EnumMap<>(Stage.class);
+        for (var stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        devices = new ConcurrentHashMap<>();
+        gauges = new ConcurrentHashMap<>();
+        peaks = new EnumMap<>(Queue.class);
+        for (var queue : Queue.values()) {
+            peaks.put(queue, new LongAccumulator(Math::max, 0));
+        }
+    }
+
+    /**
+     * Marks the start of a scan and sets every count back to zero. The
+     * gauges are kept.
+     */
+    public void started() {
+        for (var adder : new LongAdder[] { directories, files, filesHashed, bytesHashed, filesQueued, bytesQueued,
+                filesDone, bytesDone }) {
+            adder.reset();
+        }
+        latencies.values().forEach(LatencyHistogram::reset);
+        devices.clear();
+        peaks.values().forEach(LongAccumulator::reset);
+        started = System.nanoTime();
+        traversed = 0;
+        finished = 0;
+    }
+
+    /**
+     * Marks the end of the traversal
+     */
+    public void traversed() {
+        traversed = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a scan
+     */
+    public void finished() {
+        finished = System.nanoTime();
+    }
+
+    /**
+     * Records a directory whose entries have been read
+     *
+     * @param entries the number of files in the directory
+     * @param nanos   the time it took to read them
+     */
+    public void directoryVisited(int entries, long nanos) {
+        directories.increment();
+        files.add(entries);
+        latencies.get(Stage.LIST).record(nanos);
+    }
+
+    /**
+     * Records the full checksum of a file
+     *
+     * @param file  the file
+     * @param size  the size of the file
+     * @param nanos the time it took to hash it, up to now
+     */
+    public void fileHashed(Path file, long size, long nanos) {
+        filesHashed.increment();
+        bytesHashed.add(size);
+        latencies.get(Stage.HASH).record(nanos);
+        devices.computeIfAbsent(deviceOf(file), Device::new).record(size, nanos);
+    }
+
+    /**
+     * Records the digest a file is grouped by. That is the full checksum,
+     * unless that stage is switched off and the digest is only the sample,
+     * or nothing at all when the sample stage is off as well.
+     *
+     * @return the stage that was recorded, or null if the content was not
+     *         read
+     */
+    Stage digestCalculated(Path file, long size, long nanos, ScanOptions options) {
+        if (options.isFullHashStage()) {
+            fileHashed(file, size, nanos);
+            return Stage.HASH;
+        }
+        if (!options.isSampleStage())
+            return null;
+        record(Stage.SAMPLE, nanos);
+        return Stage.SAMPLE;
+    }
+
+    /**
+     * @return the name of the FileStore the file is stored on
+     */
+    public String deviceOf(Path file) {
+        var name = deviceLookup.nameOf(file);
+        return name != null ? name : UNKNOWN_DEVICE;
+    }
+
+    /**
+     * @return the lookup the devices of the hashed files are told by
+     */
+    DeviceLookup getDeviceLookup() {
+        return deviceLookup;
+    }
+
+    /**
+     * Records a file that was queued for its checksum
+     */
+    public void fileQueued(long size) {
+        filesQueued.increment();
+        bytesQueued.add(size);
+    }
+
+    /**
+     * Records a queued file that has been handled, whether it was hashed,
+     * ruled out by its sample or could not be read
+     */
+    public void fileDone(long size) {
+        filesDone.increment();
+        bytesDone.add(size);
+    }
+
+    /**
+     * Records the latency of a stage
+     */
+    public void record(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    /**
+     * Registers the function to read the current depth of a queue with
+     */
+    public void setGauge(Queue queue, LongSupplier depth) {
+        gauges.put(queue, depth);
+    }
+
+    /**
+     * Reports the current depth of a queue, to track its peak
+     */
+    public void observe(Queue queue, long depth) {
+        peaks.get(queue).accumulate(depth);
+    }
+
+    /**
+     * @return the current depth of the queue, or 0 if it has no gauge
+     */
+    public long getDepth(Queue queue) {
+        var gauge = gauges.get(queue);
+        long depth = gauge != null ? gauge.getAsLong() : 0;
+        observe(queue, depth);
+        return depth;
+    }
+
+    /**
+     * @return the largest depth the queue has been seen with
+     */
+    public long getPeakDepth(Queue queue) {
+        return peaks.get(queue).get();
+    }
+
+    public long getDirectories() {
+        return directories.sum();
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    public long getFilesQueued() {
+        return filesQueued.sum();
+    }
+
+    public long getBytesQueued() {
+        return bytesQueued.sum();
+    }
+
+    public long getFilesDone() {
+        return filesDone.sum();
+    }
+
+    public long getBytesDone() {
+        return bytesDone.sum();
+    }
+
+    /**
+     * @return true once the traversal of the current scan has ended
+     */
+    public boolean isTraversed() {
+        return traversed != 0;
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    /**
+     * @return the time the traversal took, up to now if it is still running
+     */
+    public Duration getTraversalTime() {
+        if (started == 0)
+            return Duration.ZERO;
+        long end = traversed != 0 ? traversed : System.nanoTime();
+        return Duration.ofNanos(end - started);
+    }
+
+    /**
+     * @return the time the scan took, up to now if it is still running
+     */
+    public Duration getScanTime() {
+        if (started == 0)
+            return Duration.ZERO;
+        long end = finished != 0 ? finished : System.nanoTime();
+        return Duration.ofNanos(end - started);
+    }
+
+    /**
+     * @return the number of files and directories visited per second of
+     *         traversal
+     */
+    public double getStatRate() {
+        return perSecond(getFiles() + getDirectories(), getTraversalTime().toNanos());
+    }
+
+    /**
+     * @return the number of megabytes hashed per second, by the name of the
+     *         device they were read from. The time of a device runs from the
+     *         start of its first hash to the end of its last, however many
+     *         threads read from it meanwhile.
+     */
+    public Map<String, Double> getDeviceThroughput() {
+        var result = new TreeMap<String, Double>();
+        for (var device : devices.values()) {
+            result.put(device.name, device.getThroughput());
+        }
+        return result;
+    }
+
+    public String getReport() {
+        var sb = new StringBuilder();
+        sb.append(String.format("Visited %d directories and %d files in %s, %.0f entries/s%n", getDirectories(),
+                getFiles(), getTraversalTime(), getStatRate()));
+        sb.append(String.format("Hashed %d files, %d MB in %s%n", getFilesHashed(), getBytesHashed() >> 20,
+                getScanTime()));
+        for (var e : getDeviceThroughput().entrySet()) {
+            sb.append(String.format("\t%s: %.1f MB/s%n", e.getKey(), e.getValue()));
+        }
+        for (var queue : Queue.values()) {
+            sb.append(String.format("Queue %s peaked at %d%n", queue, getPeakDepth(queue)));
+        }
+        for (var stage : Stage.values()) {
+            sb.append(String.format("Stage %s: %s%n", stage, getLatency(stage)));
+        }
+        return sb.toString();
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+
+    /**
+     * The hashing totals of one device, over the wall clock time it was
+     * read in
+     */
+    private static class Device {
+
+        final String name;
+
+        final LongAdder bytes = new LongAdder();
+
+        final LongAccumulator firstStart = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+        final LongAccumulator lastEnd = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        Device(String name) {
+            this.name = name;
+        }
+
+        void record(long size, long time) {
+            long end = System.nanoTime();
+            bytes.add(size);
+            firstStart.accumulate(end - time);
+            lastEnd.accumulate(end);
+        }
+
+        double getThroughput() {
+            return perSecond(bytes.sum(), lastEnd.get() - firstStart.get()) / (1 << 20);
+        }
+
+    }
+
+}
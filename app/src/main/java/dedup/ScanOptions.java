@@ -0,0 +1,716 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class holds the settings that control how the scanners narrow
+ * down the files that share a size into groups of duplicates.
+ *
+ * The narrowing happens in stages: files are first grouped by size, then
+ * by a checksum of a small sample taken from the head and tail of the file
+ * and finally by a checksum of the whole file. Every stage after the size
+ * grouping can be switched on or off.
+ */
+public class ScanOptions {
+
+    /**
+     * The default number of bytes read from each end of a file for the
+     * sample checksum
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 4096;
+
+    /**
+     * The default size of the read buffer used while hashing
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default size from which files are memory-mapped in MMAP mode
+     */
+    public static final long DEFAULT_MAP_THRESHOLD = 64L << 20;
+
+    /**
+     * The default file size from which files are hashed in segments
+     */
+    public static final long DEFAULT_SEGMENT_THRESHOLD = 1L << 30;
+
+    /**
+     * The default size of the segments large files are hashed in
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    /**
+     * The default average chunk size of the block level scan
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * The default number of records the external sort scanner keeps on the
+     * heap before it spills them to disk
+     */
+    public static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    /**
+     * The default largest group that is compared byte by byte instead of
+     * being hashed
+     */
+    public static final int DEFAULT_COMPARE_THRESHOLD = 2;
+
+    /**
+     * The default number of directories the virtual thread scanner lists at once
+     */
+    public static final int DEFAULT_MAX_OPENS = 256;
+
+    /**
+     * The default number of files the virtual thread scanner reads at once
+     */
+    public static final int DEFAULT_MAX_READS = 32;
+
+    /**
+     * The default number of files the threaded scanners queue for their
+     * checksum before the walkers wait
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * The default number of files handed between the walkers and the
+     * checksum threads at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    /**
+     * The default number of bits the hashes of similar images may differ in
+     */
+    public static final int DEFAULT_IMAGE_DISTANCE = 6;
+
+    /**
+     * The default number of bands the image index cuts the hashes into
+     */
+    public static final int DEFAULT_IMAGE_BANDS = 4;
+
+    private boolean sampleStage;
+
+    private int sampleSize;
+
+    private boolean fullHashStage;
+
+    private int parallelism;
+
+    private HashAlgorithm hashAlgorithm;
+
+    private IoMode ioMode;
+
+    private Traversal traversal;
+
+    private int bufferSize;
+
+    private long mapThreshold;
+
+    private long segmentThreshold;
+
+    private long segmentSize;
+
+    private int chunkSize;
+
+    private Path spillDirectory;
+
+    private int runSize;
+
+    private ChecksumCache checksumCache;
+
+    private int compareThreshold;
+
+    private boolean verifyStage;
+
+    private int maxOpens;
+
+    private int maxReads;
+
+    private boolean collapseLinks;
+
+    private int deviceReads;
+
+    private Map<String, Integer> storeReads;
+
+    private Duration timeBudget;
+
+    private int queueCapacity;
+
+    private int batchSize;
+
+    private int imageDistance;
+
+    private int imageBands;
+
+    private boolean archives;
+
+    private ScanFilter filter;
+
+    public ScanOptions() {
+        sampleStage = true;
+        sampleSize = DEFAULT_SAMPLE_SIZE;
+        fullHashStage = true;
+        parallelism = Runtime.getRuntime().availableProcessors();
+        hashAlgorithm = HashAlgorithm.XXHASH64;
+        ioMode = IoMode.CHANNEL;
+        traversal = Traversal.DIRECTORY_STREAM;
+        bufferSize = DEFAULT_BUFFER_SIZE;
+        mapThreshold = DEFAULT_MAP_THRESHOLD;
+        segmentThreshold = DEFAULT_SEGMENT_THRESHOLD;
+        segmentSize = DEFAULT_SEGMENT_SIZE;
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        spillDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+        runSize = DEFAULT_RUN_SIZE;
+        compareThreshold = DEFAULT_COMPARE_THRESHOLD;
+        verifyStage = false;
+        maxOpens = DEFAULT_MAX_OPENS;
+        maxReads = DEFAULT_MAX_READS;
+        collapseLinks = true;
+        deviceReads = 0;
+        storeReads = new HashMap<>();
+        timeBudget = null;
+        queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        batchSize = DEFAULT_BATCH_SIZE;
+        imageDistance = DEFAULT_IMAGE_DISTANCE;
+        imageBands = DEFAULT_IMAGE_BANDS;
+        archives = false;
+        filter = null;
+    }
+
+    public static ScanOptions defaults() {
+        return new ScanOptions();
+    }
+
+    public boolean isSampleStage() {
+        return sampleStage;
+    }
+
+    /**
+     * Enables or disables the head/tail sample stage that runs before the
+     * full checksum.
+     *
+     * @param sampleStage true to regroup same-size files by their sample
+     * @return this instance
+     */
+    public ScanOptions setSampleStage(boolean sampleStage) {
+        this.sampleStage = sampleStage;
+        return this;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param sampleSize the number of bytes read from each end of a file
+     * @return this instance
+     */
+    public ScanOptions setSampleSize(int sampleSize) {
+        if (sampleSize <= 0)
+            throw new IllegalArgumentException("Sample size must be positive");
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    public boolean isFullHashStage() {
+        return fullHashStage;
+    }
+
+    /**
+     * Enables or disables the full checksum stage. When it is disabled the
+     * files are grouped by their sample checksum alone, which is faster but
+     * can report files that only differ in the middle as duplicates. With
+     * the sample stage switched off as well no content is read, and the
+     * files are grouped by their size alone.
+     *
+     * @param fullHashStage true to checksum the whole content of the files
+     * @return this instance
+     */
+    public ScanOptions setFullHashStage(boolean fullHashStage) {
+        this.fullHashStage = fullHashStage;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads the multi-threaded scanners use for the
+     * traversal and for the checksum calculation each.
+     *
+     * @param parallelism the number of threads, defaults to the core count
+     * @return this instance
+     */
+    public ScanOptions setParallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @param hashAlgorithm the hash used for the full checksum stage
+     * @return this instance
+     */
+    public ScanOptions setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = Objects.requireNonNull(hashAlgorithm);
+        return this;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    /**
+     * @param ioMode how files are read for the full checksum stage
+     * @return this instance
+     */
+    public ScanOptions setIoMode(IoMode ioMode) {
+        this.ioMode = Objects.requireNonNull(ioMode);
+        return this;
+    }
+
+    public Traversal getTraversal() {
+        return traversal;
+    }
+
+    /**
+     * @param traversal how the walkers of the scanners list directories
+     * @return this instance
+     */
+    public ScanOptions setTraversal(Traversal traversal) {
+        this.traversal = Objects.requireNonNull(traversal);
+        return this;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize the size of the read buffer used in CHANNEL mode
+     * @return this instance
+     */
+    public ScanOptions setBufferSize(int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive");
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    /**
+     * @param mapThreshold the file size from which MMAP mode maps a file
+     *                     instead of reading it into a buffer
+     * @return this instance
+     */
+    public ScanOptions setMapThreshold(long mapThreshold) {
+        if (mapThreshold < 0)
+            throw new IllegalArgumentException("Map threshold must not be negative");
+        this.mapThreshold = mapThreshold;
+        return this;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    /**
+     * Sets the file size from which the full checksum is calculated in
+     * segments that are read and hashed in parallel, after which the digests
+     * of the segments are hashed into the digest of the file. The digest of a
+     * segmented file differs from the plain digest of the same content, but
+     * it is the same in every run with the same segment size.
+     *
+     * @param segmentThreshold the file size, Long.MAX_VALUE to never segment
+     * @return this instance
+     */
+    public ScanOptions setSegmentThreshold(long segmentThreshold) {
+        if (segmentThreshold <= 0)
+            throw new IllegalArgumentException("Segment threshold must be positive");
+        this.segmentThreshold = segmentThreshold;
+        return this;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param segmentSize the size of the segments large files are hashed in
+     * @return this instance
+     */
+    public ScanOptions setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive");
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the average size of the chunks the block level scan cuts files
+     * into. Smaller chunks find smaller shared regions but need a larger
+     * index.
+     *
+     * @param chunkSize a power of two of at least 64, defaults to 8 KiB
+     * @return this instance
+     */
+    public ScanOptions setChunkSize(int chunkSize) {
+        if (chunkSize < 64 || Integer.bitCount(chunkSize) != 1)
+            throw new IllegalArgumentException("Chunk size must be a power of two of at least 64");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory the directory the external sort scanner writes
+     *                       its sorted runs to, defaults to java.io.tmpdir
+     * @return this instance
+     */
+    public ScanOptions setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = Objects.requireNonNull(spillDirectory);
+        return this;
+    }
+
+    public int getRunSize() {
+        return runSize;
+    }
+
+    /**
+     * Sets the number of records the external sort scanner sorts on the
+     * heap before it writes them to disk as a run, which bounds the heap it
+     * uses. Fewer records mean more runs to merge.
+     *
+     * @param runSize the number of records, defaults to 1M
+     * @return this instance
+     */
+    public ScanOptions setRunSize(int runSize) {
+        if (runSize <= 0)
+            throw new IllegalArgumentException("Run size must be positive");
+        this.runSize = runSize;
+        return this;
+    }
+
+    public ChecksumCache getChecksumCache() {
+        return checksumCache;
+    }
+
+    /**
+     * Sets a cache to look checksums up in before reading a file, and to
+     * store newly calculated ones in.
+     *
+     * @param checksumCache the cache, or null to always read the files
+     * @return this instance
+     */
+    public ScanOptions setChecksumCache(ChecksumCache checksumCache) {
+        this.checksumCache = checksumCache;
+        return this;
+    }
+
+    public int getCompareThreshold() {
+        return compareThreshold;
+    }
+
+    /**
+     * Sets the largest group of candidates that is compared byte by byte
+     * instead of being hashed. Reading a small group in lock-step stops at
+     * the first difference, whereas hashing always reads every file to the
+     * end. It is not used when a checksum cache is set, because cached
+     * checksums cost no reads at all.
+     *
+     * @param compareThreshold the group size, 0 to always hash
+     * @return this instance
+     */
+    public ScanOptions setCompareThreshold(int compareThreshold) {
+        if (compareThreshold < 0)
+            throw new IllegalArgumentException("Compare threshold must not be negative");
+        this.compareThreshold = compareThreshold;
+        return this;
+    }
+
+    public boolean isVerifyStage() {
+        return verifyStage;
+    }
+
+    /**
+     * Enables or disables the byte by byte confirmation of the groups found
+     * by hashing, which rules out false duplicates from hash collisions.
+     *
+     * @param verifyStage true to compare the files of every hash group
+     * @return this instance
+     */
+    public ScanOptions setVerifyStage(boolean verifyStage) {
+        this.verifyStage = verifyStage;
+        return this;
+    }
+
+    public int getMaxOpens() {
+        return maxOpens;
+    }
+
+    /**
+     * Sets the number of directories the virtual thread scanner lists and
+     * stats at once. On file systems with a high latency per request, such
+     * as network shares, a large number keeps enough requests in flight.
+     *
+     * @param maxOpens the number of directories, defaults to 256
+     * @return this instance
+     */
+    public ScanOptions setMaxOpens(int maxOpens) {
+        if (maxOpens <= 0)
+            throw new IllegalArgumentException("Max opens must be positive");
+        this.maxOpens = maxOpens;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the number of files the threaded scanners queue for their
+     * checksum. Once the queue is full the walkers wait for the checksum
+     * threads to catch up, which bounds the memory of a scan whose
+     * traversal is faster than its hashing.
+     *
+     * @param queueCapacity the number of files
+     * @return this instance
+     */
+    public ScanOptions setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of files the threaded scanners hand over at once,
+     * from a walker to the queue and from the queue to a checksum thread,
+     * which then reads them one after the other.
+     *
+     * @param batchSize the number of files
+     * @return this instance
+     */
+    public ScanOptions setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getImageDistance() {
+        return imageDistance;
+    }
+
+    /**
+     * Sets how far apart the perceptual hashes of images may be for the
+     * image scan to take them as similar.
+     *
+     * @param imageDistance the number of differing bits out of 64, 0 for
+     *                      images that look the same at hash resolution
+     * @return this instance
+     */
+    public ScanOptions setImageDistance(int imageDistance) {
+        if (imageDistance < 0 || imageDistance > Long.SIZE)
+            throw new IllegalArgumentException("Image distance must be between 0 and 64");
+        this.imageDistance = imageDistance;
+        return this;
+    }
+
+    public int getImageBands() {
+        return imageBands;
+    }
+
+    /**
+     * Sets the number of bands the image index cuts the hashes into. More
+     * bands mean fewer candidates per lookup, but every band is probed with
+     * all values within image distance / bands bits.
+     *
+     * @param imageBands between 2 and 64
+     * @return this instance
+     */
+    public ScanOptions setImageBands(int imageBands) {
+        if (imageBands < 2 || imageBands > Long.SIZE)
+            throw new IllegalArgumentException("Image bands must be between 2 and 64");
+        this.imageBands = imageBands;
+        return this;
+    }
+
+    public boolean isArchives() {
+        return archives;
+    }
+
+    /**
+     * Makes the simple scanner read the files in zip, jar, war, ear and tar
+     * archives, see ArchiveReader, and group them with the files on disk
+     * and in other archives. The entries are streamed, not extracted, so
+     * they are hashed in full as they are read and the verify stage does
+     * not compare them byte by byte. The filter is not applied to them.
+     *
+     * @param archives true to look into archives
+     * @return this instance
+     */
+    public ScanOptions setArchives(boolean archives) {
+        this.archives = archives;
+        return this;
+    }
+
+    public int getMaxReads() {
+        return maxReads;
+    }
+
+    /**
+     * Sets the number of files the virtual thread scanner samples or hashes
+     * at once.
+     *
+     * @param maxReads the number of files, defaults to 32
+     * @return this instance
+     */
+    public ScanOptions setMaxReads(int maxReads) {
+        if (maxReads <= 0)
+            throw new IllegalArgumentException("Max reads must be positive");
+        this.maxReads = maxReads;
+        return this;
+    }
+
+    public boolean isCollapseLinks() {
+        return collapseLinks;
+    }
+
+    /**
+     * Enables or disables collapsing the paths that point to the same file,
+     * such as hard links. Collapsed paths are hashed once and reported as
+     * link groups instead of duplicates. Symbolic links are skipped when
+     * links are not collapsed.
+     *
+     * @param collapseLinks true to collapse paths by their file key
+     * @return this instance
+     */
+    public ScanOptions setCollapseLinks(boolean collapseLinks) {
+        this.collapseLinks = collapseLinks;
+        return this;
+    }
+
+    /**
+     * @param storeName the name of a FileStore, or null if it is not known
+     * @return the number of files of the store the threaded scanners read
+     *         at once
+     */
+    public int getDeviceReads(String storeName) {
+        var reads = storeName != null ? storeReads.get(storeName) : null;
+        if (reads != null)
+            return reads;
+        return deviceReads > 0 ? deviceReads : parallelism;
+    }
+
+    /**
+     * Sets the number of files the threaded scanners read at once from any
+     * one device. A spinning disk is fastest with a single reader, whereas
+     * an SSD needs several reads in flight.
+     *
+     * @param deviceReads the number of files, 0 to only be bound by the
+     *                    parallelism, which is the default
+     * @return this instance
+     */
+    public ScanOptions setDeviceReads(int deviceReads) {
+        if (deviceReads < 0)
+            throw new IllegalArgumentException("Device reads must not be negative");
+        this.deviceReads = deviceReads;
+        return this;
+    }
+
+    /**
+     * Sets the number of files the threaded scanners read at once from the
+     * given FileStore, overriding the limit for all devices.
+     *
+     * @param storeName   the name of the FileStore, e.g. /dev/sda1
+     * @param deviceReads the number of files
+     * @return this instance
+     */
+    public ScanOptions setDeviceReads(String storeName, int deviceReads) {
+        Objects.requireNonNull(storeName);
+        if (deviceReads <= 0)
+            throw new IllegalArgumentException("Device reads must be positive");
+        storeReads.put(storeName, deviceReads);
+        return this;
+    }
+
+    public Duration getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Limits the time the threaded scanners spend on a scan. With a budget
+     * the files of the size groups that may reclaim the most bytes are
+     * hashed first, and once the time is up the scan stops and hands over
+     * the duplicates it has confirmed so far.
+     *
+     * @param timeBudget the time a scan may take, null for no limit, which
+     *                   is the default
+     * @return this instance
+     */
+    public ScanOptions setTimeBudget(Duration timeBudget) {
+        if (timeBudget != null && (timeBudget.isNegative() || timeBudget.isZero()))
+            throw new IllegalArgumentException("Time budget must be positive");
+        this.timeBudget = timeBudget;
+        return this;
+    }
+
+    public ScanFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the rules the walkers prune directories and files with while
+     * they traverse.
+     *
+     * @param filter the filter, null to scan every non-empty file, which
+     *               is the default
+     * @return this instance
+     */
+    public ScanOptions setFilter(ScanFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return true if the sample stage only narrows the candidates down
+     *         before the full checksum is calculated
+     */
+    boolean isNarrowing() {
+        return sampleStage && fullHashStage;
+    }
+
+    /**
+     * @return true if a group of the given size should be compared byte by
+     *         byte instead of being hashed
+     */
+    boolean isCompared(int groupSize) {
+        return fullHashStage && checksumCache == null && groupSize <= compareThreshold;
+    }
+
+}
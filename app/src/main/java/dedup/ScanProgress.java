@@ -0,0 +1,125 @@
+package dedup;
+
+import java.time.Duration;
+
+/**
+ * A snapshot of how far a scan has got.
+ *
+ * The amount of work is only known once the traversal has ended, so until
+ * then the fraction done refers to the files found so far and there is no
+ * estimate of the remaining time.
+ */
+public final class ScanProgress {
+
+    private final ScanHandle.State state;
+
+    private final boolean traversed;
+
+    private final long directories;
+
+    private final long files;
+
+    private final long filesQueued;
+
+    private final long bytesQueued;
+
+    private final long filesDone;
+
+    private final long bytesDone;
+
+    private final Duration elapsed;
+
+    ScanProgress(ScanHandle.State state, ScanMetrics metrics) {
+        this.state = state;
+        // Read the flag first, so the counts are at least as recent
+        this.traversed = metrics.isTraversed();
+        this.directories = metrics.getDirectories();
+        this.files = metrics.getFiles();
+        this.filesDone = metrics.getFilesDone();
+        this.bytesDone = metrics.getBytesDone();
+        this.filesQueued = metrics.getFilesQueued();
+        this.bytesQueued = metrics.getBytesQueued();
+        this.elapsed = metrics.getScanTime();
+    }
+
+    public ScanHandle.State getState() {
+        return state;
+    }
+
+    /**
+     * @return true once every file has been found
+     */
+    public boolean isTraversed() {
+        return traversed;
+    }
+
+    public long getDirectories() {
+        return directories;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of files that share their size with another file
+     *         and were queued for their checksum
+     */
+    public long getFilesQueued() {
+        return filesQueued;
+    }
+
+    public long getBytesQueued() {
+        return bytesQueued;
+    }
+
+    /**
+     * @return the number of queued files that have been handled
+     */
+    public long getFilesDone() {
+        return filesDone;
+    }
+
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the share of the queued bytes that have been handled, between
+     *         0 and 1
+     */
+    public double getFraction() {
+        if (state == ScanHandle.State.COMPLETED)
+            return 1;
+        return bytesQueued > 0 ? Math.min(1, (double) bytesDone / bytesQueued) : 0;
+    }
+
+    /**
+     * Estimates the remaining time from the rate the bytes have been
+     * handled at so far
+     *
+     * @return the estimate, or null while the traversal is running or
+     *         nothing has been handled yet
+     */
+    public Duration getRemaining() {
+        if (state != ScanHandle.State.RUNNING)
+            return Duration.ZERO;
+        if (!traversed || bytesDone == 0)
+            return null;
+        double nanosPerByte = (double) elapsed.toNanos() / bytesDone;
+        return Duration.ofNanos((long) (nanosPerByte * Math.max(0, bytesQueued - bytesDone)));
+    }
+
+    @Override
+    public String toString() {
+        var remaining = getRemaining();
+        return String.format("%s: %d directories, %d files, hashed %d of %d files (%.1f%%) in %s, %s remaining",
+                state, directories, files, filesDone, filesQueued, getFraction() * 100, elapsed,
+                remaining != null ? remaining : "unknown time");
+    }
+
+}
@@ -0,0 +1,263 @@
+package dedup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import dedup.SignatureFile.Signature;
+
+/**
+ * This class merges the signature files of any number of shards into the
+ * duplicate groups of the whole scan.
+ *
+ * The signature files are ordered by size, so they are read side by side
+ * and only the files of one size are held at a time. Merging is done in
+ * rounds: plan() finds the files whose size collides with a file of
+ * another shard but whose checksums have not been calculated by their
+ * shard yet, and asks the shards for them through a request file next to
+ * their signature file, see ShardWorker.hash(). Like within a shard, a
+ * file is sampled first and only hashed once its sample collides as well,
+ * so a size that collides across shards can take two rounds. Once no
+ * checksums are missing, merge() hands over the groups.
+ */
+public class ShardMerger {
+
+    private final ScanOptions options;
+
+    public ShardMerger() {
+        this(ScanOptions.defaults());
+    }
+
+    public ShardMerger(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * Writes a request file for every shard that has files whose checksums
+     * are needed to complete the groups
+     *
+     * @param signatureFiles the signature files of all shards
+     * @return the number of files requested, 0 if the groups are final
+     */
+    public long plan(List<Path> signatureFiles) throws IOException {
+        var requests = new HashMap<Path, List<Request>>();
+        forEachSize(signatureFiles, group -> {
+            boolean sampled = isSampled(group);
+            for (var entry : missing(group)) {
+                requests.computeIfAbsent(entry.shard, k -> new ArrayList<>())
+                        .add(new Request(entry.signature.path, sampled));
+            }
+        });
+
+        long count = 0;
+        for (var e : requests.entrySet()) {
+            writeRequests(requestFileOf(e.getKey()), e.getValue());
+            count += e.getValue().size();
+        }
+        return count;
+    }
+
+    /**
+     * Hands every group of duplicates over to the consumer. Files whose
+     * checksums are missing, because they could not be read or plan() was
+     * not followed up, are left out.
+     *
+     * @param signatureFiles the signature files of all shards
+     * @param consumer       receives each collection of duplicates
+     */
+    public void merge(List<Path> signatureFiles, Consumer<Collection<Path>> consumer) throws IOException {
+        var verifier = new GroupVerifier(options);
+        forEachSize(signatureFiles, group -> {
+            var byDigest = new HashMap<Digest, Collection<Path>>();
+            for (var entry : group) {
+                var s = entry.signature;
+                if (s.digest != null)
+                    byDigest.computeIfAbsent(Digest.of(s.digest), k -> new ArrayList<>()).add(s.getPath());
+            }
+            for (var files : byDigest.values()) {
+                if (files.size() == 1)
+                    continue;
+                if (options.isVerifyStage()) {
+                    verifier.split(files).forEach(consumer);
+                } else {
+                    consumer.accept(files);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if every readable file of the size has been sampled
+     */
+    private static boolean isSampled(List<Entry> group) {
+        for (var entry : group) {
+            if (!entry.signature.unreadable && !entry.signature.hasSample)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the files of a size whose next checksum is needed to tell
+     *         whether they are duplicates but is not known yet: the sample
+     *         while not every file has one, the full checksum of the files
+     *         whose sample collides after that
+     */
+    private static List<Entry> missing(List<Entry> group) {
+        var missing = new ArrayList<Entry>();
+        group.removeIf(entry -> entry.signature.unreadable);
+        if (group.size() < 2)
+            return missing;
+
+        // Which files may be equal is only known once all of them have a
+        // sample
+        if (!isSampled(group)) {
+            for (var entry : group) {
+                if (!entry.signature.hasSample)
+                    missing.add(entry);
+            }
+            return missing;
+        }
+
+        var bySample = new HashMap<Long, List<Entry>>();
+        for (var entry : group) {
+            bySample.computeIfAbsent(entry.signature.sample, k -> new ArrayList<>()).add(entry);
+        }
+        for (var sameSample : bySample.values()) {
+            if (sameSample.size() == 1)
+                continue;
+            for (var entry : sameSample) {
+                if (entry.signature.digest == null)
+                    missing.add(entry);
+            }
+        }
+        return missing;
+    }
+
+    private interface SizeAction {
+
+        void accept(List<Entry> group) throws IOException;
+
+    }
+
+    /**
+     * Reads the signature files side by side and hands the files of every
+     * size that is found more than once to the action
+     */
+    private void forEachSize(List<Path> signatureFiles, SizeAction action) throws IOException {
+        var readers = new ArrayList<SignatureFile.Reader>();
+        var heads = new PriorityQueue<Entry>((a, b) -> SignatureFile.ORDER.compare(a.signature, b.signature));
+        try {
+            for (var file : signatureFiles) {
+                var reader = SignatureFile.open(file, options);
+                readers.add(reader);
+                advance(reader, heads);
+            }
+
+            var group = new ArrayList<Entry>();
+            while (!heads.isEmpty()) {
+                var entry = heads.poll();
+                if (!group.isEmpty() && group.get(0).signature.size != entry.signature.size) {
+                    if (group.size() > 1)
+                        action.accept(group);
+                    group = new ArrayList<>();
+                }
+                group.add(entry);
+                advance(entry.reader, heads);
+            }
+            if (group.size() > 1)
+                action.accept(group);
+        } finally {
+            for (var reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void advance(SignatureFile.Reader reader, PriorityQueue<Entry> heads) throws IOException {
+        var next = reader.next();
+        if (next != null)
+            heads.add(new Entry(next, reader));
+    }
+
+    /**
+     * @return the file the requests for the shard with the given signature
+     *         file are written to
+     */
+    static Path requestFileOf(Path signatureFile) {
+        return signatureFile.resolveSibling(signatureFile.getFileName() + ".request");
+    }
+
+    static void writeRequests(Path file, List<Request> requests) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(requests.size());
+            for (var request : requests) {
+                out.writeBoolean(request.digest);
+                PathLog.write(out, request.path);
+            }
+        }
+    }
+
+    static List<Request> readRequests(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            var requests = new ArrayList<Request>(count);
+            for (int i = 0; i < count; ++i) {
+                boolean digest = in.readBoolean();
+                requests.add(new Request(PathLog.read(in), digest));
+            }
+            return requests;
+        }
+    }
+
+    /**
+     * A file a shard is asked to calculate a checksum of
+     */
+    static final class Request {
+
+        final Path path;
+
+        /**
+         * Set for the full checksum, otherwise only the sample is asked for
+         */
+        final boolean digest;
+
+        Request(Path path, boolean digest) {
+            this.path = path;
+            this.digest = digest;
+        }
+
+    }
+
+    /**
+     * A record and the shard it was read from
+     */
+    private static class Entry {
+
+        final Signature signature;
+
+        final SignatureFile.Reader reader;
+
+        final Path shard;
+
+        Entry(Signature signature, SignatureFile.Reader reader) {
+            this.signature = signature;
+            this.reader = reader;
+            this.shard = reader.getFile();
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package dedup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The command line of a sharded scan. Every shard runs in a process of its
+ * own, possibly on other machines, and the merge step combines their
+ * signature files:
+ *
+ * <pre>
+ * ShardTool walk  &lt;signature file&gt; &lt;root&gt;...  walks the roots of a shard
+ * ShardTool merge &lt;signature file&gt;...         prints the duplicate groups, or
+ *                                             asks the shards for checksums
+ * ShardTool hash  &lt;signature file&gt;            calculates the checksums asked for
+ * ShardTool local &lt;work dir&gt; &lt;shards&gt; &lt;root&gt;... runs all of the above with
+ *                                             a process per shard
+ * </pre>
+ *
+ * When merge exits with REQUESTED, run hash for every shard and merge again.
+ * The samples are asked for before the full checksums, so that can take two
+ * rounds.
+ */
+public class ShardTool {
+
+    public static final int OK = 0;
+
+    public static final int USAGE = 1;
+
+    public static final int FAILED = 2;
+
+    /**
+     * The exit code of merge when the shards have been asked for checksums
+     */
+    public static final int REQUESTED = 3;
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    static int run(String[] args, PrintStream out) {
+        if (args.length < 2)
+            return usage();
+        var options = ScanOptions.defaults();
+        var rest = Arrays.asList(args).subList(1, args.length);
+        try {
+            switch (args[0]) {
+            case "walk":
+                if (rest.size() < 2)
+                    return usage();
+                int files = new ShardWorker(options).walk(toPaths(rest.subList(1, rest.size())), Path.of(rest.get(0)));
+                out.println(String.format("Wrote %d files to %s", files, rest.get(0)));
+                return OK;
+            case "hash":
+                int hashed = new ShardWorker(options).hash(Path.of(rest.get(0)));
+                out.println(String.format("Hashed %d files of %s", hashed, rest.get(0)));
+                return OK;
+            case "merge":
+                return merge(options, toPaths(rest), out);
+            case "local":
+                int shards = rest.size() < 3 ? 0 : parseCount(rest.get(1));
+                if (shards <= 0)
+                    return usage();
+                return local(Path.of(rest.get(0)), shards, rest.subList(2, rest.size()), out);
+            default:
+                return usage();
+            }
+        } catch (IOException | InterruptedException ex) {
+            System.err.println(ex.getMessage());
+            return FAILED;
+        }
+    }
+
+    private static int merge(ScanOptions options, List<Path> signatureFiles, PrintStream out) throws IOException {
+        var merger = new ShardMerger(options);
+        long requested = merger.plan(signatureFiles);
+        if (requested > 0) {
+            out.println(String.format("Requested the checksums of %d files, run hash on the shards and merge again",
+                    requested));
+            return REQUESTED;
+        }
+
+        merger.merge(signatureFiles, group -> {
+            synchronized (out) {
+                group.forEach(out::println);
+                out.println();
+            }
+        });
+        return OK;
+    }
+
+    /**
+     * Spreads the roots over the given number of shards and runs a process
+     * for every step of every shard on this machine
+     */
+    private static int local(Path workDir, int shards, List<String> roots, PrintStream out)
+            throws IOException, InterruptedException {
+        Files.createDirectories(workDir);
+        var signatureFiles = new ArrayList<Path>();
+        var shardRoots = new ArrayList<List<String>>();
+        for (int i = 0; i < Math.min(shards, roots.size()); ++i) {
+            signatureFiles.add(workDir.resolve("shard-" + i + ".sig"));
+            shardRoots.add(new ArrayList<>());
+        }
+        for (int i = 0; i < roots.size(); ++i) {
+            shardRoots.get(i % shardRoots.size()).add(roots.get(i));
+        }
+
+        var walkers = new ArrayList<Process>();
+        for (int i = 0; i < signatureFiles.size(); ++i) {
+            var command = new ArrayList<String>(List.of("walk", signatureFiles.get(i).toString()));
+            command.addAll(shardRoots.get(i));
+            walkers.add(start(command));
+        }
+        if (!awaitAll(walkers))
+            return FAILED;
+
+        // A round of samples may be followed by one of full checksums
+        while (new ShardMerger().plan(signatureFiles) > 0) {
+            var hashers = new ArrayList<Process>();
+            for (var file : signatureFiles) {
+                if (Files.exists(ShardMerger.requestFileOf(file)))
+                    hashers.add(start(List.of("hash", file.toString())));
+            }
+            if (!awaitAll(hashers))
+                return FAILED;
+        }
+        return merge(ScanOptions.defaults(), signatureFiles, out);
+    }
+
+    private static Process start(List<String> args) throws IOException {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardTool.class.getName());
+        command.addAll(args);
+        return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static boolean awaitAll(List<Process> processes) throws InterruptedException {
+        boolean ok = true;
+        for (var p : processes) {
+            ok &= p.waitFor() == OK;
+        }
+        return ok;
+    }
+
+    private static List<Path> toPaths(List<String> args) {
+        var paths = new ArrayList<Path>(args.size());
+        for (var arg : args) {
+            paths.add(Path.of(arg));
+        }
+        return paths;
+    }
+
+    /**
+     * @return the number, or 0 if it is not one
+     */
+    private static int parseCount(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static int usage() {
+        System.err.println("Usage: ShardTool walk <signature file> <root>...");
+        System.err.println("       ShardTool hash <signature file>");
+        System.err.println("       ShardTool merge <signature file>...");
+        System.err.println("       ShardTool local <work dir> <shards> <root>...");
+        return USAGE;
+    }
+
+}
@@ -0,0 +1,163 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import dedup.SignatureFile.Signature;
+
+/**
+ * This class does the work of one shard of a scan: it walks a subset of
+ * the roots and writes a signature file for the ShardMerger, and it later
+ * calculates the checksums the merger asks for.
+ *
+ * Files whose size collides within the shard are sampled, and hashed if
+ * their sample collides as well, while walking. A file whose size is unique
+ * in the shard is only read if the merger finds its size in another shard.
+ */
+public class ShardWorker {
+
+    private final ScanOptions options;
+
+    public ShardWorker() {
+        this(ScanOptions.defaults());
+    }
+
+    public ShardWorker(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * Walks the given roots and writes the signature file of the shard
+     *
+     * @return the number of files in the signature file
+     */
+    public int walk(Collection<Path> roots, Path signatureFile) throws IOException {
+        var signatures = new ArrayList<Signature>();
+        var links = options.isCollapseLinks() ? new LinkIndex(roots) : null;
+        for (var d : Set.copyOf(Objects.requireNonNull(roots))) {
+            try {
+                new SimpleFileWalker((file, size) -> {
+                    signatures.add(new Signature(size, file.toAbsolutePath()));
+                }, d).setLinkIndex(links).setAllFiles(true).setFilter(options.getFilter())
+                        .setTraversal(options.getTraversal()).walk();
+            } catch (IOException ex) {
+            }
+        }
+
+        // Sample the files whose size collides within the shard
+        var bySize = new HashMap<Long, List<Signature>>();
+        for (var s : signatures) {
+            bySize.computeIfAbsent(s.size, k -> new ArrayList<>()).add(s);
+        }
+        var toSample = new ArrayList<Signature>();
+        for (var group : bySize.values()) {
+            if (group.size() > 1)
+                toSample.addAll(group);
+        }
+        forEachParallel(toSample, this::sample);
+
+        // Hash the files whose sample collides as well
+        var bySample = new HashMap<Digest, List<Signature>>();
+        for (var s : toSample) {
+            if (s.hasSample)
+                bySample.computeIfAbsent(Digest.of(s.size, s.sample), k -> new ArrayList<>()).add(s);
+        }
+        var toHash = new ArrayList<Signature>();
+        for (var group : bySample.values()) {
+            if (group.size() > 1)
+                toHash.addAll(group);
+        }
+        forEachParallel(toHash, this::hash);
+
+        SignatureFile.write(signatureFile, options, signatures);
+        return signatures.size();
+    }
+
+    /**
+     * Calculates the checksums the merger requested for this shard and
+     * updates its signature file. A file is sampled in any case, and only
+     * hashed if its full checksum was asked for.
+     *
+     * @return the number of files that were requested
+     */
+    public int hash(Path signatureFile) throws IOException {
+        var requestFile = ShardMerger.requestFileOf(signatureFile);
+        if (!Files.exists(requestFile))
+            return 0;
+
+        var requested = new HashMap<Path, Boolean>();
+        for (var request : ShardMerger.readRequests(requestFile)) {
+            requested.merge(request.path, request.digest, Boolean::logicalOr);
+        }
+        var signatures = SignatureFile.readAll(signatureFile, options);
+        var toSample = new ArrayList<Signature>();
+        var toHash = new HashSet<Signature>();
+        for (var s : signatures) {
+            var digest = requested.get(s.path);
+            if (digest == null)
+                continue;
+            toSample.add(s);
+            if (digest)
+                toHash.add(s);
+        }
+        forEachParallel(toSample, s -> {
+            sample(s);
+            if (toHash.contains(s))
+                hash(s);
+        });
+
+        SignatureFile.write(signatureFile, options, signatures);
+        Files.delete(requestFile);
+        return toSample.size();
+    }
+
+    private void sample(Signature s) {
+        if (s.hasSample)
+            return;
+        try {
+            s.sample = FileComparator.sampleChecksumFor(s.getPath(), options.getSampleSize());
+            s.hasSample = true;
+        } catch (IOException ex) {
+            s.unreadable = true;
+        }
+    }
+
+    private void hash(Signature s) {
+        if (s.digest != null || !s.hasSample)
+            return;
+        try {
+            var cache = options.getChecksumCache();
+            var digest = cache != null ? cache.digestFor(s.getPath(), options)
+                    : FileComparator.digestFor(s.getPath(), options);
+            s.digest = digest.toBytes();
+        } catch (IOException ex) {
+            s.unreadable = true;
+        }
+    }
+
+    private void forEachParallel(List<Signature> signatures, Consumer<Signature> action) {
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        for (var s : signatures) {
+            threads.execute(() -> action.accept(s));
+        }
+        threads.shutdown();
+        try {
+            threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException iex) {
+            threads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
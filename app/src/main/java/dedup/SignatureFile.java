@@ -0,0 +1,215 @@
+package dedup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class writes and reads the signature files a shard of a scan leaves
+ * behind for the merge step: one record of size, sample checksum, digest
+ * and path for every file of the shard, ordered by size, so any number of
+ * them can be merged by streaming through them side by side.
+ *
+ * The header holds the settings the checksums were taken with, so files
+ * of shards scanned with different settings are not mixed up. The paths
+ * are stored like those of a PathLog, so names that are not valid strings
+ * and paths of any length survive.
+ */
+public class SignatureFile {
+
+    private static final int MAGIC = 0x44445347;
+
+    private static final int VERSION = 2;
+
+    private static final int HAS_SAMPLE = 1;
+
+    private static final int UNREADABLE = 2;
+
+    static final Comparator<Signature> ORDER = Comparator.<Signature>comparingLong(s -> s.size)
+            .thenComparing(s -> s.path);
+
+    private SignatureFile() {
+    }
+
+    /**
+     * A file of a shard and the checksums known for it
+     */
+    public static final class Signature {
+
+        final long size;
+
+        final Path path;
+
+        boolean hasSample;
+
+        long sample;
+
+        /**
+         * Set when the file could not be read, so its checksums are not
+         * asked for again
+         */
+        boolean unreadable;
+
+        /**
+         * The full digest, null if it has not been calculated
+         */
+        byte[] digest;
+
+        Signature(long size, Path path) {
+            this.size = size;
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean hasSample() {
+            return hasSample;
+        }
+
+        public boolean hasDigest() {
+            return digest != null;
+        }
+
+    }
+
+    /**
+     * @return the settings of the given options that checksums depend on
+     */
+    static String settingsOf(ScanOptions options) {
+        return String.join(":", options.getHashAlgorithm().name(), Integer.toString(options.getSampleSize()),
+                Long.toString(options.getSegmentThreshold()), Long.toString(options.getSegmentSize()));
+    }
+
+    /**
+     * Sorts the signatures and writes them to the given file, replacing it
+     * atomically
+     */
+    public static void write(Path file, ScanOptions options, List<Signature> signatures) throws IOException {
+        signatures.sort(ORDER);
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(settingsOf(options));
+            for (var s : signatures) {
+                out.writeLong(s.size);
+                out.writeByte((s.hasSample ? HAS_SAMPLE : 0) | (s.unreadable ? UNREADABLE : 0));
+                out.writeLong(s.sample);
+                if (s.digest == null) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(s.digest.length);
+                    out.write(s.digest);
+                }
+                PathLog.write(out, s.path);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a whole signature file
+     */
+    public static List<Signature> readAll(Path file, ScanOptions options) throws IOException {
+        var signatures = new ArrayList<Signature>();
+        try (var reader = open(file, options)) {
+            Signature s;
+            while ((s = reader.next()) != null) {
+                signatures.add(s);
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Opens a signature file for reading its records one by one
+     *
+     * @throws IOException if the file is not a signature file or was written
+     *                     with other settings
+     */
+    public static Reader open(Path file, ScanOptions options) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a signature file: " + file);
+            var settings = in.readUTF();
+            if (!settings.equals(settingsOf(options)))
+                throw new IOException("Signature file " + file + " was written with other settings: " + settings);
+            return new Reader(file, in);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the records of a signature file in order
+     */
+    public static class Reader implements Closeable {
+
+        private final Path file;
+
+        private final DataInputStream in;
+
+        Reader(Path file, DataInputStream in) {
+            this.file = file;
+            this.in = in;
+        }
+
+        /**
+         * @return the file being read
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the next record, or null at the end of the file
+         */
+        public Signature next() throws IOException {
+            long size;
+            try {
+                size = in.readLong();
+            } catch (EOFException ex) {
+                return null;
+            }
+            int flags = in.readUnsignedByte();
+            long sample = in.readLong();
+            byte[] digest = null;
+            int length = in.readUnsignedByte();
+            if (length > 0) {
+                digest = new byte[length];
+                in.readFully(digest);
+            }
+            var s = new Signature(size, PathLog.read(in));
+            s.hasSample = (flags & HAS_SAMPLE) != 0;
+            s.unreadable = (flags & UNREADABLE) != 0;
+            s.sample = sample;
+            s.digest = digest;
+            return s;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+}
@@ -6,18 +6,24 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjLongConsumer;
 
 /**
  * This class traverses a given directory and collects the files
- * that share file size with one or more other files
+ * that share file size with one or more other files.
+ *
+ * The tree is walked with Files.walkFileTree() or, by default, listed
+ * directory by directory with a DirectoryReader, which enters and leaves
+ * the directories in the same order, after the files of their parent.
  */
-public class SimpleFileWalker implements FileVisitor<Path> {
+public class SimpleFileWalker implements FileVisitor<Path>, DirectoryReader.EntryVisitor {
 
     /**
      * A structure to keep the mapping between the size of the file
@@ -25,14 +31,70 @@ public class SimpleFileWalker implements FileVisitor<Path> {
      * When another entry comes along, we retrieve the first value, add it
      * to the checksum list together with the incoming entry.
      * To prevent multiple adding of the first entry into the checksum list,
-     * if is marked as true i.e processed once added, see visitFile() method.
+     * the size is marked as known once added, see visitFile() method.
      */
-    private Map<Long, Entry<Path, Boolean>> sizeMap;
+    private SizeIndex sizeIndex;
 
     /**
-     * A collection of files that qualify for checksum calculation
+     * Holds the first Path of every size until another file of that size
+     * comes along
      */
-    private Collection<Path> checksumItems;
+    private PathStore paths;
+
+    /**
+     * Receives the files that qualify for checksum calculation, together
+     * with their size
+     */
+    private ObjLongConsumer<Path> checksumItems;
+
+    /**
+     * Collapses the paths of the same file, null to keep them all
+     */
+    private LinkIndex links;
+
+    /**
+     * Set to pass every file on instead of only those sharing their size
+     */
+    private boolean allFiles;
+
+    /**
+     * Receives the directories as they are entered and left, null if no
+     * one is interested
+     */
+    private DirectoryListener directoryListener;
+
+    /**
+     * Prunes directories and files, null to walk everything
+     */
+    private ScanFilter filter;
+
+    /**
+     * Tells the walker to stop before the next directory, null to walk the
+     * whole tree
+     */
+    private BooleanSupplier stop;
+
+    /**
+     * Records the directories and files visited, null to record nothing
+     */
+    private ScanMetrics metrics;
+
+    /**
+     * How the directories are listed
+     */
+    private Traversal traversal = Traversal.DIRECTORY_STREAM;
+
+    /**
+     * The accepted sub directories of the directory being listed by the
+     * DirectoryReader
+     */
+    private List<Path> subDirs;
+
+    /**
+     * The start time and number of files of every directory being walked,
+     * innermost last
+     */
+    private final Deque<long[]> openDirs = new ArrayDeque<>();
 
     /**
      * The base directory to start the traversing from
@@ -46,40 +108,167 @@ public class SimpleFileWalker implements FileVisitor<Path> {
      * @throws IOException
      */
     public SimpleFileWalker(Collection<Path> checksumItems, Path baseDir) throws IOException {
+        this(collectInto(checksumItems), baseDir);
+    }
+
+    /**
+     *
+     * @param checksumItems Receives items that qualify for checksum and their size
+     * @param baseDir       The folder to start the scanning from
+     * @throws IOException
+     */
+    public SimpleFileWalker(ObjLongConsumer<Path> checksumItems, Path baseDir) throws IOException {
         this.checksumItems = Objects.requireNonNull(checksumItems);
         this.baseDir = Objects.requireNonNull(baseDir);
-        this.sizeMap = new HashMap<>();
+        this.sizeIndex = new SizeIndex();
+        this.paths = new PathStore();
         if (!Files.isDirectory(baseDir))
             throw new IOException("Invalid argument, expected a directory parameter");
     }
 
-    public Collection<Path> walk() throws IOException {
-        Files.walkFileTree(baseDir, this);
-        return checksumItems;
+    /**
+     * @param links the index to collapse the paths of the same file with,
+     *              it may be shared between walkers
+     * @return this walker
+     */
+    public SimpleFileWalker setLinkIndex(LinkIndex links) {
+        this.links = links;
+        return this;
+    }
+
+    /**
+     * @param allFiles true to pass every non-empty file on, not only those
+     *                 that share their size with another file
+     * @return this walker
+     */
+    public SimpleFileWalker setAllFiles(boolean allFiles) {
+        this.allFiles = allFiles;
+        return this;
+    }
+
+    /**
+     * @param directoryListener receives every directory that is walked
+     *                          before and after its entries
+     * @return this walker
+     */
+    public SimpleFileWalker setDirectoryListener(DirectoryListener directoryListener) {
+        this.directoryListener = directoryListener;
+        return this;
+    }
+
+    /**
+     * @param filter the filter to prune directories and files with while
+     *               walking, null to walk everything
+     * @return this walker
+     */
+    public SimpleFileWalker setFilter(ScanFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @param stop checked before every directory, the walk ends as soon as
+     *             it returns true
+     * @return this walker
+     */
+    public SimpleFileWalker setStop(BooleanSupplier stop) {
+        this.stop = stop;
+        return this;
+    }
+
+    /**
+     * @param metrics the metrics to record the visited directories in
+     * @return this walker
+     */
+    public SimpleFileWalker setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param traversal how the directories are listed
+     * @return this walker
+     */
+    public SimpleFileWalker setTraversal(Traversal traversal) {
+        this.traversal = Objects.requireNonNull(traversal);
+        return this;
+    }
+
+    public SimpleFileWalker walk() throws IOException {
+        if (traversal == Traversal.FILE_TREE) {
+            Files.walkFileTree(baseDir, this);
+        } else {
+            readTree(baseDir);
+        }
+        return this;
+    }
+
+    /**
+     * Lists the directory, then walks its sub directories
+     *
+     * @return false if the walk has been stopped
+     */
+    private boolean readTree(Path dir) {
+        if (isStopped())
+            return false;
+        enter(dir);
+        var dirs = new ArrayList<Path>();
+        subDirs = dirs;
+        try {
+            DirectoryReader.read(dir, this, links != null);
+        } catch (IOException ex) {
+            // The sub directories listed until then are still walked, like
+            // walkFileTree() does
+        }
+        for (var sub : dirs) {
+            if (!readTree(sub))
+                return false;
+        }
+        exit(dir);
+        return true;
     }
 
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (isStopped())
+            return FileVisitResult.TERMINATE;
+        if (filter != null && !dir.equals(baseDir) && !filter.acceptDirectory(dir, attrs))
+            return FileVisitResult.SKIP_SUBTREE;
+        enter(dir);
         return FileVisitResult.CONTINUE;
     }
 
+    @Override
+    public void directory(Path dir, BasicFileAttributes attrs) {
+        if (filter == null || filter.acceptDirectory(dir, attrs))
+            subDirs.add(dir);
+    }
+
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        long size = attrs.size();
-        if (size > 0) {
-            if (!sizeMap.containsKey(size)) {
-                var v = new SimpleEntry<Path, Boolean>(file, false);
-                sizeMap.put(size, v);
-            } else {
-                var v = sizeMap.get(size);
-                if (!v.getValue()) {
-                    checksumItems.add(v.getKey());
-                    v.setValue(true);
+        file(file, attrs, -1);
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public void file(Path file, BasicFileAttributes attrs, int linkCount) {
+        if (metrics != null && !openDirs.isEmpty())
+            ++openDirs.getLast()[1];
+        long size = LinkIndex.sizeOf(file, attrs, links);
+        if (size > 0 && (filter == null || filter.acceptFile(file, size, attrs))
+                && (links == null || links.offer(file, attrs, linkCount))) {
+            if (allFiles) {
+                checksumItems.accept(file, size);
+                return;
+            }
+            int first = sizeIndex.offer(size, () -> paths.add(file));
+            if (first != SizeIndex.ABSENT) {
+                if (first != SizeIndex.KNOWN) {
+                    checksumItems.accept(paths.get(first), size);
                 }
-                checksumItems.add(file);
+                checksumItems.accept(file, size);
             }
         }
-        return FileVisitResult.CONTINUE;
     }
 
     @Override
@@ -89,7 +278,49 @@ public class SimpleFileWalker implements FileVisitor<Path> {
 
     @Override
     public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        exit(dir);
         return FileVisitResult.CONTINUE;
     }
 
+    private boolean isStopped() {
+        return stop != null && stop.getAsBoolean();
+    }
+
+    private void enter(Path dir) {
+        if (metrics != null)
+            openDirs.addLast(new long[] { System.nanoTime(), 0 });
+        if (directoryListener != null)
+            directoryListener.enter(dir);
+    }
+
+    private void exit(Path dir) {
+        if (metrics != null && !openDirs.isEmpty()) {
+            // The time includes the sub directories, unlike that of the
+            // threaded walker
+            var visit = openDirs.removeLast();
+            metrics.directoryVisited((int) visit[1], System.nanoTime() - visit[0]);
+        }
+        if (directoryListener != null)
+            directoryListener.exit(dir);
+    }
+
+    /**
+     * Follows the directories of a walk. The files of a directory are
+     * passed on between its enter() and exit(), and a directory is left
+     * after all of its sub directories, so the listener can build up a
+     * tree from the bottom.
+     */
+    public interface DirectoryListener {
+
+        void enter(Path dir);
+
+        void exit(Path dir);
+
+    }
+
+    private static ObjLongConsumer<Path> collectInto(Collection<Path> checksumItems) {
+        Objects.requireNonNull(checksumItems);
+        return (file, size) -> checksumItems.add(file);
+    }
+
 }
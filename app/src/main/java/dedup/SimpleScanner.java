@@ -5,45 +5,189 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 public class SimpleScanner implements DuplicateScanner {
 
+    private ScanOptions options;
+
+    private LinkIndex links;
+
+    public SimpleScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public SimpleScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
     @Override
     public Collection<Collection<Path>> scan(Collection<Path> dirs) {
+        var duplicates = new LinkedList<Collection<Path>>();
+        scan(dirs, duplicates::add);
+        return duplicates;
+    }
 
-        var files = new LinkedList<Path>();
-        getPotentialDuplicates(dirs, files);
+    @Override
+    public void scanWithSizes(Collection<Path> dirs, ObjLongConsumer<Collection<Path>> consumer) {
+        Objects.requireNonNull(consumer);
 
-        // For each bucket, calculate the checksums
-        var result = createResultMap();
-        var task = getFileChecksumTask(result);
-        files.forEach(task);
+        // Collect the same-size files by their size, and the files in
+        // archives by their size and digest. An archive or its entries can
+        // match files of any size, so then every file is collected.
+        var files = new HashMap<Long, Collection<Path>>();
+        var entries = options.isArchives() ? new HashMap<Long, Map<Digest, Collection<Path>>>() : null;
+        links = newLinkIndex(dirs);
+        for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
+            try {
+                new SimpleFileWalker((file, size) -> {
+                    files.computeIfAbsent(size, k -> createResultBucket()).add(file);
+                    if (entries != null && ArchiveReader.isArchive(file))
+                        readArchive(file, entries);
+                }, d).setLinkIndex(links).setAllFiles(entries != null).setFilter(options.getFilter())
+                        .setTraversal(options.getTraversal()).walk();
+            } catch (IOException ex) {
+            }
+        }
 
-        // Filter out buckets that have single files and return the rest
-        var duplicates = result.values();
-        duplicates.removeIf(l -> l.size() == 1);
-        return duplicates;
+        // Every size is complete now, so the duplicates of each size can be
+        // handed over as soon as they are found
+        for (var e : files.entrySet()) {
+            var sameSize = e.getValue();
+            var inArchives = entries != null ? entries.remove(e.getKey()) : null;
+            if (inArchives != null) {
+                findDuplicates(sameSize, inArchives, bySize(consumer, e.getKey()));
+                continue;
+            }
+            if (sameSize.size() < 2)
+                continue;
+
+            // Narrow the same-size files down by a sample of their content
+            Collection<Collection<Path>> groups = List.of(sameSize);
+            if (options.isNarrowing()) {
+                groups = groupBySample(sameSize);
+            }
+
+            for (var group : groups) {
+                findDuplicates(group, bySize(consumer, e.getKey()));
+            }
+        }
+
+        // The sizes only found in archives
+        if (entries != null) {
+            for (var e : entries.entrySet()) {
+                for (var bucket : e.getValue().values()) {
+                    if (bucket.size() > 1)
+                        consumer.accept(bucket, e.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a consumer that hands the groups over with the given size
+     */
+    private static Consumer<Collection<Path>> bySize(ObjLongConsumer<Collection<Path>> consumer, long size) {
+        return group -> consumer.accept(group, size);
+    }
+
+    @Override
+    public Collection<Collection<Path>> getLinkGroups() {
+        return links != null ? links.getLinkGroups() : List.of();
     }
 
     @Override
     public Collection<Path> getPotentialDuplicates(Collection<Path> dirs, Collection<Path> result) {
+        links = newLinkIndex(dirs);
         for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
             try {
-                new SimpleFileWalker(result, d).walk();
+                new SimpleFileWalker(result, d).setLinkIndex(links).setFilter(options.getFilter())
+                        .setTraversal(options.getTraversal()).walk();
             } catch (IOException ex) {
             }
         }
         return result;
     }
 
-    private Consumer<Path> getFileChecksumTask(Map<Long, Collection<Path>> resultSet) {
+    private LinkIndex newLinkIndex(Collection<Path> dirs) {
+        return options.isCollapseLinks() ? new LinkIndex(dirs) : null;
+    }
+
+    private Collection<Collection<Path>> groupBySample(Collection<Path> files) {
+        var cache = options.getChecksumCache();
+        var groups = new HashMap<Long, Collection<Path>>();
+        for (var file : files) {
+            try {
+                long sample = cache != null ? cache.sampleChecksumFor(file, options.getSampleSize())
+                        : FileComparator.sampleChecksumFor(file, options.getSampleSize());
+                groups.computeIfAbsent(sample, k -> createResultBucket()).add(file);
+            } catch (IOException ioe) {
+            }
+        }
+        var candidates = groups.values();
+        candidates.removeIf(l -> l.size() == 1);
+        return candidates;
+    }
+
+    private void findDuplicates(Collection<Path> group, Consumer<Collection<Path>> consumer) {
+        var verifier = new GroupVerifier(options);
+
+        // Small groups are cheaper to compare than to hash
+        if (options.isCompared(group.size())) {
+            verifier.split(group).forEach(consumer);
+            return;
+        }
+
+        // For each bucket, calculate the checksums
+        var result = createResultMap();
+        var task = getFileChecksumTask(result);
+        group.forEach(task);
+
+        // Filter out buckets that have single files and hand over the rest
+        for (var bucket : result.values()) {
+            if (bucket.size() == 1)
+                continue;
+            if (options.isVerifyStage()) {
+                verifier.split(bucket).forEach(consumer);
+            } else {
+                consumer.accept(bucket);
+            }
+        }
+    }
+
+    /**
+     * Hashes the files of a size that also occurs in archives into the
+     * digests of the archived files
+     */
+    private void findDuplicates(Collection<Path> files, Map<Digest, Collection<Path>> inArchives,
+            Consumer<Collection<Path>> consumer) {
+        var task = getFileChecksumTask(inArchives);
+        files.forEach(task);
+        for (var bucket : inArchives.values()) {
+            if (bucket.size() > 1)
+                consumer.accept(bucket);
+        }
+    }
+
+    private void readArchive(Path file, Map<Long, Map<Digest, Collection<Path>>> entries) {
+        try {
+            new ArchiveReader(options).read(file, (path, size, digest) -> {
+                entries.computeIfAbsent(size, k -> createResultMap()).computeIfAbsent(digest,
+                        k -> createResultBucket()).add(path);
+            });
+        } catch (IOException ex) {
+        }
+    }
+
+    private Consumer<Path> getFileChecksumTask(Map<Digest, Collection<Path>> resultSet) {
         return (file) -> {
             try {
-                long sum = FileComparator.checksumFor(file);
+                var sum = digestFor(file);
                 if (!resultSet.containsKey(sum)) {
                     resultSet.put(sum, createResultBucket());
                 }
@@ -53,7 +197,14 @@ public class SimpleScanner implements DuplicateScanner {
         };
     }
 
-    private Map<Long, Collection<Path>> createResultMap() {
+    private Digest digestFor(Path file) throws IOException {
+        var cache = options.getChecksumCache();
+        if (cache != null)
+            return cache.digestFor(file, options);
+        return FileComparator.digestFor(file, options);
+    }
+
+    private Map<Digest, Collection<Path>> createResultMap() {
         return new HashMap<>();
     }
 
@@ -0,0 +1,162 @@
+package dedup;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * This class maps file sizes to the id of the first file seen with that
+ * size, without boxing the sizes or allocating an entry per file.
+ *
+ * The sizes are kept in open-addressing tables of primitive arrays. The
+ * index is split into segments that are locked on their own, so walkers
+ * running on several threads rarely wait for each other.
+ */
+public class SizeIndex {
+
+    /**
+     * Returned by offer() when the size had not been seen before
+     */
+    public static final int ABSENT = -1;
+
+    /**
+     * Returned by offer() when the size had already collided before
+     */
+    public static final int KNOWN = -2;
+
+    private static final long EMPTY = -1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    /**
+     * Creates an index for use by a single thread
+     */
+    public SizeIndex() {
+        this(1);
+    }
+
+    /**
+     * @param concurrency the number of threads expected to use the index
+     */
+    public SizeIndex(int concurrency) {
+        int count = concurrency <= 1 ? 1 : Integer.highestOneBit(concurrency * 4 - 1) << 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Records a file of the given size.
+     * The first file of a size is stored with the id returned by newId.
+     * The second file of a size gets back the id of the first, and any
+     * later file gets KNOWN.
+     *
+     * @param size  the size of the file, not negative
+     * @param newId supplies the id of the file if it is the first one
+     * @return ABSENT, KNOWN or the id of the first file with that size
+     */
+    public int offer(long size, IntSupplier newId) {
+        if (size < 0)
+            throw new IllegalArgumentException("Size must not be negative");
+        long hash = mix(size);
+        var seg = segmentShift == 64 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+        return seg.offer(size, hash, newId);
+    }
+
+    /**
+     * @return the number of distinct sizes in the index
+     */
+    public int size() {
+        int n = 0;
+        for (var seg : segments) {
+            synchronized (seg) {
+                n += seg.count;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the approximate number of heap bytes held by the index
+     */
+    public long estimateBytes() {
+        long bytes = 16 + 16 + 4L * segments.length;
+        for (var seg : segments) {
+            synchronized (seg) {
+                bytes += 24 + 2 * 16 + (long) seg.keys.length * (Long.BYTES + Integer.BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static final class Segment {
+
+        long[] keys = newKeys(INITIAL_CAPACITY);
+
+        int[] values = new int[INITIAL_CAPACITY];
+
+        int count;
+
+        synchronized int offer(long key, long hash, IntSupplier newId) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    int old = values[slot];
+                    if (old == KNOWN)
+                        return KNOWN;
+                    values[slot] = KNOWN;
+                    return old;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            values[slot] = newId.getAsInt();
+            if (++count > keys.length * 3 / 4) {
+                grow();
+            }
+            return ABSENT;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldKeys[i] == EMPTY)
+                    continue;
+                int slot = (int) mix(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static long[] newKeys(int capacity) {
+            var keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Calculates the digest FileComparator.digestFor() would calculate for a
+ * file from content that is passed in as it is read, such as an entry of
+ * an archive that is only available as a stream.
+ *
+ * Whether a file is hashed whole or in segments depends on its size, so
+ * when the size is not known up front both are calculated and the one
+ * that matches the size in the end is used.
+ */
+final class StreamDigest {
+
+    private final ScanOptions options;
+
+    private final Hasher whole;
+
+    private final List<Digest> segments;
+
+    private Hasher segment;
+
+    private long segmentFill;
+
+    /**
+     * The first 2 samples, all that is needed of a file of up to that size
+     */
+    private final byte[] head;
+
+    /**
+     * The last sample in a ring
+     */
+    private final byte[] tail;
+
+    private long size;
+
+    /**
+     * @param options      the options of the scan
+     * @param expectedSize the size of the content if it is known, otherwise
+     *                     -1
+     */
+    StreamDigest(ScanOptions options, long expectedSize) {
+        this.options = options;
+        if (options.isFullHashStage()) {
+            boolean known = expectedSize >= 0;
+            boolean segmented = FileComparator.segmentSizeFor(expectedSize, options) > 0;
+            whole = !known || !segmented ? options.getHashAlgorithm().newHasher() : null;
+            segments = !known || segmented ? new ArrayList<>() : null;
+            segment = segments != null ? options.getHashAlgorithm().newHasher() : null;
+            head = null;
+            tail = null;
+        } else if (options.isSampleStage()) {
+            whole = null;
+            segments = null;
+            head = new byte[2 * options.getSampleSize()];
+            tail = new byte[options.getSampleSize()];
+        } else {
+            whole = null;
+            segments = null;
+            head = null;
+            tail = null;
+        }
+    }
+
+    void update(byte[] b, int off, int len) {
+        if (head != null) {
+            sample(b, off, len);
+        } else {
+            if (whole != null)
+                whole.update(ByteBuffer.wrap(b, off, len));
+            if (segments != null)
+                segment(b, off, len);
+        }
+        size += len;
+    }
+
+    private void sample(byte[] b, int off, int len) {
+        if (size < head.length) {
+            int n = (int) Math.min(len, head.length - size);
+            System.arraycopy(b, off, head, (int) size, n);
+        }
+        // Only the last bytes can end up in the tail
+        int skip = Math.max(0, len - tail.length);
+        for (int i = skip; i < len; ++i)
+            tail[(int) ((size + i) % tail.length)] = b[off + i];
+    }
+
+    private void segment(byte[] b, int off, int len) {
+        long segmentSize = options.getSegmentSize();
+        while (len > 0) {
+            int n = (int) Math.min(len, segmentSize - segmentFill);
+            segment.update(ByteBuffer.wrap(b, off, n));
+            segmentFill += n;
+            off += n;
+            len -= n;
+            if (segmentFill == segmentSize) {
+                segments.add(segment.digest());
+                segment = options.getHashAlgorithm().newHasher();
+                segmentFill = 0;
+            }
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    Digest digest() {
+        if (head != null)
+            return sampleDigest();
+        if (whole == null && segments == null)
+            return FileComparator.SIZE_ONLY;
+
+        // The size the entry claimed can be off, what was read counts
+        if (whole != null && (segments == null || FileComparator.segmentSizeFor(size, options) == 0))
+            return whole.digest();
+
+        if (segmentFill > 0)
+            segments.add(segment.digest());
+        var hasher = options.getHashAlgorithm().newHasher();
+        hasher.update(ByteBuffer.allocate(16).putLong(size).putLong(options.getSegmentSize()).flip());
+        for (var d : segments)
+            hasher.update(ByteBuffer.wrap(d.toBytes()));
+        return hasher.digest();
+    }
+
+    private Digest sampleDigest() {
+        var crc = new CRC32();
+        int sample = tail.length;
+        if (size <= head.length) {
+            crc.update(head, 0, (int) size);
+        } else {
+            crc.update(head, 0, sample);
+            int start = (int) (size % sample);
+            crc.update(tail, start, sample - start);
+            crc.update(tail, 0, start);
+        }
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(size).flip());
+        return Digest.of(crc.getValue());
+    }
+
+}
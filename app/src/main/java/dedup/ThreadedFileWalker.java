@@ -6,31 +6,62 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 
-public class ThreadedFileWalker implements FileVisitor<Path> {
+/**
+ * This class walks the files of a single directory. Sub directories are
+ * not descended into but collected, so the caller can schedule them as
+ * separate tasks.
+ */
+public class ThreadedFileWalker implements FileVisitor<Path>, DirectoryReader.EntryVisitor {
 
-    private Path baseDir;
+    private final Path baseDir;
 
-    private boolean isDone;
+    private final List<Path> subFolders;
 
-    private ThreadedScanner.Data data;
+    private int files;
+
+    /**
+     * The files waiting to be queued for their checksum
+     */
+    private final List<FileEntry> batch;
+
+    private final ThreadedScanner.Data data;
 
     public ThreadedFileWalker(ThreadedScanner.Data data, Path baseDir) {
-        isDone = false;
         this.data = Objects.requireNonNull(data);
         this.baseDir = Objects.requireNonNull(baseDir);
+        this.subFolders = new ArrayList<>();
+        this.batch = new ArrayList<>();
     }
 
-    public ThreadedFileWalker setDirectory(Path baseDir) {
-        if (isDone)
-            this.baseDir = Objects.requireNonNull(baseDir);
-        isDone = false;
-        return this;
+    /**
+     * @return the sub directories found during the walk
+     */
+    public Collection<Path> getSubFolders() {
+        return subFolders;
+    }
+
+    /**
+     * @return the number of files found during the walk
+     */
+    public int getFileCount() {
+        return files;
     }
 
     public ThreadedFileWalker walk() throws IOException {
-        Files.walkFileTree(baseDir, this);
+        try {
+            if (data.TRAVERSAL == Traversal.DIRECTORY_STREAM) {
+                DirectoryReader.read(baseDir, this, data.LINKS != null);
+            } else {
+                Files.walkFileTree(baseDir, this);
+            }
+        } finally {
+            flush();
+        }
         return this;
     }
 
@@ -39,17 +70,30 @@ public class ThreadedFileWalker implements FileVisitor<Path> {
         if (dir.equals(baseDir)) {
             return FileVisitResult.CONTINUE;
         }
-        data.PENDING_FOLDERS.add(dir);
+        directory(dir, attrs);
         return FileVisitResult.SKIP_SUBTREE;
     }
 
+    @Override
+    public void directory(Path dir, BasicFileAttributes attrs) {
+        if (data.FILTER == null || data.FILTER.acceptDirectory(dir, attrs))
+            subFolders.add(dir);
+    }
+
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        long size = attrs.size();
-        if (size > 0) {
+        file(file, attrs, -1);
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public void file(Path file, BasicFileAttributes attrs, int links) {
+        ++files;
+        long size = LinkIndex.sizeOf(file, attrs, data.LINKS);
+        if (size > 0 && (data.FILTER == null || data.FILTER.acceptFile(file, size, attrs))
+                && (data.LINKS == null || data.LINKS.offer(file, attrs, links))) {
             addFile(file, size);
         }
-        return FileVisitResult.CONTINUE;
     }
 
     @Override
@@ -59,25 +103,30 @@ public class ThreadedFileWalker implements FileVisitor<Path> {
 
     @Override
     public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-        isDone = true;
         return FileVisitResult.CONTINUE;
     }
 
     private void addFile(Path entry, long size) {
-        if (data.KNOWN_SIZES.contains(size)) {
-            data.CHECKSUM_ITEMS.add(entry);
-        } else {
-            // Only one thread should be moving things about
-            synchronized (ThreadedScanner.Data.SYNC) {
-                var old = data.SIZE_MAP.putIfAbsent(size, entry);
-                if (old != null) {
-                    data.CHECKSUM_ITEMS.add(entry);
-                    data.CHECKSUM_ITEMS.add(old);
-                    data.KNOWN_SIZES.add(size);
-                    data.SIZE_MAP.remove(size);
-                }
-            }
+        // The index locks the part of it the size falls in, so only one
+        // thread moves the first file of a size about
+        long start = System.nanoTime();
+        int first = data.SIZE_INDEX.offer(size, () -> data.PATHS.add(entry));
+        data.METRICS.record(ScanMetrics.Stage.INDEX, System.nanoTime() - start);
+        if (first == SizeIndex.ABSENT)
+            return;
+        batch.add(new FileEntry(entry, size));
+        if (first != SizeIndex.KNOWN) {
+            batch.add(new FileEntry(data.PATHS.get(first), size));
         }
+        if (batch.size() >= data.BATCH_SIZE)
+            flush();
+    }
+
+    private void flush() {
+        if (batch.isEmpty())
+            return;
+        data.addChecksumItems(batch);
+        batch.clear();
     }
 
 }
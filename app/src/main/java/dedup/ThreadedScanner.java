@@ -3,175 +3,609 @@ package dedup;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 /**
- * This class drives the whole logic in this project
+ * This class drives the whole logic in this project.
+ *
+ * Folders are traversed on a fork-join pool with one task per folder, so
+ * idle threads steal sub folders from busy ones. Files that share a size
+ * are handed over to a set of checksum threads through a ReadScheduler,
+ * which hands them out device by device and keeps count of the outstanding
+ * items, so the scan finishes as soon as the traversal has returned and the
+ * queue has drained.
+ *
+ * Once the traversal has returned, the duplicates of a size are handed
+ * over as soon as the last file of that size has been hashed.
+ *
+ * Every scan is recorded in the ScanMetrics of the scanner, and in JFR
+ * events while a recording is running.
+ *
+ * Every scan starts from fresh state, including the metrics, and a scanner
+ * runs one scan at a time.
+ *
+ * A scan can be started in the background with start(), which returns a
+ * ScanHandle to follow and cancel it with. Interrupting the thread of a
+ * blocking scan cancels it the same way. With a time budget the files of
+ * the groups that may reclaim the most bytes are hashed first, and the scan
+ * hands over what it has confirmed once the time is up.
  */
 public class ThreadedScanner implements DuplicateScanner {
 
+    /**
+     * Orders larger files first, which is the best guess at the bytes a
+     * group may reclaim while the number of files in it is not known yet
+     */
+    static final Comparator<FileEntry> BY_SIZE = Comparator.comparingLong(FileEntry::getSize).reversed()
+            .thenComparing(ReadScheduler.BY_PATH);
+
     private Data data;
 
-    private Queue<ThreadedFileWalker> workerPool = new LinkedBlockingDeque<>();
+    private ScanOptions options;
+
+    private final ScanMetrics metrics;
+
+    /**
+     * Set while a scan runs, to refuse another one
+     */
+    private final AtomicBoolean running;
+
+    private SampleFilter sampleFilter;
+
+    private GroupVerifier verifier;
+
+    private ObjLongConsumer<Collection<Path>> consumer;
+
+    /**
+     * Set once every file has been found, from then on a size whose files
+     * have all been hashed is final
+     */
+    private volatile boolean traversed;
+
+    /**
+     * Set once the scan has been cancelled or has run out of time, to stop
+     * the traversal
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The time the scan has to end by, in System.nanoTime(), if it has a
+     * time budget
+     */
+    private volatile long deadline;
+
+    private volatile ScanHandle handle;
 
     public ThreadedScanner() {
-        data = new Data();
-        data.PENDING_FOLDERS = new LinkedBlockingDeque<>();
-        data.CHECKSUM_ITEMS = new LinkedBlockingDeque<>();
-        data.SIZE_MAP = new ConcurrentHashMap<>();
-        data.HASH_MAP = new ConcurrentHashMap<>();
-        data.KNOWN_SIZES = new HashSet<>();
+        this(ScanOptions.defaults());
+    }
+
+    public ThreadedScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+        verifier = new GroupVerifier(options);
+        metrics = new ScanMetrics();
+        running = new AtomicBoolean();
+        data = Data.create(options, metrics);
     }
 
     @Override
     public Collection<Collection<Path>> scan(Collection<Path> dirs) {
+        var result = new ConcurrentLinkedDeque<Collection<Path>>();
+        scan(dirs, result::add);
+        return result;
+    }
 
-        // Filter out non-directory arguments
+    @Override
+    public void scanWithSizes(Collection<Path> dirs, ObjLongConsumer<Collection<Path>> consumer) {
+        Objects.requireNonNull(consumer);
+        begin(dirs);
+        var handle = new ScanHandle(metrics, null);
+        handle.started(Thread.currentThread());
+        run(consumer, handle);
+    }
+
+    /**
+     * Starts a scan on a thread of its own
+     *
+     * @param dirs a collection of the directories to scan for duplicates
+     * @return the handle of the scan, whose get() returns the duplicates
+     */
+    public ScanHandle start(Collection<Path> dirs) {
+        var result = new ConcurrentLinkedDeque<Collection<Path>>();
+        return start(dirs, result::add, result);
+    }
+
+    /**
+     * Starts a scan on a thread of its own, which hands the duplicates to
+     * the consumer like scan() does
+     *
+     * @param dirs     a collection of the directories to scan for duplicates
+     * @param consumer receives each collection of duplicates
+     * @return the handle of the scan
+     */
+    public ScanHandle start(Collection<Path> dirs, Consumer<Collection<Path>> consumer) {
+        return start(dirs, consumer, null);
+    }
+
+    private ScanHandle start(Collection<Path> dirs, Consumer<Collection<Path>> groups,
+            Collection<Collection<Path>> result) {
+        Objects.requireNonNull(groups);
+        ObjLongConsumer<Collection<Path>> consumer = (group, size) -> groups.accept(group);
+        begin(dirs);
+        var handle = new ScanHandle(metrics, result);
+        var thread = new Thread(() -> run(consumer, handle), "dedup-scan");
+        handle.started(thread);
+        thread.start();
+        return handle;
+    }
+
+    /**
+     * @return the handle of the current or last scan, or null if there has
+     *         been none
+     */
+    public ScanHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * Sets up the state of a new scan of the given folders, end() must be
+     * called once it is over
+     *
+     * @throws IllegalStateException if a scan of this scanner is running
+     */
+    protected void begin(Collection<Path> dirs) {
         Objects.requireNonNull(dirs);
+        if (!running.compareAndSet(false, true))
+            throw new IllegalStateException("A scan is already running");
+        data = Data.create(options, metrics);
+        sampleFilter = new SampleFilter(options).setMetrics(metrics);
+        stopped = false;
+        traversed = false;
+        deadline = 0;
+
+        // Filter out non-directory arguments
         for (var d : Set.copyOf(dirs)) {
             if (Files.isDirectory(d))
                 data.PENDING_FOLDERS.add(d);
         }
+        if (options.isCollapseLinks())
+            data.LINKS = new LinkIndex(dirs);
+    }
 
-        // Start threads to handle the traversal and checksum calc
-        var threads = Executors.newFixedThreadPool(2);
-        threads.execute(this::startTraversal);
-        threads.execute(this::startChecksum);
-        while (hasWork()) {
-        }
+    /**
+     * Marks the scan as over, so another one can begin
+     */
+    protected void end() {
+        running.set(false);
+    }
 
-        // Cleanup the worker threads
+    private void run(ObjLongConsumer<Collection<Path>> consumer, ScanHandle handle) {
+        this.consumer = consumer;
+        this.handle = handle;
+
+        data.METRICS.started();
+        var sampling = ScanEvents.startSampling(data.METRICS);
+        var budget = options.getTimeBudget();
+        if (budget != null)
+            deadline = System.nanoTime() + budget.toNanos();
+
+        // Start the checksum threads, then traverse on the calling thread
+        // and wait for the checksum queue to drain
+        var state = ScanHandle.State.COMPLETED;
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        for (int i = 0; i < options.getParallelism(); ++i) {
+            threads.execute(this::startChecksum);
+        }
         try {
-            threads.shutdown();
-            if (!threads.awaitTermination(3, TimeUnit.SECONDS)) {
-                threads.shutdownNow();
+            startTraversal();
+            if (Thread.interrupted() || handle.isCancelled())
+                throw new InterruptedException();
+            if (isStopped()) {
+                state = ScanHandle.State.EXPIRED;
+                return;
+            }
+            traversed = true;
+            data.METRICS.traversed();
+
+            // Now that the groups are complete, hash the files of those
+            // that may reclaim the most first
+            if (budget != null)
+                data.CHECKSUM_ITEMS.setPriority(byReclaimable());
+
+            // Hand over the sizes whose files were all hashed during the
+            // traversal, the checksum threads take care of the rest
+            for (var e : data.HASH_MAP.entrySet()) {
+                if (e.getValue().pending.get() == 0)
+                    publish(e.getKey(), e.getValue());
+            }
+            if (budget == null) {
+                data.CHECKSUM_ITEMS.awaitIdle();
+            } else if (!data.CHECKSUM_ITEMS.awaitIdle(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                state = ScanHandle.State.EXPIRED;
             }
         } catch (InterruptedException iex) {
+            state = ScanHandle.State.CANCELLED;
+            if (!handle.isCancelled())
+                Thread.currentThread().interrupt();
+        } finally {
+            if (state != ScanHandle.State.COMPLETED)
+                stop();
+            shutdown(threads);
+            if (state != ScanHandle.State.COMPLETED)
+                publishPartial();
+            data.METRICS.finished();
+            ScanEvents.stopSampling(sampling);
+            end();
+            handle.finished(state);
         }
-
-        // Return the results
-        var vals = data.HASH_MAP.values();
-        vals.removeIf(l -> l.size() == 1);
-        return vals;
     }
 
     @Override
     public Collection<Path> getPotentialDuplicates(Collection<Path> dirs, Collection<Path> result) {
-        Objects.requireNonNull(dirs);
-        for (var d : Set.copyOf(dirs)) {
-            if (Files.isDirectory(d))
-                data.PENDING_FOLDERS.add(d);
+        begin(dirs);
+        try {
+            // Nothing takes the files off the queue, so it must not block
+            data.CHECKSUM_ITEMS.setCapacity(Integer.MAX_VALUE);
+            data.METRICS.started();
+            startTraversal();
+            data.METRICS.traversed();
+            for (var entry : data.CHECKSUM_ITEMS) {
+                result.add(entry.getPath());
+            }
+            return result;
+        } finally {
+            end();
         }
+    }
 
-        // Start threads to handle the traversal
-        var threads = Executors.newFixedThreadPool(1);
-        threads.execute(this::startTraversal);
-        while (data.PENDING_FOLDERS.size() > 0) {
+    /**
+     * Walks every folder in the pending folders and returns once the whole
+     * tree below them has been traversed, or the scan has been stopped.
+     * If the calling thread is interrupted the scan is stopped and the
+     * interrupt status is kept.
+     */
+    protected void startTraversal() {
+        var roots = new ArrayList<FolderTask>();
+        for (var dir : data.PENDING_FOLDERS) {
+            roots.add(new FolderTask(dir));
         }
 
-        // Cleanup the worker threads
+        var pool = new ForkJoinPool(options.getParallelism());
         try {
-            threads.shutdown();
-            if (!threads.awaitTermination(3, TimeUnit.SECONDS)) {
-                threads.shutdownNow();
-            }
+            pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(roots);
+                }
+            }).get();
         } catch (InterruptedException iex) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        return data.CHECKSUM_ITEMS;
+    /**
+     * @return true if the scan has been cancelled or has run out of time,
+     *         in which case no more folders should be walked
+     */
+    protected boolean isStopped() {
+        if (stopped)
+            return true;
+        if (options.getTimeBudget() != null && System.nanoTime() - deadline >= 0)
+            stopped = true;
+        return stopped || Thread.currentThread().isInterrupted();
     }
 
-    protected void startTraversal() {
-        Consumer<Path> folderWalker = (dir) -> {
-            var worker = getWorker(dir);
-            try {
-                worker.walk();
-            } catch (IOException ioe) {
-            } finally {
-                addWorkerToPool(worker);
-                data.PENDING_FOLDERS.remove(dir);
-            }
-        };
+    /**
+     * Stops the traversal and drops the files that are still queued, along
+     * with any the walkers still add
+     */
+    private void stop() {
+        stopped = true;
+        for (var entry : data.CHECKSUM_ITEMS.close()) {
+            data.METRICS.fileDone(entry.getSize());
+        }
+    }
 
-        while (hasFolderTasks()) {
-            data.PENDING_FOLDERS.parallelStream().forEach(folderWalker);
+    /**
+     * Hands over the duplicates confirmed so far of the sizes whose files
+     * have not all been hashed. Files that were hashed to the same digest
+     * are duplicates, whether or not the other files of their size have
+     * been hashed as well.
+     */
+    private void publishPartial() {
+        traversed = true;
+        for (var e : data.HASH_MAP.entrySet()) {
+            publish(e.getKey(), e.getValue());
         }
     }
 
-    protected Collection<Path> getPendingFolderItems() {
-        return data.PENDING_FOLDERS;
+    /**
+     * Orders the files by the bytes their size group may reclaim, which is
+     * the size times the number of extra copies, once the groups are known
+     */
+    private Comparator<FileEntry> byReclaimable() {
+        return Comparator.comparingLong((FileEntry e) -> {
+            var group = data.HASH_MAP.get(e.getSize());
+            return group != null ? e.getSize() * (group.files.get() - 1) : 0;
+        }).reversed().thenComparing(BY_SIZE);
     }
 
-    protected Collection<Path> getChecksumItems() {
-        return data.CHECKSUM_ITEMS;
+    /**
+     * @return the progress of the current or last scan
+     */
+    public ScanProgress getProgress() {
+        var h = handle;
+        return new ScanProgress(h != null ? h.getState() : ScanHandle.State.RUNNING, metrics);
     }
 
-    private ThreadedFileWalker getWorker(Path baseDir) {
-        var worker = workerPool.poll();
-        if (worker != null) {
-            return worker.setDirectory(baseDir);
-        }
-        return new ThreadedFileWalker(data, baseDir);
+    /**
+     * @return the metrics of the current or last scan
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
     }
 
-    private void addWorkerToPool(ThreadedFileWalker worker) {
-        workerPool.add(worker);
+    @Override
+    public Collection<Collection<Path>> getLinkGroups() {
+        return data.LINKS != null ? data.LINKS.getLinkGroups() : List.of();
+    }
+
+    /**
+     * @return the index to collapse the paths of the same file with, or
+     *         null when links are not collapsed
+     */
+    protected LinkIndex getLinkIndex() {
+        return data.LINKS;
+    }
+
+    /**
+     * @return how the directories are listed
+     */
+    protected Traversal getTraversal() {
+        return data.TRAVERSAL;
+    }
+
+    /**
+     * @return the filter to prune the traversal with, or null
+     */
+    protected ScanFilter getFilter() {
+        return data.FILTER;
+    }
+
+    protected Collection<Path> getPendingFolderItems() {
+        return data.PENDING_FOLDERS;
+    }
+
+    /**
+     * Queues a file for checksum calculation
+     *
+     * @param file a file that shares its size with another file
+     * @param size the size of the file
+     */
+    protected void addChecksumItem(Path file, long size) {
+        data.addChecksumItem(file, size);
     }
 
     private void startChecksum() {
-        Consumer<Path> checksumCalc = (file) -> {
+        var batch = new ArrayList<FileEntry>(options.getBatchSize());
+        while (!Thread.currentThread().isInterrupted()) {
+            batch.clear();
+            try {
+                data.CHECKSUM_ITEMS.take(options.getBatchSize(), batch);
+                data.METRICS.observe(ScanMetrics.Queue.CHECKSUM_ITEMS, data.CHECKSUM_ITEMS.size() + batch.size());
+            } catch (InterruptedException iex) {
+                return;
+            }
+
             try {
-                var sum = FileComparator.checksumFor(file);
-                saveChecksumResult(sum, file);
-            } catch (IOException ex) {
+                for (var entry : batch) {
+                    try {
+                        // Once the threads are stopped the rest of the batch
+                        // is only marked as done
+                        if (Thread.currentThread().isInterrupted())
+                            continue;
+                        if (options.isNarrowing()) {
+                            sampleFilter.offer(entry, this::calculateChecksum);
+                        } else {
+                            calculateChecksum(entry);
+                        }
+                    } catch (IOException ex) {
+                    } finally {
+                        finish(entry.getSize());
+                    }
+                }
             } finally {
-                data.CHECKSUM_ITEMS.remove(file);
+                data.CHECKSUM_ITEMS.done(batch);
             }
-        };
+        }
+    }
 
-        while (hasWork()) {
-            data.CHECKSUM_ITEMS.parallelStream().forEach(checksumCalc);
+    private void calculateChecksum(FileEntry entry) {
+        var event = new ScanEvents.ChecksumEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            var sum = digestFor(entry.getPath());
+            saveChecksumResult(sum, entry);
+        } catch (IOException ex) {
+            return;
+        }
+        var stage = data.METRICS.digestCalculated(entry.getPath(), entry.getSize(), System.nanoTime() - start,
+                options);
+        event.end();
+        if (stage != null && event.shouldCommit()) {
+            event.path = entry.getPath().toString();
+            event.size = entry.getSize();
+            event.device = data.METRICS.deviceOf(entry.getPath());
+            event.stage = stage.name();
+            event.commit();
         }
     }
 
-    private boolean hasWork() {
-        return data.PENDING_FOLDERS.size() > 0 || data.CHECKSUM_ITEMS.size() > 0;
+    private Digest digestFor(Path file) throws IOException {
+        var cache = options.getChecksumCache();
+        if (cache != null)
+            return cache.digestFor(file, options);
+        return FileComparator.digestFor(file, options);
     }
 
-    private boolean hasFolderTasks() {
-        return data.PENDING_FOLDERS.size() > 0;
+    private void saveChecksumResult(Digest sum, FileEntry entry) {
+        var group = data.HASH_MAP.get(entry.getSize());
+        if (group == null)
+            return; // handed over by a scan that was stopped
+        var hashes = group.hashes;
+        if (!hashes.containsKey(sum)) {
+            hashes.putIfAbsent(sum, new ConcurrentLinkedDeque<>());
+        }
+        hashes.get(sum).add(entry.getPath());
     }
 
-    private void saveChecksumResult(Long sum, Path file) {
-        if (!data.HASH_MAP.containsKey(sum)) {
-            data.HASH_MAP.putIfAbsent(sum, new ConcurrentLinkedDeque<>());
+    /**
+     * Marks a file of the given size as handled and hands the duplicates of
+     * that size over if it was the last one
+     */
+    private void finish(long size) {
+        data.METRICS.fileDone(size);
+        var group = data.HASH_MAP.get(size);
+        if (group == null)
+            return;
+        if (group.pending.decrementAndGet() == 0 && traversed) {
+            publish(size, group);
         }
-        data.HASH_MAP.get(sum).add(file);
     }
 
-    static class Data {
+    private void publish(long size, SizeGroup group) {
+        // Only the thread that removes the size gets to hand it over
+        if (!data.HASH_MAP.remove(size, group))
+            return;
+
+        for (var files : group.hashes.values()) {
+            if (files.size() == 1)
+                continue;
+            if (options.isVerifyStage()) {
+                verifier.split(files).forEach(split -> consumer.accept(split, size));
+            } else {
+                consumer.accept(files, size);
+            }
+        }
+    }
+
+    /**
+     * Stops the checksum threads and waits for them, so none saves a
+     * checksum or hands over a group once the scan is over
+     */
+    private static void shutdown(ExecutorService threads) {
+        // The checksum threads block on the queue, so interrupt them. That
+        // also ends the reads in progress, as the channels they read from
+        // are closed by an interrupt.
+        threads.shutdownNow();
+        try {
+            threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Walks the files of a single folder and forks a task for each of its
+     * sub folders
+     */
+    @SuppressWarnings("serial")
+    private class FolderTask extends RecursiveAction {
+
+        private final Path dir;
+
+        FolderTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (isStopped()) {
+                data.PENDING_FOLDERS.remove(dir);
+                return;
+            }
+            var walker = new ThreadedFileWalker(data, dir);
+            var event = new ScanEvents.DirectoryEvent();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                walker.walk();
+            } catch (IOException ioe) {
+            } finally {
+                data.PENDING_FOLDERS.remove(dir);
+            }
+            data.METRICS.directoryVisited(walker.getFileCount(), System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = dir.toString();
+                event.files = walker.getFileCount();
+                event.commit();
+            }
+
+            List<FolderTask> tasks = new ArrayList<>();
+            for (var sub : walker.getSubFolders()) {
+                data.PENDING_FOLDERS.add(sub);
+                tasks.add(new FolderTask(sub));
+            }
+            if (!tasks.isEmpty())
+                data.METRICS.observe(ScanMetrics.Queue.PENDING_FOLDERS, data.PENDING_FOLDERS.size());
+            invokeAll(tasks);
+        }
+
+    }
+
+    /**
+     * The files of one size, grouped by their hash
+     */
+    static class SizeGroup {
 
         /**
-         * A common object to be used for synchronization between threads on some
-         * code sections that are thread critical.
+         * The number of files of this size that are queued or being hashed
          */
-        static Object SYNC = new Object();
+        final AtomicInteger pending = new AtomicInteger();
 
         /**
-         * Thread safe map to gather the mapping between a file hash and name
+         * The number of files of this size that were queued in all
          */
-        Map<Long, Collection<Path>> HASH_MAP;
+        final AtomicInteger files = new AtomicInteger();
+
+        final Map<Digest, Collection<Path>> hashes = new ConcurrentHashMap<>();
+
+    }
+
+    static class Data {
+
+        /**
+         * Thread safe map to gather the mapping between a file size, the
+         * file hashes and names
+         */
+        Map<Long, SizeGroup> HASH_MAP;
 
         /**
          * Thread safe Collection to hold folders that are yet to be parsed
@@ -179,25 +613,103 @@ public class ThreadedScanner implements DuplicateScanner {
         Collection<Path> PENDING_FOLDERS;
 
         /**
-         * Thread safe map to hold items waiting for their checksum to
-         * be calculated
+         * Thread safe queue to hold items waiting for their checksum to
+         * be calculated, by the device they are stored on
          */
-        Collection<Path> CHECKSUM_ITEMS;
+        ReadScheduler CHECKSUM_ITEMS;
 
         /**
-         * Thread safe map to map file sizes to a file name.
+         * Thread safe index to map file sizes to the id of a file name in PATHS.
          * As soon as another entry is about to be inserted, both the existing
-         * and new entries will be moved to the CHECKSUM_ITEMS queue and their
-         * key moved to a simpler Set for future lookups.
+         * and new entries will be moved to the CHECKSUM_ITEMS queue and the
+         * size marked as known, so later entries are forwarded straight to
+         * the CHECKSUM_ITEMS queue ready for checksum calculation.
+         */
+        SizeIndex SIZE_INDEX;
+
+        /**
+         * Thread safe store of the first file name of every size
+         */
+        PathStore PATHS;
+
+        /**
+         * Thread safe index to collapse the paths of the same file, null
+         * when links are not collapsed
+         */
+        LinkIndex LINKS;
+
+        /**
+         * The filter to prune directories and files with, null to walk
+         * everything
          */
-        Map<Long, Path> SIZE_MAP;
+        ScanFilter FILTER;
 
         /**
-         * Thread safe Set to hold all file sizes that have been encountered
-         * and safe memory by forwarding it straight to the CHECKSUM_ITEMS queue
-         * ready for checksum calculation.
+         * Thread safe counters of what the scan does
          */
-        Set<Long> KNOWN_SIZES;
+        ScanMetrics METRICS;
+
+        /**
+         * The number of files a walker collects before it queues them
+         */
+        int BATCH_SIZE;
+
+        /**
+         * How the walkers list their directory
+         */
+        Traversal TRAVERSAL;
+
+        /**
+         * @param options the options of the scan
+         * @param metrics the metrics to record the scan in
+         * @return empty scan state
+         */
+        static Data create(ScanOptions options, ScanMetrics metrics) {
+            var data = new Data();
+            data.PENDING_FOLDERS = ConcurrentHashMap.newKeySet();
+            data.CHECKSUM_ITEMS = new ReadScheduler(options, metrics.getDeviceLookup());
+            data.CHECKSUM_ITEMS.setCapacity(options.getQueueCapacity());
+            data.BATCH_SIZE = options.getBatchSize();
+            data.TRAVERSAL = options.getTraversal();
+            data.SIZE_INDEX = new SizeIndex(options.getParallelism());
+            data.PATHS = new PathStore();
+            data.HASH_MAP = new ConcurrentHashMap<>();
+            data.FILTER = options.getFilter();
+            if (options.getTimeBudget() != null)
+                data.CHECKSUM_ITEMS.setPriority(BY_SIZE);
+            data.METRICS = metrics;
+            data.METRICS.setGauge(ScanMetrics.Queue.PENDING_FOLDERS, () -> data.PENDING_FOLDERS.size());
+            data.METRICS.setGauge(ScanMetrics.Queue.CHECKSUM_ITEMS, () -> data.CHECKSUM_ITEMS.size());
+            return data;
+        }
+
+        /**
+         * Queues a file for checksum calculation and counts it as pending
+         * in the group of its size
+         */
+        void addChecksumItem(Path file, long size) {
+            var entry = new FileEntry(file, size);
+            count(entry);
+            CHECKSUM_ITEMS.put(entry);
+        }
+
+        /**
+         * Queues a batch of files for checksum calculation, waiting for
+         * room in the queue if it is full
+         */
+        void addChecksumItems(List<FileEntry> entries) {
+            for (var entry : entries) {
+                count(entry);
+            }
+            CHECKSUM_ITEMS.putAll(entries);
+        }
+
+        private void count(FileEntry entry) {
+            var group = HASH_MAP.computeIfAbsent(entry.getSize(), k -> new SizeGroup());
+            group.pending.incrementAndGet();
+            group.files.incrementAndGet();
+            METRICS.fileQueued(entry.getSize());
+        }
 
     }
 
@@ -0,0 +1,21 @@
+package dedup;
+
+/**
+ * The ways the walkers list the entries of a directory.
+ */
+public enum Traversal {
+
+    /**
+     * Files.walkFileTree(). The threaded walkers call it on every directory,
+     * skipping its sub trees, which reads the attributes of every directory
+     * again when it is walked itself.
+     */
+    FILE_TREE,
+
+    /**
+     * A DirectoryStream per directory, see DirectoryReader, that reads the
+     * attributes of every entry once and relative to the open directory
+     */
+    DIRECTORY_STREAM
+
+}
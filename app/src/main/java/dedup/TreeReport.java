@@ -0,0 +1,127 @@
+package dedup;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a tree scan: the directories that are copies of each other
+ * and the duplicate files that are not part of such a copy.
+ */
+public class TreeReport {
+
+    private final int directories;
+
+    private final int files;
+
+    private final List<DirectoryGroup> directoryGroups;
+
+    private final Collection<Collection<Path>> fileGroups;
+
+    private final int suppressedFiles;
+
+    TreeReport(int directories, int files, List<DirectoryGroup> directoryGroups,
+            Collection<Collection<Path>> fileGroups, int suppressedFiles) {
+        this.directories = directories;
+        this.files = files;
+        this.directoryGroups = Collections.unmodifiableList(directoryGroups);
+        this.fileGroups = Collections.unmodifiableCollection(fileGroups);
+        this.suppressedFiles = suppressedFiles;
+    }
+
+    public int getDirectories() {
+        return directories;
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the groups of identical directories, with the largest trees
+     *         first, none of them below a copy found in another group
+     */
+    public List<DirectoryGroup> getDirectoryGroups() {
+        return directoryGroups;
+    }
+
+    /**
+     * @return the groups of duplicate files, without the files below the
+     *         copies of a directory group
+     */
+    public Collection<Collection<Path>> getFileGroups() {
+        return fileGroups;
+    }
+
+    /**
+     * @return the number of duplicate files left out of the file groups as
+     *         they are below a copied directory
+     */
+    public int getSuppressedFiles() {
+        return suppressedFiles;
+    }
+
+    /**
+     * @return the bytes removing all copied directories would free
+     */
+    public long getReclaimableBytes() {
+        long sum = 0;
+        for (var g : directoryGroups)
+            sum += g.getBytes() * (g.getDirectories().size() - 1);
+        return sum;
+    }
+
+    public String getSummary() {
+        var fmt = "%,d directories, %,d files, %,d identical trees (%,d bytes reclaimable), %,d file groups, %,d files below copies";
+        return String.format(fmt, directories, files, directoryGroups.size(), getReclaimableBytes(),
+                fileGroups.size(), suppressedFiles);
+    }
+
+    /**
+     * Directories that hold the same files under the same names
+     */
+    public static final class DirectoryGroup {
+
+        private final List<Path> directories;
+
+        private final long bytes;
+
+        private final int files;
+
+        DirectoryGroup(List<Path> directories, long bytes, int files) {
+            this.directories = Collections.unmodifiableList(directories);
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        /**
+         * @return the directories in path order, the first one is taken
+         *         as the original
+         */
+        public List<Path> getDirectories() {
+            return directories;
+        }
+
+        /**
+         * @return the bytes in each of the directories
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of files in each of the directories
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d files, %,d bytes", directories, files, bytes);
+        }
+
+    }
+
+}
@@ -0,0 +1,343 @@
+package dedup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This scanner finds whole directory trees that are copies of each other.
+ * Every directory gets a Merkle hash over the names and content digests of
+ * its entries, computed bottom up as the walker leaves the directories, so
+ * two directories with the same hash hold the same files under the same
+ * names all the way down.
+ *
+ * Identical trees are reported as one group, and the files and trees
+ * below the copies are left out of the lower level groups, as removing
+ * the copy removes them too. The first path of a group, in path order, is
+ * the one that is considered the original.
+ *
+ * Empty files are not part of the walk, so they do not take part in the
+ * hashes either.
+ */
+public class TreeScanner {
+
+    private final ScanOptions options;
+
+    public TreeScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public TreeScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * Scans the trees below the given directories
+     *
+     * @param dirs a collection of the directories to scan
+     * @return the identical trees and the duplicate files outside of them
+     */
+    public TreeReport scan(Collection<Path> dirs) {
+        var tree = new Tree();
+        for (var d : Set.copyOf(Objects.requireNonNull(dirs))) {
+            try {
+                new SimpleFileWalker(tree::addFile, d).setAllFiles(true).setFilter(options.getFilter())
+                        .setTraversal(options.getTraversal()).setDirectoryListener(tree).walk();
+            } catch (IOException ex) {
+            }
+            tree.reset();
+        }
+
+        // Only trees of the same shape, i.e. the same names and sizes, can
+        // have the same content, so only their files need to be read
+        var shapes = new HashMap<Digest, List<Node>>();
+        for (var node : tree.nodes) {
+            if (node.bytes > 0)
+                shapes.computeIfAbsent(node.shape, k -> new ArrayList<>()).add(node);
+        }
+        var candidates = new HashSet<Node>();
+        for (var nodes : shapes.values()) {
+            if (nodes.size() > 1)
+                candidates.addAll(nodes);
+        }
+
+        var toHash = new ArrayList<Leaf>();
+        for (var leaves : tree.bySize.values()) {
+            if (leaves.size() > 1)
+                toHash.addAll(leaves);
+        }
+        hash(toHash);
+
+        // The nodes are in post order, so the children get their content
+        // hash before their parents
+        var contents = new HashMap<Digest, List<Node>>();
+        for (var node : tree.nodes) {
+            if (!candidates.contains(node))
+                continue;
+            node.content = node.hashContent();
+            if (node.content != null)
+                contents.computeIfAbsent(node.content, k -> new ArrayList<>()).add(node);
+        }
+
+        var groups = new ArrayList<List<Node>>();
+        for (var nodes : contents.values()) {
+            if (nodes.size() > 1)
+                groups.add(nodes);
+        }
+        // The largest trees claim their copies first, a parent that only
+        // holds one directory comes before it
+        groups.sort(Comparator.<List<Node>> comparingLong(g -> g.get(0).bytes).reversed()
+                .thenComparingInt(g -> g.stream().mapToInt(n -> n.path.getNameCount()).min().orElse(0)));
+
+        var copies = new HashSet<Path>();
+        var dirGroups = new ArrayList<TreeReport.DirectoryGroup>();
+        for (var nodes : groups) {
+            var kept = new ArrayList<Path>();
+            for (var node : nodes) {
+                if (!isBelow(node.path, copies))
+                    kept.add(node.path);
+            }
+            if (kept.size() < 2)
+                continue;
+            kept.sort(null);
+            copies.addAll(kept.subList(1, kept.size()));
+            var first = nodes.get(0);
+            dirGroups.add(new TreeReport.DirectoryGroup(kept, first.bytes, first.files));
+        }
+
+        var fileGroups = new ArrayList<Collection<Path>>();
+        int suppressed = 0;
+        for (var leaves : tree.bySize.values()) {
+            if (leaves.size() < 2)
+                continue;
+            var byDigest = new HashMap<Digest, List<Path>>();
+            for (var leaf : leaves) {
+                if (leaf.digest != null)
+                    byDigest.computeIfAbsent(leaf.digest, k -> new ArrayList<>()).add(leaf.path);
+            }
+            for (var paths : byDigest.values()) {
+                if (paths.size() < 2)
+                    continue;
+                var kept = new ArrayList<Path>(paths.size());
+                for (var p : paths) {
+                    if (!isBelow(p, copies))
+                        kept.add(p);
+                }
+                suppressed += paths.size() - kept.size();
+                if (kept.size() > 1)
+                    fileGroups.add(kept);
+            }
+        }
+        return new TreeReport(tree.nodes.size(), tree.files, dirGroups, fileGroups, suppressed);
+    }
+
+    private void hash(List<Leaf> leaves) {
+        var threads = Executors.newFixedThreadPool(options.getParallelism());
+        for (var leaf : leaves) {
+            threads.execute(() -> {
+                try {
+                    leaf.digest = FileComparator.digestFor(leaf.path, options);
+                } catch (IOException ex) {
+                }
+            });
+        }
+        threads.shutdown();
+        try {
+            threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException iex) {
+            threads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isBelow(Path path, Set<Path> dirs) {
+        for (var p = path.getParent(); p != null; p = p.getParent()) {
+            if (dirs.contains(p))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the directory nodes from the callbacks of the walker
+     */
+    private static class Tree implements SimpleFileWalker.DirectoryListener {
+
+        /**
+         * All directories in post order
+         */
+        final List<Node> nodes = new ArrayList<>();
+
+        final Map<Long, List<Leaf>> bySize = new HashMap<>();
+
+        final ArrayDeque<Node> open = new ArrayDeque<>();
+
+        int files;
+
+        void addFile(Path file, long size) {
+            var leaf = new Leaf(file, size);
+            bySize.computeIfAbsent(size, k -> new ArrayList<>()).add(leaf);
+            ++files;
+            var parent = open.peekLast();
+            if (parent != null)
+                parent.leaves.add(leaf);
+        }
+
+        @Override
+        public void enter(Path dir) {
+            var node = new Node(dir);
+            var parent = open.peekLast();
+            if (parent != null)
+                parent.children.add(node);
+            open.addLast(node);
+        }
+
+        @Override
+        public void exit(Path dir) {
+            var node = open.pollLast();
+            if (node == null)
+                return;
+            node.hashShape();
+            nodes.add(node);
+        }
+
+        /**
+         * Drops what is left open of a walk that ended early
+         */
+        void reset() {
+            open.clear();
+        }
+
+    }
+
+    private static class Leaf {
+
+        final Path path;
+
+        final long size;
+
+        volatile Digest digest;
+
+        Leaf(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        String name() {
+            return path.getFileName().toString();
+        }
+
+    }
+
+    private static class Node {
+
+        final Path path;
+
+        final List<Leaf> leaves = new ArrayList<>();
+
+        final List<Node> children = new ArrayList<>();
+
+        long bytes;
+
+        int files;
+
+        /**
+         * The hash of the names and sizes below this directory
+         */
+        Digest shape;
+
+        /**
+         * The hash of the names and content below this directory, null if
+         * it has not been computed or a file could not be read
+         */
+        Digest content;
+
+        Node(Path path) {
+            this.path = path;
+        }
+
+        String name() {
+            var name = path.getFileName();
+            return name != null ? name.toString() : path.toString();
+        }
+
+        void hashShape() {
+            leaves.sort(Comparator.comparing(Leaf::name));
+            children.sort(Comparator.comparing(Node::name));
+            var hasher = new Merkle();
+            for (var leaf : leaves) {
+                hasher.entry('F', leaf.name()).value(leaf.size);
+                bytes += leaf.size;
+                ++files;
+            }
+            for (var child : children) {
+                hasher.entry('D', child.name()).value(child.shape);
+                bytes += child.bytes;
+                files += child.files;
+            }
+            shape = hasher.digest();
+        }
+
+        Digest hashContent() {
+            var hasher = new Merkle();
+            for (var leaf : leaves) {
+                if (leaf.digest == null)
+                    return null;
+                hasher.entry('F', leaf.name()).value(leaf.digest);
+            }
+            for (var child : children) {
+                if (child.content == null)
+                    return null;
+                hasher.entry('D', child.name()).value(child.content);
+            }
+            return hasher.digest();
+        }
+
+    }
+
+    /**
+     * Hashes the entries of a directory, each one as its type, the length
+     * of its name, its name and its value
+     */
+    private static class Merkle {
+
+        private final Hasher hasher = new Murmur3Hash128();
+
+        Merkle entry(char type, String name) {
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            hasher.update(ByteBuffer.allocate(5 + bytes.length).put((byte) type).putInt(bytes.length).put(bytes)
+                    .flip());
+            return this;
+        }
+
+        Merkle value(long value) {
+            hasher.update(ByteBuffer.allocate(8).putLong(value).flip());
+            return this;
+        }
+
+        Merkle value(Digest digest) {
+            var bytes = digest.toBytes();
+            hasher.update(ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).flip());
+            return this;
+        }
+
+        Digest digest() {
+            return hasher.digest();
+        }
+
+    }
+
+}
@@ -0,0 +1,458 @@
+package dedup;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * This scanner runs one lightweight task per directory and one per file
+ * that needs a checksum, on virtual threads where the runtime has them.
+ *
+ * The number of tasks is not bounded by a thread pool, instead two
+ * semaphores cap the number of directories being listed and the number of
+ * files being read at once. That keeps many metadata requests in flight on
+ * file systems with a high latency per request, while the disks are not
+ * flooded with reads.
+ *
+ * On runtimes without virtual threads the tasks run on a cached pool of
+ * platform threads, which the semaphores keep small.
+ */
+public class VirtualThreadScanner implements DuplicateScanner {
+
+    private static final Method VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    private final ScanOptions options;
+
+    private SampleFilter sampleFilter;
+
+    private final GroupVerifier verifier;
+
+    private final Semaphore opens;
+
+    private final Semaphore reads;
+
+    private SizeIndex sizeIndex;
+
+    private PathStore paths;
+
+    private LinkIndex links;
+
+    private final ScanFilter filter;
+
+    /**
+     * The files of every size that has more than one file, grouped by hash
+     */
+    private Map<Long, ThreadedScanner.SizeGroup> sizeGroups;
+
+    /**
+     * The number of directory tasks that are submitted but not yet done
+     */
+    private final TaskCounter directories;
+
+    /**
+     * The number of tasks of any kind that are submitted but not yet done
+     */
+    private final TaskCounter tasks;
+
+    private final ScanMetrics metrics;
+
+    /**
+     * Set while a scan is running, the state of a scan is built anew for
+     * every scan
+     */
+    private final AtomicBoolean running;
+
+    private ExecutorService executor;
+
+    private ObjLongConsumer<Path> checksumItems;
+
+    private ObjLongConsumer<Collection<Path>> consumer;
+
+    /**
+     * Set once every file has been found, from then on a size whose files
+     * have all been hashed is final
+     */
+    private volatile boolean traversed;
+
+    public VirtualThreadScanner() {
+        this(ScanOptions.defaults());
+    }
+
+    public VirtualThreadScanner(ScanOptions options) {
+        this.options = Objects.requireNonNull(options);
+        verifier = new GroupVerifier(options);
+        opens = new Semaphore(options.getMaxOpens());
+        reads = new Semaphore(options.getMaxReads());
+        filter = options.getFilter();
+        directories = new TaskCounter();
+        tasks = new TaskCounter();
+        metrics = new ScanMetrics();
+        metrics.setGauge(ScanMetrics.Queue.PENDING_FOLDERS, directories::get);
+        metrics.setGauge(ScanMetrics.Queue.CHECKSUM_ITEMS, () -> tasks.get() - directories.get());
+        running = new AtomicBoolean();
+    }
+
+    /**
+     * @return the metrics of the current or last scan
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if the tasks run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    @Override
+    public Collection<Collection<Path>> scan(Collection<Path> dirs) {
+        var result = new ConcurrentLinkedDeque<Collection<Path>>();
+        scan(dirs, result::add);
+        return result;
+    }
+
+    @Override
+    public void scanWithSizes(Collection<Path> dirs, ObjLongConsumer<Collection<Path>> consumer) {
+        Objects.requireNonNull(consumer);
+        begin(dirs);
+        this.consumer = consumer;
+        checksumItems = this::submitChecksum;
+
+        var sampling = ScanEvents.startSampling(metrics);
+        try {
+            traverse(dirs);
+            traversed = true;
+            metrics.traversed();
+
+            // Hand over the sizes whose files were all hashed during the
+            // traversal, the checksum tasks take care of the rest
+            for (var e : sizeGroups.entrySet()) {
+                if (e.getValue().pending.get() == 0)
+                    publish(e.getKey(), e.getValue());
+            }
+            tasks.awaitIdle();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ScanEvents.stopSampling(sampling);
+            end();
+        }
+    }
+
+    @Override
+    public Collection<Path> getPotentialDuplicates(Collection<Path> dirs, Collection<Path> result) {
+        begin(dirs);
+        checksumItems = (file, size) -> result.add(file);
+        try {
+            traverse(dirs);
+            metrics.traversed();
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            end();
+        }
+        return result;
+    }
+
+    /**
+     * Sets up the state of a new scan, end() must be called when it is over
+     *
+     * @throws IllegalStateException if a scan of this scanner is running
+     */
+    private void begin(Collection<Path> dirs) {
+        Objects.requireNonNull(dirs);
+        if (!running.compareAndSet(false, true))
+            throw new IllegalStateException("A scan is already running");
+        sampleFilter = new SampleFilter(options).setMetrics(metrics);
+        sizeIndex = new SizeIndex(options.getParallelism());
+        paths = new PathStore();
+        sizeGroups = new ConcurrentHashMap<>();
+        links = options.isCollapseLinks() ? new LinkIndex(dirs) : null;
+        traversed = false;
+        executor = newExecutor();
+        metrics.started();
+    }
+
+    /**
+     * Stops the tasks of the scan and marks it as over
+     */
+    private void end() {
+        executor.shutdownNow();
+        metrics.finished();
+        running.set(false);
+    }
+
+    @Override
+    public Collection<Collection<Path>> getLinkGroups() {
+        return links != null ? links.getLinkGroups() : List.of();
+    }
+
+    /**
+     * Submits a task for every directory and waits for the whole tree below
+     * them to be traversed
+     */
+    private void traverse(Collection<Path> dirs) throws InterruptedException {
+        for (var d : Set.copyOf(dirs)) {
+            if (Files.isDirectory(d))
+                submitDirectory(d);
+        }
+        directories.awaitIdle();
+    }
+
+    private void visitDirectory(Path dir) throws InterruptedException {
+        var subFolders = new ArrayList<Path>();
+        var event = new ScanEvents.DirectoryEvent();
+        opens.acquire();
+        event.begin();
+        long start = System.nanoTime();
+        int[] files = new int[1];
+        try {
+            DirectoryReader.read(dir, new DirectoryReader.EntryVisitor() {
+
+                @Override
+                public void directory(Path sub, BasicFileAttributes attrs) {
+                    if (filter == null || filter.acceptDirectory(sub, attrs))
+                        subFolders.add(sub);
+                }
+
+                @Override
+                public void file(Path file, BasicFileAttributes attrs, int linkCount) {
+                    ++files[0];
+                    addFile(file, attrs, linkCount);
+                }
+
+            }, links != null);
+        } catch (IOException ex) {
+        } finally {
+            opens.release();
+        }
+        metrics.directoryVisited(files[0], System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = dir.toString();
+            event.files = files[0];
+            event.commit();
+        }
+        if (!subFolders.isEmpty())
+            metrics.observe(ScanMetrics.Queue.PENDING_FOLDERS, directories.get() + subFolders.size());
+
+        // Submit the sub folders once the permit is released, so a deep
+        // tree cannot hold every permit while waiting for more
+        for (var sub : subFolders) {
+            submitDirectory(sub);
+        }
+    }
+
+    private void addFile(Path file, BasicFileAttributes attrs, int linkCount) {
+        long size = LinkIndex.sizeOf(file, attrs, links);
+        if (size <= 0 || (filter != null && !filter.acceptFile(file, size, attrs)))
+            return;
+        if (links != null && !links.offer(file, attrs, linkCount))
+            return;
+        long start = System.nanoTime();
+        int first = sizeIndex.offer(size, () -> paths.add(file));
+        metrics.record(ScanMetrics.Stage.INDEX, System.nanoTime() - start);
+        if (first == SizeIndex.ABSENT)
+            return;
+        if (first != SizeIndex.KNOWN) {
+            checksumItems.accept(paths.get(first), size);
+        }
+        checksumItems.accept(file, size);
+    }
+
+    private void submitChecksum(Path file, long size) {
+        var group = sizeGroups.computeIfAbsent(size, k -> new ThreadedScanner.SizeGroup());
+        group.pending.incrementAndGet();
+        group.files.incrementAndGet();
+        metrics.fileQueued(size);
+        var entry = new FileEntry(file, size);
+        metrics.observe(ScanMetrics.Queue.CHECKSUM_ITEMS, tasks.get() - directories.get() + 1);
+        submit(tasks, () -> {
+            try {
+                reads.acquire();
+                try {
+                    if (options.isNarrowing()) {
+                        sampleFilter.offer(entry, this::calculateChecksum);
+                    } else {
+                        calculateChecksum(entry);
+                    }
+                } catch (IOException ex) {
+                } finally {
+                    reads.release();
+                }
+            } finally {
+                finish(size);
+            }
+        });
+    }
+
+    private void calculateChecksum(FileEntry entry) {
+        var event = new ScanEvents.ChecksumEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            var cache = options.getChecksumCache();
+            var sum = cache != null ? cache.digestFor(entry.getPath(), options)
+                    : FileComparator.digestFor(entry.getPath(), options);
+            var hashes = sizeGroups.get(entry.getSize()).hashes;
+            hashes.computeIfAbsent(sum, k -> new ConcurrentLinkedDeque<>()).add(entry.getPath());
+        } catch (IOException ex) {
+            return;
+        }
+        var stage = metrics.digestCalculated(entry.getPath(), entry.getSize(), System.nanoTime() - start,
+                options);
+        event.end();
+        if (stage != null && event.shouldCommit()) {
+            event.path = entry.getPath().toString();
+            event.size = entry.getSize();
+            event.device = metrics.deviceOf(entry.getPath());
+            event.stage = stage.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Marks a file of the given size as handled and hands the duplicates of
+     * that size over if it was the last one
+     */
+    private void finish(long size) {
+        metrics.fileDone(size);
+        var group = sizeGroups.get(size);
+        if (group.pending.decrementAndGet() == 0 && traversed) {
+            publish(size, group);
+        }
+    }
+
+    private void publish(long size, ThreadedScanner.SizeGroup group) {
+        // Only the task that removes the size gets to hand it over
+        if (!sizeGroups.remove(size, group))
+            return;
+
+        for (var files : group.hashes.values()) {
+            if (files.size() == 1)
+                continue;
+            if (options.isVerifyStage()) {
+                verifier.split(files).forEach(split -> consumer.accept(split, size));
+            } else {
+                consumer.accept(files, size);
+            }
+        }
+    }
+
+    private void submitDirectory(Path dir) {
+        directories.increment();
+        try {
+            submit(tasks, () -> {
+                try {
+                    visitDirectory(dir);
+                } finally {
+                    directories.done();
+                }
+            });
+        } catch (RuntimeException ex) {
+            directories.done();
+            throw ex;
+        }
+    }
+
+    private void submit(TaskCounter counter, Task task) {
+        counter.increment();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    counter.done();
+                }
+            });
+        } catch (RuntimeException ex) {
+            counter.done();
+            throw ex;
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+            }
+        }
+        // Platform threads are too heavy to park one per task on the
+        // semaphores, so they are bounded by the permits instead
+        return Executors.newFixedThreadPool(options.getMaxOpens() + options.getMaxReads());
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor(), which only
+     * exists on runtimes with virtual threads
+     */
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Counts submitted tasks and lets a thread wait until all are done
+     */
+    private static class TaskCounter {
+
+        private final AtomicLong outstanding = new AtomicLong();
+
+        void increment() {
+            outstanding.incrementAndGet();
+        }
+
+        void done() {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        long get() {
+            return outstanding.get();
+        }
+
+        synchronized void awaitIdle() throws InterruptedException {
+            while (outstanding.get() > 0) {
+                wait();
+            }
+        }
+
+    }
+
+    /**
+     * A task that may block on a semaphore
+     */
+    private interface Task {
+
+        void run() throws InterruptedException;
+
+    }
+
+}
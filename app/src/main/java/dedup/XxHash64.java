@@ -0,0 +1,114 @@
+package dedup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A streaming implementation of the 64-bit xxHash with a seed of 0.
+ * The digest is the hash value in big-endian order, which is how the
+ * reference implementation prints it.
+ */
+class XxHash64 implements Hasher {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE = 32;
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+
+    private long total;
+
+    /**
+     * Holds the bytes of an incomplete stripe between calls to update()
+     */
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void update(ByteBuffer data) {
+        var in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        total += in.remaining();
+
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && in.hasRemaining()) {
+                pending.put(in.get());
+            }
+            if (pending.hasRemaining()) {
+                data.position(data.limit());
+                return;
+            }
+            pending.flip();
+            stripe(pending);
+            pending.clear();
+        }
+
+        while (in.remaining() >= STRIPE) {
+            stripe(in);
+        }
+        pending.put(in);
+        data.position(data.limit());
+    }
+
+    @Override
+    public Digest digest() {
+        long h;
+        if (total >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += total;
+
+        // The state is left as it is, so more can be hashed afterwards
+        var rest = pending.duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+        while (rest.remaining() >= 8) {
+            h ^= round(0, rest.getLong());
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (rest.remaining() >= 4) {
+            h ^= (rest.getInt() & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+        }
+        while (rest.hasRemaining()) {
+            h ^= (rest.get() & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return Digest.of(h);
+    }
+
+    private void stripe(ByteBuffer in) {
+        v1 = round(v1, in.getLong());
+        v2 = round(v2, in.getLong());
+        v3 = round(v3, in.getLong());
+        v4 = round(v4, in.getLong());
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+
+}
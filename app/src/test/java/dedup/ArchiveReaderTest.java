@@ -0,0 +1,145 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+    }
+
+    static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(out)) {
+            for (var e : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(e.getKey()));
+                zip.write(e.getValue());
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static void tarEntry(OutputStream out, String name, byte[] content) throws IOException {
+        var header = new byte[512];
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, 0, bytes.length);
+        var size = String.format("%011o", content.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = '0';
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    Map<Path, Digest> read(Path archive, ScanOptions options) throws IOException {
+        var entries = new HashMap<Path, Digest>();
+        new ArchiveReader(options).read(archive, (path, size, digest) -> entries.put(path, digest));
+        return entries;
+    }
+
+    @Test
+    public void shouldDigestEntriesLikeFiles() throws Exception {
+        var content = ChunkerTest.randomBytes(1, 1000);
+        var file = Files.write(dataDir.resolve("file.bin"), content);
+        var archive = Files.write(dataDir.resolve("a.zip"), zip(Map.of("dir/file.bin", content)));
+
+        for (var options : new ScanOptions[] { new ScanOptions(), new ScanOptions().setFullHashStage(false),
+                new ScanOptions().setFullHashStage(false).setSampleSize(300),
+                new ScanOptions().setSegmentThreshold(1).setSegmentSize(300) }) {
+            var entries = read(archive, options);
+            assertEquals(Map.of(Path.of(archive + "!/dir/file.bin"), FileComparator.digestFor(file, options)),
+                    entries);
+        }
+    }
+
+    @Test
+    public void shouldReadNestedArchives() throws Exception {
+        var inner = zip(Map.of("c.txt", "nested content".getBytes()));
+        var archive = Files.write(dataDir.resolve("outer.zip"), zip(Map.of("lib/inner.jar", inner)));
+
+        var entries = read(archive, new ScanOptions());
+
+        assertEquals(Set.of(Path.of(archive + "!/lib/inner.jar"), Path.of(archive + "!/lib/inner.jar!/c.txt")),
+                entries.keySet());
+        var jar = Files.write(dataDir.resolve("inner.jar"), inner);
+        assertEquals(FileComparator.digestFor(jar, new ScanOptions()),
+                entries.get(Path.of(archive + "!/lib/inner.jar")));
+    }
+
+    @Test
+    public void shouldReadGzippedTar() throws Exception {
+        var archive = dataDir.resolve("backup.tar.gz");
+        try (var out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            tarEntry(out, "a.txt", "first".getBytes());
+            tarEntry(out, "b/c.txt", ChunkerTest.randomBytes(2, 700));
+            out.write(new byte[1024]);
+        }
+        var file = Files.write(dataDir.resolve("c.txt"), ChunkerTest.randomBytes(2, 700));
+
+        var entries = read(archive, new ScanOptions());
+
+        assertEquals(2, entries.size());
+        assertEquals(FileComparator.digestFor(file, new ScanOptions()), entries.get(Path.of(archive + "!/b/c.txt")));
+    }
+
+    @Test
+    public void shouldGroupArchivedFilesWithFiles() throws Exception {
+        var content = ChunkerTest.randomBytes(3, 2000);
+        Files.write(dataDir.resolve("file.bin"), content);
+        Files.write(dataDir.resolve("a.zip"), zip(Map.of("x/file.bin", content, "y/other.bin", "only in a".getBytes())));
+        Files.write(dataDir.resolve("b.jar"), zip(Map.of("other.bin", "only in a".getBytes())));
+
+        var res = new SimpleScanner(new ScanOptions().setArchives(true)).scan(Set.of(dataDir));
+
+        var groups = new HashSet<Set<Path>>();
+        res.forEach(g -> groups.add(new HashSet<>(g)));
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains(Set.of(dataDir.resolve("file.bin"), Path.of(dataDir + "/a.zip!/x/file.bin"))));
+        assertTrue(groups.contains(Set.of(Path.of(dataDir + "/a.zip!/y/other.bin"),
+                Path.of(dataDir + "/b.jar!/other.bin"))));
+
+        // Archives stay closed by default
+        assertEquals(0, new SimpleScanner().scan(Set.of(dataDir)).size());
+    }
+
+    @Test
+    public void shouldReportTheSizeOfArchivedDuplicates() throws Exception {
+        var content = ChunkerTest.randomBytes(4, 3000);
+        Files.write(dataDir.resolve("a.zip"), zip(Map.of("one.bin", content)));
+        Files.write(dataDir.resolve("b.zip"), zip(Map.of("two.bin", content)));
+
+        // The entries are not on disk, so only the scanner knows their size
+        var report = new DuplicateReport();
+        new SimpleScanner(new ScanOptions().setArchives(true)).scanWithSizes(Set.of(dataDir), report::add);
+        assertEquals(1, report.getGroups());
+        assertEquals(content.length, report.getReclaimable());
+    }
+
+}
@@ -0,0 +1,109 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChecksumCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    Path cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+        cacheFile = folder.getRoot().toPath().resolve("checksums.cache");
+        Files.writeString(dataDir.resolve("a.txt"), "same content");
+        Files.writeString(dataDir.resolve("b.txt"), "same content");
+        Files.writeString(dataDir.resolve("c.txt"), "diff content");
+    }
+
+    @Test
+    public void shouldHitOnRescan() throws Exception {
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            var res = new SimpleScanner(new ScanOptions().setChecksumCache(cache)).scan(Set.of(dataDir));
+            assertEquals(1, res.size());
+            assertEquals(0, cache.getHits());
+        }
+
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            var res = new ThreadedScanner(new ScanOptions().setChecksumCache(cache)).scan(Set.of(dataDir));
+            assertEquals(1, res.size());
+            assertEquals(0, cache.getMisses());
+            assertTrue(cache.getHits() > 0);
+        }
+    }
+
+    @Test
+    public void shouldInvalidateChangedFiles() throws Exception {
+        var options = new ScanOptions();
+        var file = dataDir.resolve("a.txt");
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            cache.digestFor(file, options);
+        }
+
+        Files.writeString(file, "other content");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            assertEquals(FileComparator.digestFor(file, options), cache.digestFor(file, options));
+            assertEquals(1, cache.getInvalidated());
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldKeepSegmentSizeOfDigest() throws Exception {
+        var options = new ScanOptions().setSegmentThreshold(1).setSegmentSize(4);
+        var file = dataDir.resolve("a.txt");
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            cache.digestFor(file, options);
+        }
+
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            assertEquals(FileComparator.digestFor(file, options), cache.digestFor(file, options));
+            assertEquals(1, cache.getHits());
+            options.setSegmentSize(8);
+            assertEquals(FileComparator.digestFor(file, options), cache.digestFor(file, options));
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldDropDeletedFilesOnCompaction() throws Exception {
+        var options = new ScanOptions();
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            for (var name : new String[] { "a.txt", "b.txt", "c.txt" }) {
+                cache.digestFor(dataDir.resolve(name), options);
+                cache.digestFor(dataDir.resolve(name), options.setHashAlgorithm(HashAlgorithm.SHA256));
+                options.setHashAlgorithm(HashAlgorithm.XXHASH64);
+            }
+        }
+        long before = Files.size(cacheFile);
+
+        Files.delete(dataDir.resolve("c.txt"));
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            cache.compact();
+            assertEquals(2, cache.size());
+        }
+        assertTrue(Files.size(cacheFile) < before);
+
+        try (var cache = ChecksumCache.open(cacheFile)) {
+            cache.digestFor(dataDir.resolve("a.txt"), options.setHashAlgorithm(HashAlgorithm.SHA256));
+            assertEquals(1, cache.getHits());
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChunkScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        var out = new ByteArrayOutputStream();
+        for (var part : parts)
+            out.writeBytes(part);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldFindSharedRegions() throws Exception {
+        var shared = ChunkerTest.randomBytes(10, 512 * 1024);
+        Files.write(dataDir.resolve("a.img"), concat(ChunkerTest.randomBytes(11, 300 * 1024), shared));
+        Files.write(dataDir.resolve("b.img"), concat(ChunkerTest.randomBytes(12, 1000), shared,
+                ChunkerTest.randomBytes(13, 100 * 1024)));
+        Files.write(dataDir.resolve("c.img"), ChunkerTest.randomBytes(14, 200 * 1024));
+
+        var report = new ChunkScanner(new ScanOptions().setChunkSize(4096)).scan(Set.of(dataDir));
+        assertEquals(3, report.getFiles());
+        assertEquals((300 + 512 + 512 + 100 + 200) * 1024 + 1000, report.getTotalBytes());
+
+        // Most of the shared region is found, only the chunks at its edges
+        // differ
+        assertTrue(report.getReclaimableBytes() > 480 * 1024);
+        assertTrue(report.getReclaimableBytes() <= 512 * 1024);
+        assertEquals(1, report.getSharing().size());
+        assertEquals(report.getReclaimableBytes(), report.getSharing().get(0).getBytes());
+    }
+
+    @Test
+    public void shouldReclaimWholeCopies() throws Exception {
+        var data = ChunkerTest.randomBytes(20, 64 * 1024);
+        Files.write(dataDir.resolve("a.bin"), data);
+        Files.write(dataDir.resolve("b.bin"), data);
+
+        var report = new ChunkScanner().scan(Set.of(dataDir));
+        assertEquals(data.length, report.getReclaimableBytes());
+        assertEquals(data.length, report.getUniqueBytes());
+    }
+
+    @Test
+    public void shouldAttributeChunksToTheFirstPath() throws Exception {
+        var data = ChunkerTest.randomBytes(30, 64 * 1024);
+        for (var name : new String[] { "c.bin", "a.bin", "d.bin", "b.bin" })
+            Files.write(dataDir.resolve(name), data);
+
+        for (int i = 0; i < 5; ++i) {
+            var report = new ChunkScanner(new ScanOptions().setParallelism(4)).scan(Set.of(dataDir));
+            assertEquals(3, report.getSharing().size());
+            for (var sharing : report.getSharing()) {
+                assertEquals(dataDir.resolve("a.bin"), sharing.getFirst());
+                assertEquals(data.length, sharing.getBytes());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChunkerTest {
+
+    static byte[] randomBytes(long seed, int length) {
+        var bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    static List<Digest> chunk(Chunker chunker, byte[] data, List<Integer> lengths) throws Exception {
+        var digests = new ArrayList<Digest>();
+        var ch = Channels.newChannel(new ByteArrayInputStream(data));
+        chunker.chunk(ch, (digest, length) -> {
+            digests.add(digest);
+            lengths.add(length);
+        });
+        return digests;
+    }
+
+    @Test
+    public void shouldCoverTheWholeInputWithinBounds() throws Exception {
+        var chunker = new Chunker(1024, HashAlgorithm.XXHASH64);
+        var lengths = new ArrayList<Integer>();
+        chunk(chunker, randomBytes(1, 1 << 20), lengths);
+
+        long total = 0;
+        for (int i = 0; i < lengths.size(); ++i) {
+            total += lengths.get(i);
+            if (i < lengths.size() - 1) {
+                assertTrue(lengths.get(i) >= 256);
+                assertTrue(lengths.get(i) <= 4096);
+            }
+        }
+        assertEquals(1 << 20, total);
+        // On random data the chunks average out close to the requested size
+        assertTrue(lengths.size() > 400 && lengths.size() < 2000);
+    }
+
+    @Test
+    public void shouldFindSameChunksAfterAnInsertion() throws Exception {
+        var chunker = new Chunker(1024, HashAlgorithm.XXHASH64);
+        var data = randomBytes(2, 256 * 1024);
+        var shifted = new byte[data.length + 7];
+        System.arraycopy(randomBytes(3, 7), 0, shifted, 0, 7);
+        System.arraycopy(data, 0, shifted, 7, data.length);
+
+        var original = chunk(chunker, data, new ArrayList<>());
+        var moved = new HashSet<>(chunk(chunker, shifted, new ArrayList<>()));
+        int found = 0;
+        for (var digest : original) {
+            if (moved.contains(digest))
+                ++found;
+        }
+        // Only the chunks around the insertion change
+        assertTrue(found >= original.size() - 2);
+    }
+
+}
@@ -0,0 +1,33 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeviceLookupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldLookUpEveryDeviceOnce() throws Exception {
+        var dir = folder.newFolder("data").toPath();
+        var a = Files.writeString(dir.resolve("a"), "a");
+        var b = Files.writeString(Files.createDirectory(dir.resolve("sub")).resolve("b"), "b");
+
+        var lookup = new DeviceLookup();
+        var store = lookup.storeOf(a);
+        assertNotNull(store);
+        assertSame(store, lookup.storeOf(b));
+        assertEquals(Files.getFileStore(a).name(), lookup.nameOf(b));
+        assertNull(lookup.storeOf(dir.resolve("missing")));
+    }
+
+}
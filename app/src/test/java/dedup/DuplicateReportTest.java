@@ -0,0 +1,116 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class DuplicateReportTest {
+
+    static List<Path> group(String... paths) {
+        var group = new ArrayList<Path>();
+        for (var p : paths)
+            group.add(Path.of(p));
+        return group;
+    }
+
+    @Test
+    public void shouldKeepTheGroupsThatWasteTheMost() {
+        var report = new DuplicateReport(2, 10);
+        report.add(group("/a/1", "/b/1"), 100);
+        report.add(group("/a/2", "/b/2", "/c/2"), 100);
+        report.add(group("/a/3", "/b/3"), 1000);
+        report.add(group("/a/4", "/b/4"), 10);
+
+        assertEquals(4, report.getGroups());
+        assertEquals(9, report.getFiles());
+        assertEquals(100 + 200 + 1000 + 10, report.getReclaimable());
+        var top = report.getTop();
+        assertEquals(2, top.size());
+        assertEquals(1000, top.get(0).getReclaimable());
+        assertEquals(200, top.get(1).getReclaimable());
+        assertEquals(group("/a/2", "/b/2", "/c/2"), top.get(1).getPaths());
+    }
+
+    @Test
+    public void shouldSumUpBySizeAndDirectory() {
+        var report = new DuplicateReport();
+        report.add(group("/b/x", "/a/x"), 100);
+        report.add(group("/a/y", "/b/y", "/c/y"), 120);
+        report.add(group("/a/z", "/c/z"), 5000);
+
+        var buckets = report.getSizeHistogram();
+        assertEquals(2, buckets.size());
+        assertEquals(64, buckets.get(0).getMinSize());
+        assertEquals(2, buckets.get(0).getGroups());
+        assertEquals(5, buckets.get(0).getFiles());
+        assertEquals(340, buckets.get(0).getReclaimable());
+        assertEquals(4096, buckets.get(1).getMinSize());
+
+        // The first path of a group is the one that stays
+        var dirs = report.getDirectories(10);
+        assertEquals(Path.of("/c"), dirs.get(0).getPath());
+        assertEquals(5120, dirs.get(0).getReclaimable());
+        assertEquals(0, dirs.get(0).getError());
+        assertEquals(Path.of("/b"), dirs.get(1).getPath());
+        assertEquals(220, dirs.get(1).getReclaimable());
+        assertEquals(2, dirs.size());
+    }
+
+    @Test
+    public void shouldBoundTheDirectories() {
+        var report = new DuplicateReport(1, 4);
+        for (int i = 0; i < 100; ++i)
+            report.add(group("/a/" + i, "/copy" + i + "/f"), i + 1);
+
+        var dirs = report.getDirectories(10);
+        assertEquals(4, dirs.size());
+        assertEquals(Path.of("/copy99"), dirs.get(0).getPath());
+        assertEquals(1, report.getTop().size());
+        assertEquals(100, report.getTop().get(0).getSize());
+    }
+
+    @Test
+    public void shouldBoundTheErrorOfTheDirectories() {
+        var report = new DuplicateReport(1, 2);
+        var exact = new HashMap<Path, Long>();
+        var rnd = new Random(3);
+        for (int i = 0; i < 2000; ++i) {
+            // A few heavy directories among many light ones
+            var dir = rnd.nextInt(4) == 0 ? "/heavy" + rnd.nextInt(2) : "/light" + rnd.nextInt(500);
+            long size = dir.startsWith("/heavy") ? 1000 : 1 + rnd.nextInt(100);
+            report.add(group("/a/" + i, dir + "/" + i), size);
+            exact.merge(Path.of(dir), size, Long::sum);
+        }
+
+        var dirs = report.getDirectories(10);
+        assertEquals(2, dirs.size());
+        for (var d : dirs) {
+            assertTrue(d.getPath().toString().startsWith("/heavy"));
+            long real = exact.get(d.getPath());
+            assertTrue(d.getReclaimable() >= real);
+            assertTrue(d.getReclaimable() - d.getError() <= real);
+        }
+    }
+
+    @Test
+    public void shouldReadTheSizeOfStreamedGroups() throws Exception {
+        var report = new DuplicateReport();
+        new SimpleScanner().scan(Set.of(Path.of(getClass().getResource("icons").toURI())), report);
+
+        assertEquals(4, report.getGroups());
+        assertEquals(4, report.getTop().size());
+        long sum = 0;
+        for (var g : report.getTop())
+            sum += g.getReclaimable();
+        assertEquals(report.getReclaimable(), sum);
+    }
+
+}
@@ -0,0 +1,117 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DuplicateWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path root;
+
+    DuplicateWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root").toPath();
+        Files.writeString(root.resolve("a.txt"), "first");
+        Files.writeString(root.resolve("b.txt"), "first");
+        Files.writeString(root.resolve("c.txt"), "other content");
+        watcher = new DuplicateWatcher().setSettleTime(Duration.ofMillis(50));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+    }
+
+    /**
+     * Polls until the watcher has applied a change
+     */
+    Set<Long> awaitChange() throws Exception {
+        for (int i = 0; i < 50; ++i) {
+            var changed = watcher.poll(100, TimeUnit.MILLISECONDS);
+            if (!changed.isEmpty())
+                return changed;
+        }
+        throw new AssertionError("No change seen");
+    }
+
+    @Test
+    public void shouldIndexFilesInPlace() throws Exception {
+        var index = new DuplicateIndex(ScanOptions.defaults());
+        index.put(root.resolve("a.txt"), 5, 1);
+        index.put(root.resolve("b.txt"), 5, 1);
+        index.put(root.resolve("c.txt"), 13, 1);
+        assertEquals(Set.of(5L, 13L), index.refresh());
+        assertEquals(1, index.getDuplicates().size());
+
+        // Nothing is rehashed for an unchanged file
+        assertTrue(!index.put(root.resolve("c.txt"), 13, 1));
+        assertEquals(Set.of(), index.refresh());
+
+        assertEquals(3, index.remove(root));
+        assertEquals(0, index.size());
+        assertEquals(Set.of(5L, 13L), index.refresh());
+        assertEquals(0, index.getDuplicates().size());
+    }
+
+    @Test
+    public void shouldFollowChanges() throws Exception {
+        var updates = new ConcurrentHashMap<Long, Integer>();
+        watcher.setListener((groups, size) -> updates.put(size, groups.size()));
+        assertEquals(1, watcher.start(Set.of(root)).size());
+
+        // A copy in a new directory only touches the size of that file
+        var sub = Files.createDirectory(root.resolve("sub"));
+        Files.writeString(sub.resolve("d.txt"), "other content");
+        var changed = awaitChange();
+        assertEquals(Set.of(13L), changed);
+        assertEquals(Map.of(13L, 1), updates);
+        assertEquals(2, watcher.getDuplicates().size());
+
+        // Changing the content of a copy splits its group
+        Files.writeString(root.resolve("b.txt"), "FIRST");
+        assertEquals(Set.of(5L), awaitChange());
+        assertEquals(1, watcher.getDuplicates().size());
+
+        // Removing the directory removes its files
+        Files.delete(sub.resolve("d.txt"));
+        Files.delete(sub);
+        awaitChange();
+        assertEquals(0, watcher.getDuplicates().size());
+        assertEquals(3, watcher.getIndex().size());
+    }
+
+    @Test
+    public void shouldMatchAFullScan() throws Exception {
+        var iconPath = Path.of(getClass().getResource("icons").toURI());
+        var groups = watcher.start(Set.of(iconPath));
+        var expected = new HashSet<Set<Path>>();
+        for (var g : new ThreadedScanner(new ScanOptions().setCollapseLinks(false)).scan(Set.of(iconPath))) {
+            expected.add(new HashSet<>(g));
+        }
+        var actual = new HashSet<Set<Path>>();
+        for (var g : groups) {
+            actual.add(new HashSet<>(g));
+        }
+        assertEquals(expected, actual);
+    }
+
+}
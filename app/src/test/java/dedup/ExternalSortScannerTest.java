@@ -0,0 +1,120 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalSortScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DuplicateScanner driver;
+
+    Collection<Path> iconPath;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = new ExternalSortScanner();
+        iconPath = Set.of(Path.of(getClass().getResource("icons").toURI()));
+    }
+
+    @Test
+    public void shouldFindDuplicates() throws Exception {
+        var res = driver.scan(iconPath);
+        assertEquals(4, res.size());
+    }
+
+    @Test
+    public void shouldFindDuplicatesBySampleOnly() throws Exception {
+        var res = scanCandidates(new ScanOptions().setFullHashStage(false));
+        // The files that only differ in the middle pass for duplicates
+        assertEquals(2, res.size());
+    }
+
+    @Test
+    public void shouldNotReadFilesWithEveryStageOff() throws Exception {
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var res = scanCandidates(
+                    new ScanOptions().setChecksumCache(cache).setSampleStage(false).setFullHashStage(false));
+            assertEquals(3, res.size());
+            assertEquals(0, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldSplitCollisionsWithVerifyStage() throws Exception {
+        var dir = Set.of(GroupVerifierTest.writeCollision(folder.newFolder("collision").toPath()));
+        var options = new ScanOptions().setHashAlgorithm(HashAlgorithm.CRC32).setCompareThreshold(0);
+        assertEquals(1, new ExternalSortScanner(options).scan(dir).size());
+        assertEquals(0, new ExternalSortScanner(options.setVerifyStage(true)).scan(dir).size());
+    }
+
+    @Test
+    public void shouldFindDuplicatesWithSmallRuns() throws Exception {
+        var spill = folder.newFolder("spill").toPath();
+        driver = new ExternalSortScanner(new ScanOptions().setRunSize(7).setSpillDirectory(spill));
+        var res = driver.scan(iconPath);
+        assertEquals(4, res.size());
+        try (var files = Files.list(spill)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void shouldStreamDuplicates() throws Exception {
+        // The groups are handed over one by one as the merge reads them, so
+        // they come in the order of their size
+        var dir = folder.newFolder("data").toPath();
+        for (var name : List.of("b1", "b2"))
+            Files.writeString(dir.resolve(name), "a little longer");
+        for (var name : List.of("a1", "a2"))
+            Files.writeString(dir.resolve(name), "short");
+        var sizes = new ArrayList<Long>();
+        driver.scan(Set.of(dir), group -> {
+            assertEquals(2, group.size());
+            sizes.add(group.iterator().next().toFile().length());
+        });
+        assertEquals(List.of(5L, 15L), sizes);
+    }
+
+    @Test
+    public void shouldFindPotentialDuplicates() throws Exception {
+        var res = driver.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>());
+        assertEquals(120, res.size());
+    }
+
+    @Test
+    public void shouldFindNoDuplicatesGivenAFile() throws Exception {
+        var folder = iconPath.iterator().next().toString();
+        var res = driver.scan(Set.of(Paths.get(folder, "uu.png")));
+        assertEquals(0, res.size());
+    }
+
+    @Test
+    public void shouldThrowErrorOnNull() throws Exception {
+        assertThrows(NullPointerException.class, () -> {
+            driver.scan(null);
+        });
+    }
+
+    private Collection<Collection<Path>> scanCandidates(ScanOptions options) throws IOException {
+        var dir = ThreadedScannerTest.writeCandidates(folder.newFolder("data").toPath());
+        return new ExternalSortScanner(options).scan(Set.of(dir));
+    }
+
+}
@@ -0,0 +1,93 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalSorterTest {
+
+    static final ExternalSorter.Codec<Long> LONGS = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutput out, Long record) throws IOException {
+            out.writeLong(record);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path spill;
+
+    @Before
+    public void setUp() throws Exception {
+        spill = folder.newFolder("spill").toPath();
+    }
+
+    @Test
+    public void shouldSortAcrossRuns() throws Exception {
+        var expected = new ArrayList<Long>();
+        var rnd = new Random(42);
+        try (var sorter = new ExternalSorter<>(spill, 100, Comparator.<Long>naturalOrder(), LONGS)) {
+            for (int i = 0; i < 1050; ++i) {
+                long value = rnd.nextInt(500);
+                expected.add(value);
+                sorter.add(value);
+            }
+            assertEquals(10, sorter.getRuns());
+
+            expected.sort(null);
+            var actual = new ArrayList<Long>();
+            sorter.sorted().forEachRemaining(actual::add);
+            assertEquals(expected, actual);
+        }
+        try (var files = Files.list(spill)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void shouldMergeManyRunsInPasses() throws Exception {
+        var expected = new ArrayList<Long>();
+        var rnd = new Random(7);
+        int runs = ExternalSorter.MAX_FAN_IN * ExternalSorter.MAX_FAN_IN + 5;
+        try (var sorter = new ExternalSorter<>(spill, 3, Comparator.<Long>naturalOrder(), LONGS)) {
+            for (int i = 0; i < 3 * runs + 2; ++i) {
+                long value = rnd.nextInt(10_000);
+                expected.add(value);
+                sorter.add(value);
+            }
+            assertEquals(runs, sorter.getRuns());
+
+            expected.sort(null);
+            var actual = new ArrayList<Long>();
+            sorter.sorted().forEachRemaining(actual::add);
+            assertEquals(expected, actual);
+            assertTrue(sorter.getRuns() < ExternalSorter.MAX_FAN_IN);
+            try (var files = Files.list(spill)) {
+                assertEquals(sorter.getRuns(), files.count());
+            }
+        }
+        try (var files = Files.list(spill)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+}
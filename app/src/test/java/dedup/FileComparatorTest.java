@@ -5,6 +5,7 @@ package dedup;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.file.Path;
@@ -28,6 +29,53 @@ public class FileComparatorTest {
         assertEquals(chk1, chk2);
     }
 
+    @Test
+    public void shouldBeSameSampleChecksum() throws Exception {
+        var chk1 = FileComparator.sampleChecksumFor(Path.of(iconPath.toString(), "uu.gif"), 64);
+        var chk2 = FileComparator.sampleChecksumFor(Path.of(iconPath.toString(), "uuencoded.gif"), 64);
+        assertEquals(chk1, chk2);
+    }
+
+    @Test
+    public void shouldBeDifferentSampleChecksum() throws Exception {
+        var chk1 = FileComparator.sampleChecksumFor(Path.of(iconPath.toString(), "uu.gif"), 64);
+        var chk2 = FileComparator.sampleChecksumFor(Path.of(iconPath.toString(), "uu.png"), 64);
+        assertNotEquals(chk1, chk2);
+    }
+
+    @Test
+    public void shouldBeSameDigestInEveryIoMode() throws Exception {
+        var file = Path.of(iconPath.toString(), "apache_pb.svg");
+        var options = new ScanOptions().setBufferSize(100);
+        var expected = FileComparator.digestFor(file, options.setIoMode(IoMode.STREAM));
+        assertEquals(expected, FileComparator.digestFor(file, options.setIoMode(IoMode.CHANNEL)));
+        options.setIoMode(IoMode.MMAP).setMapThreshold(0);
+        assertEquals(expected, FileComparator.digestFor(file, options));
+    }
+
+    @Test
+    public void shouldBeSameSegmentedDigestInEveryIoMode() throws Exception {
+        var file = Path.of(iconPath.toString(), "apache_pb.svg");
+        var options = new ScanOptions().setBufferSize(64).setSegmentThreshold(1).setSegmentSize(100);
+        var expected = FileComparator.digestFor(file, options.setIoMode(IoMode.STREAM));
+        assertEquals(expected, FileComparator.digestFor(file, options.setIoMode(IoMode.CHANNEL)));
+        options.setIoMode(IoMode.MMAP).setMapThreshold(0);
+        assertEquals(expected, FileComparator.digestFor(file, options));
+
+        // The segment size is part of the digest
+        assertNotEquals(expected, FileComparator.digestFor(file, options.setSegmentSize(200)));
+        assertNotEquals(expected, FileComparator.digestFor(file, new ScanOptions()));
+    }
+
+    @Test
+    public void shouldBeSameSegmentedDigestWithAnyReadsInFlight() throws Exception {
+        var file = Path.of(iconPath.toString(), "apache_pb.svg");
+        var options = new ScanOptions().setSegmentThreshold(1).setSegmentSize(100).setParallelism(4);
+        var expected = FileComparator.digestFor(file, options);
+        assertEquals(expected, FileComparator.digestFor(file, options.setDeviceReads(1)));
+        assertEquals(expected, FileComparator.digestFor(file, options.setDeviceReads(3).setParallelism(1)));
+    }
+
     @Test
     public void shouldBeTheSame() throws Exception {
         var file1 = Path.of(iconPath.toString(), "uu.gif");
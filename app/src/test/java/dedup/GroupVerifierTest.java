@@ -0,0 +1,108 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GroupVerifierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    GroupVerifier verifier;
+
+    byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        verifier = new GroupVerifier(new ScanOptions().setBufferSize(1024));
+        content = new byte[200_000];
+        new Random(1).nextBytes(content);
+    }
+
+    @Test
+    public void shouldSplitOnFirstAndLastByte() throws Exception {
+        var a = write("a", content);
+        var b = write("b", content);
+        var c = write("c", content);
+        var first = content.clone();
+        first[0]++;
+        var last = content.clone();
+        last[last.length - 1]++;
+        var d = write("d", first);
+        var e = write("e", last);
+        var f = write("f", Arrays.copyOf(content, content.length - 1));
+
+        var res = verifier.split(List.of(a, b, c, d, e, f));
+        assertEquals(1, res.size());
+        assertEquals(Set.of(a, b, c), Set.copyOf(res.iterator().next()));
+    }
+
+    @Test
+    public void shouldFindSeveralGroups() throws Exception {
+        var other = content.clone();
+        other[100_000]++;
+        var a = write("a", content);
+        var b = write("b", other);
+        var c = write("c", content);
+        var d = write("d", other);
+
+        var res = verifier.split(List.of(a, b, c, d));
+        assertEquals(2, res.size());
+        for (var g : res) {
+            assertTrue(Set.copyOf(g).equals(Set.of(a, c)) || Set.copyOf(g).equals(Set.of(b, d)));
+        }
+    }
+
+    @Test
+    public void shouldSplitGroupsLargerThanTheOpenFileLimit() throws Exception {
+        var files = new ArrayList<Path>();
+        for (int i = 0; i < GroupVerifier.MAX_OPEN_FILES + 50; ++i) {
+            files.add(write("f" + i, new byte[] { (byte) (i % 3), 1, 2 }));
+        }
+        files.add(write("single", new byte[] { 9, 1, 2 }));
+
+        var res = verifier.split(files);
+        assertEquals(3, res.size());
+        int total = 0;
+        for (var g : res) {
+            total += g.size();
+        }
+        assertEquals(GroupVerifier.MAX_OPEN_FILES + 50, total);
+    }
+
+    @Test
+    public void shouldSplitAHashCollision() throws Exception {
+        var dir = writeCollision(folder.newFolder("collision").toPath());
+        var res = verifier.split(List.of(dir.resolve("a.bin"), dir.resolve("b.bin")));
+        assertEquals(0, res.size());
+    }
+
+    /**
+     * Writes two files of the same size and CRC32 but different content
+     */
+    static Path writeCollision(Path dir) throws IOException {
+        Files.write(dir.resolve("a.bin"), "abcdefgh".getBytes(StandardCharsets.US_ASCII));
+        Files.write(dir.resolve("b.bin"), new byte[] { 0x20, 0x64, 0x12, (byte) 0xbf, 0x64, 0x66, 0x67, 0x68 });
+        return dir;
+    }
+
+    Path write(String name, byte[] data) throws Exception {
+        return Files.write(folder.getRoot().toPath().resolve(name), data);
+    }
+
+}
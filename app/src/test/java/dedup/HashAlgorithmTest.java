@@ -0,0 +1,77 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HashAlgorithmTest {
+
+    static final String FOX = "The quick brown fox jumps over the lazy dog";
+
+    @Test
+    public void shouldMatchXxHash64ReferenceValues() throws Exception {
+        assertEquals("ef46db3751d8e999", hash(HashAlgorithm.XXHASH64, ""));
+        assertEquals("44bc2cf5ad770999", hash(HashAlgorithm.XXHASH64, "abc"));
+        assertEquals("fbcea83c8a378bf1", hash(HashAlgorithm.XXHASH64, "Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void shouldMatchMurmur3ReferenceValues() throws Exception {
+        assertEquals("00000000000000000000000000000000", hash(HashAlgorithm.MURMUR3_128, ""));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hash(HashAlgorithm.MURMUR3_128, FOX));
+    }
+
+    @Test
+    public void shouldMatchSha256ReferenceValue() throws Exception {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                hash(HashAlgorithm.SHA256, "abc"));
+    }
+
+    @Test
+    public void shouldNotDependOnChunking() throws Exception {
+        var data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        for (var algo : HashAlgorithm.values()) {
+            var whole = algo.newHasher();
+            whole.update(ByteBuffer.wrap(data));
+
+            var chunked = algo.newHasher();
+            var rnd = new Random(7);
+            for (int pos = 0; pos < data.length;) {
+                int len = Math.min(rnd.nextInt(70), data.length - pos);
+                chunked.update(ByteBuffer.wrap(data, pos, len));
+                pos += len;
+            }
+            assertEquals(algo.name(), whole.digest(), chunked.digest());
+        }
+    }
+
+    @Test
+    public void shouldDigestWithoutChangingTheState() throws Exception {
+        var data = new byte[1000];
+        new Random(42).nextBytes(data);
+        for (var algo : HashAlgorithm.values()) {
+            var whole = algo.newHasher();
+            whole.update(ByteBuffer.wrap(data));
+
+            var hasher = algo.newHasher();
+            hasher.update(ByteBuffer.wrap(data, 0, 501));
+            var part = hasher.digest();
+            assertEquals(algo.name(), part, hasher.digest());
+            hasher.update(ByteBuffer.wrap(data, 501, data.length - 501));
+            assertEquals(algo.name(), whole.digest(), hasher.digest());
+            assertEquals(algo.name(), whole.digest(), hasher.digest());
+        }
+    }
+
+    static String hash(HashAlgorithm algo, String text) {
+        var hasher = algo.newHasher();
+        hasher.update(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        return hasher.digest().toString();
+    }
+
+}
@@ -13,10 +13,15 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class HybridScannerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     DuplicateScanner driver;
 
     Collection<Path> iconPath;
@@ -33,6 +38,61 @@ public class HybridScannerTest {
         assertEquals(4, res.size());
     }
 
+    @Test
+    public void shouldWalkTheSameTreeWithEitherTraversal() throws Exception {
+        var listed = new HybridScanner();
+        var walked = new HybridScanner(new ScanOptions().setTraversal(Traversal.FILE_TREE));
+        assertEquals(4, listed.scan(iconPath).size());
+        assertEquals(4, walked.scan(iconPath).size());
+        assertEquals(2, listed.getMetrics().getDirectories());
+        assertEquals(walked.getMetrics().getDirectories(), listed.getMetrics().getDirectories());
+        assertEquals(walked.getMetrics().getFiles(), listed.getMetrics().getFiles());
+        assertEquals(walked.getMetrics().getFilesQueued(), listed.getMetrics().getFilesQueued());
+    }
+
+    @Test
+    public void shouldNotHashFilesWhoseSamplesDiffer() throws Exception {
+        var scanner = new HybridScanner();
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(1, res.size());
+        // The pair whose heads differ is ruled out by its sample
+        assertEquals(6, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(4, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldHashEveryCandidateWithoutSampleStage() throws Exception {
+        var scanner = new HybridScanner(new ScanOptions().setSampleStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(1, res.size());
+        assertEquals(0, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(6, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldFindDuplicatesBySampleOnly() throws Exception {
+        var scanner = new HybridScanner(new ScanOptions().setFullHashStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        // The files that only differ in the middle pass for duplicates
+        assertEquals(2, res.size());
+        assertEquals(6, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(0, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldNotReadFilesWithEveryStageOff() throws Exception {
+        var scanner = new HybridScanner(new ScanOptions().setSampleStage(false).setFullHashStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(3, res.size());
+        assertEquals(0, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(0, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldStreamDuplicates() throws Exception {
+        ThreadedScannerTest.assertStreams(driver, iconPath);
+    }
+
     @Test
     public void shouldFindPotentialDuplicates() throws Exception {
         var res = driver.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>());
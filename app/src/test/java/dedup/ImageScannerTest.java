@@ -0,0 +1,80 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path iconPath;
+
+    @Before
+    public void setUp() throws Exception {
+        iconPath = Path.of(getClass().getResource("icons").toURI());
+    }
+
+    @Test
+    public void shouldHashFormatsAlike() throws Exception {
+        var gif = ImageHash.of(iconPath.resolve("folder.gif"));
+        var png = ImageHash.of(iconPath.resolve("folder.png"));
+        assertTrue(ImageHash.distance(gif, png) <= ScanOptions.DEFAULT_IMAGE_DISTANCE);
+        var other = ImageHash.of(iconPath.resolve("sound1.png"));
+        assertTrue(ImageHash.distance(gif, other) > ScanOptions.DEFAULT_IMAGE_DISTANCE);
+    }
+
+    @Test
+    public void shouldFindSimilarImages() throws Exception {
+        var dir = folder.newFolder("images").toPath();
+        for (var name : List.of("folder.gif", "folder.png", "sound1.png", "README"))
+            Files.copy(iconPath.resolve(name), dir.resolve(name));
+
+        var res = new ImageScanner().scan(Set.of(dir));
+
+        assertEquals(1, res.size());
+        assertEquals(Set.of(dir.resolve("folder.gif"), dir.resolve("folder.png")),
+                new HashSet<>(res.iterator().next()));
+    }
+
+    @Test
+    public void shouldFindEveryHashWithinDistance() {
+        var random = new Random(7);
+        var hashes = new long[2000];
+        for (int i = 0; i < hashes.length; ++i) {
+            // Some hashes close to an earlier one
+            hashes[i] = i > 0 && random.nextBoolean() ? flip(hashes[random.nextInt(i)], random, 1 + random.nextInt(8))
+                    : random.nextLong();
+        }
+        var index = new ImageIndex(hashes, 4);
+        for (int i = 0; i < hashes.length; i += 10) {
+            var expected = new HashSet<Integer>();
+            for (int j = 0; j < hashes.length; ++j) {
+                if (ImageHash.distance(hashes[i], hashes[j]) <= 7)
+                    expected.add(j);
+            }
+            var found = new HashSet<Integer>();
+            index.forEachSimilar(hashes[i], 7, found::add);
+            assertEquals(expected, found);
+        }
+    }
+
+    static long flip(long hash, Random random, int bits) {
+        for (int i = 0; i < bits; ++i)
+            hash ^= 1L << random.nextInt(Long.SIZE);
+        return hash;
+    }
+
+}
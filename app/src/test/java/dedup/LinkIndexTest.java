@@ -0,0 +1,138 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+        var original = dataDir.resolve("a.txt");
+        Files.writeString(original, "same content");
+        Files.createLink(dataDir.resolve("b.txt"), original);
+        Files.createDirectory(dataDir.resolve("sub"));
+        Files.createLink(dataDir.resolve("sub").resolve("c.txt"), original);
+        Files.writeString(dataDir.resolve("d.txt"), "same content");
+    }
+
+    @Test
+    public void shouldReportLinksSeparately() throws Exception {
+        var options = new ScanOptions();
+        for (var driver : List.of(new SimpleScanner(options), new ThreadedScanner(options),
+                new HybridScanner(options), new VirtualThreadScanner(options))) {
+            var res = driver.scan(Set.of(dataDir));
+            assertEquals(1, res.size());
+            assertEquals(2, res.iterator().next().size());
+
+            var links = driver.getLinkGroups();
+            assertEquals(1, links.size());
+            assertEquals(3, links.iterator().next().size());
+        }
+    }
+
+    @Test
+    public void shouldKeepLinksWhenNotCollapsing() throws Exception {
+        var res = new SimpleScanner(new ScanOptions().setCollapseLinks(false)).scan(Set.of(dataDir));
+        assertEquals(1, res.size());
+        assertEquals(4, res.iterator().next().size());
+    }
+
+    @Test
+    public void shouldSkipSymbolicLinksWhenNotCollapsing() throws Exception {
+        var dir = folder.newFolder("symlinks").toPath();
+        var target = Files.writeString(dir.resolve("target.txt"), "linked content");
+        Files.createSymbolicLink(dir.resolve("link.txt"), target);
+
+        var options = new ScanOptions().setCollapseLinks(false);
+        for (var driver : List.of(new SimpleScanner(options), new ThreadedScanner(options),
+                new HybridScanner(options), new VirtualThreadScanner(options))) {
+            assertEquals(0, driver.scan(Set.of(dir)).size());
+        }
+
+        var driver = new SimpleScanner(new ScanOptions());
+        assertEquals(0, driver.scan(Set.of(dir)).size());
+        var links = driver.getLinkGroups();
+        assertEquals(1, links.size());
+        assertEquals(Set.of(target, dir.resolve("link.txt")), Set.copyOf(links.iterator().next()));
+    }
+
+    @Test
+    public void shouldCollapseLinksToFilesOutsideTheRoots() throws Exception {
+        var outside = folder.newFolder("outside").toPath();
+        var target = Files.writeString(outside.resolve("target.txt"), "linked content");
+        var dir = folder.newFolder("links").toPath();
+        Files.createSymbolicLink(dir.resolve("a.txt"), target);
+        Files.createSymbolicLink(dir.resolve("b.txt"), target);
+        Files.writeString(dir.resolve("c.txt"), "linked content");
+
+        var options = new ScanOptions();
+        for (var driver : List.of(new SimpleScanner(options), new ThreadedScanner(options),
+                new HybridScanner(options), new VirtualThreadScanner(options))) {
+            var res = driver.scan(Set.of(dir));
+            assertEquals(1, res.size());
+            assertEquals(2, res.iterator().next().size());
+            var links = driver.getLinkGroups();
+            assertEquals(1, links.size());
+            assertEquals(Set.of(dir.resolve("a.txt"), dir.resolve("b.txt")), Set.copyOf(links.iterator().next()));
+        }
+    }
+
+    @Test
+    public void shouldReadLinkCountsWithTheAttributes() throws Exception {
+        var counts = new HashMap<Path, Integer>();
+        DirectoryReader.read(dataDir, new DirectoryReader.EntryVisitor() {
+
+            @Override
+            public void directory(Path dir, BasicFileAttributes attrs) {
+            }
+
+            @Override
+            public void file(Path file, BasicFileAttributes attrs, int links) {
+                counts.put(file.getFileName(), links);
+            }
+
+        }, true);
+        assertEquals(Map.of(Path.of("a.txt"), 3, Path.of("b.txt"), 3, Path.of("d.txt"), 1), counts);
+    }
+
+    @Test
+    public void shouldNotIndexFilesOfOneLink() throws Exception {
+        var index = new LinkIndex(List.of(dataDir));
+        var file = dataDir.resolve("d.txt");
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        assertTrue(index.offer(file, attrs, 1));
+        assertTrue(index.offer(dataDir.resolve("other.txt"), attrs, 1));
+        assertEquals(0, index.getLinkCount());
+    }
+
+    @Test
+    public void shouldCollapseSamePathOnce() throws Exception {
+        var index = new LinkIndex(List.of(dataDir));
+        var file = dataDir.resolve("a.txt");
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        assertTrue(index.offer(file, attrs));
+        assertFalse(index.offer(file, attrs));
+        assertEquals(0, index.getLinkCount());
+    }
+
+}
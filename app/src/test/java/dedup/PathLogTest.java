@@ -0,0 +1,49 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PathLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackPaths() throws Exception {
+        var dir = folder.newFolder("log").toPath();
+        try (var log = new PathLog(dir)) {
+            var absolute = dir.resolve("sub").resolve("file.txt");
+            var relative = Path.of("base", "file.txt");
+            long a = log.append(absolute);
+            long b = log.append(relative);
+            log.flush();
+            assertEquals(absolute, log.get(a));
+            assertEquals(relative, log.get(b));
+        }
+    }
+
+    @Test
+    public void shouldKeepNamesThatAreNotValidStrings() throws Exception {
+        var dir = folder.newFolder("data").toPath().toRealPath();
+        // Bytes that are not UTF-8, nor any other charset the tests run in
+        var file = Files.write(Path.of(URI.create(dir.toUri() + "bad%FF%FEname")), new byte[] { 1 });
+        var relative = Path.of("").toAbsolutePath().relativize(file);
+        try (var log = new PathLog(folder.newFolder("log").toPath())) {
+            long a = log.append(file);
+            long b = log.append(relative);
+            log.flush();
+            assertEquals(file, log.get(a));
+            assertEquals(relative, log.get(b));
+            assertTrue(Files.exists(log.get(a)));
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class PathStoreTest {
+
+    @Test
+    public void shouldReturnStoredPaths() throws Exception {
+        var store = new PathStore();
+        var files = new ArrayList<Path>();
+        for (int i = 0; i < 50_000; ++i) {
+            files.add(Path.of("base", "dir" + (i % 100), "file-" + i + ".txt").toAbsolutePath());
+        }
+        for (int i = 0; i < files.size(); ++i) {
+            assertEquals(i, store.add(files.get(i)));
+        }
+        for (int i = 0; i < files.size(); ++i) {
+            assertEquals(files.get(i), store.get(i));
+        }
+        assertEquals(50_000, store.size());
+        assertEquals(100, store.directories());
+    }
+
+    static Path pathOf(int thread, int i) {
+        return Path.of("base", "t" + thread, "dir" + (i % 50), "file-" + i).toAbsolutePath();
+    }
+
+    @Test
+    public void shouldStorePathsFromManyThreads() throws Exception {
+        var store = new PathStore();
+        int threads = 8;
+        int files = 20_000;
+        var ids = new int[threads][files];
+        var workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; ++t) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < files; ++i)
+                    ids[thread][i] = store.add(pathOf(thread, i));
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (var w : workers)
+            w.join();
+
+        assertEquals(threads * files, store.size());
+        assertEquals(threads * 50, store.directories());
+        for (int t = 0; t < threads; ++t) {
+            for (int i = 0; i < files; ++i)
+                assertEquals(pathOf(t, i), store.get(ids[t][i]));
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+    }
+
+    @Test
+    public void shouldHandOutInPathOrder() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions());
+        queue.add(new FileEntry(dataDir.resolve("c"), 1));
+        queue.add(new FileEntry(dataDir.resolve("a"), 1));
+        queue.add(new FileEntry(dataDir.resolve("b"), 1));
+
+        for (var name : new String[] { "a", "b", "c" }) {
+            var entry = queue.take();
+            assertEquals(dataDir.resolve(name), entry.getPath());
+            queue.done(entry);
+        }
+        assertEquals(1, queue.getDevices());
+    }
+
+    @Test
+    public void shouldReorderQueuedFiles() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions());
+        queue.add(new FileEntry(dataDir.resolve("a"), 1));
+        queue.add(new FileEntry(dataDir.resolve("b"), 3));
+        queue.add(new FileEntry(dataDir.resolve("c"), 2));
+        queue.setPriority(ThreadedScanner.BY_SIZE);
+
+        for (var name : new String[] { "b", "c", "a" }) {
+            var entry = queue.take();
+            assertEquals(dataDir.resolve(name), entry.getPath());
+            queue.done(entry);
+        }
+    }
+
+    @Test
+    public void shouldDrainQueuedFiles() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions());
+        queue.add(new FileEntry(dataDir.resolve("a"), 1));
+        queue.add(new FileEntry(dataDir.resolve("b"), 1));
+        var taken = queue.take();
+
+        assertEquals(1, queue.drain().size());
+        assertFalse(queue.awaitIdle(10, TimeUnit.MILLISECONDS));
+        queue.done(taken);
+        assertTrue(queue.awaitIdle(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldBlockProducersWhenFull() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions());
+        queue.setCapacity(2);
+        assertTrue(queue.put(new FileEntry(dataDir.resolve("a"), 1)));
+        assertTrue(queue.offer(new FileEntry(dataDir.resolve("b"), 1)));
+        assertFalse(queue.offer(new FileEntry(dataDir.resolve("c"), 1)));
+
+        var added = new AtomicInteger(-1);
+        var producer = new Thread(() -> added.set(queue.putAll(
+                List.of(new FileEntry(dataDir.resolve("c"), 1), new FileEntry(dataDir.resolve("d"), 1)))));
+        producer.start();
+
+        // Every batch taken makes room for the producer
+        var batch = new ArrayList<FileEntry>();
+        while (batch.size() < 4) {
+            var taken = new ArrayList<FileEntry>();
+            queue.take(3, taken);
+            queue.done(taken);
+            batch.addAll(taken);
+        }
+        producer.join(5000);
+        assertEquals(2, added.get());
+        assertEquals(0, queue.getOutstanding());
+    }
+
+    @Test
+    public void shouldReleaseProducersWhenClosed() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions());
+        queue.setCapacity(1);
+        queue.put(new FileEntry(dataDir.resolve("a"), 1));
+
+        var added = new AtomicInteger(-1);
+        var producer = new Thread(() -> added.set(queue.putAll(List.of(new FileEntry(dataDir.resolve("b"), 1)))));
+        producer.start();
+        assertEquals(1, queue.close().size());
+        producer.join(5000);
+        assertEquals(0, added.get());
+        assertFalse(queue.put(new FileEntry(dataDir.resolve("c"), 1)));
+    }
+
+    @Test
+    public void shouldTakeBatchesOfOneDevice() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions().setDeviceReads(1));
+        for (var name : new String[] { "d", "c", "b", "a" }) {
+            queue.add(new FileEntry(dataDir.resolve(name), 1));
+        }
+
+        var batch = new ArrayList<FileEntry>();
+        assertEquals(3, queue.take(3, batch));
+        assertEquals(dataDir.resolve("a"), batch.get(0).getPath());
+        // The batch holds the only read of the device
+        assertNull(queue.poll());
+        queue.done(batch);
+        assertEquals(1, queue.getOutstanding());
+        assertEquals(dataDir.resolve("d"), queue.poll().getPath());
+    }
+
+    @Test
+    public void shouldFreeTheReadOfAFileDeletedMeanwhile() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions().setDeviceReads(1));
+        var file = Files.writeString(dataDir.resolve("a"), "a");
+        queue.add(new FileEntry(file, 1));
+        queue.add(new FileEntry(Files.writeString(dataDir.resolve("b"), "b"), 1));
+
+        var first = queue.poll();
+        Files.delete(file);
+        queue.done(first);
+        assertEquals(dataDir.resolve("b"), queue.poll().getPath());
+    }
+
+    @Test
+    public void shouldFindDuplicatesThroughATinyQueue() throws Exception {
+        var iconPath = Path.of(getClass().getResource("icons").toURI());
+        var options = new ScanOptions().setQueueCapacity(1).setBatchSize(3);
+        assertEquals(4, new ThreadedScanner(options).scan(Set.of(iconPath)).size());
+        assertEquals(4, new HybridScanner(options).scan(Set.of(iconPath)).size());
+    }
+
+    @Test
+    public void shouldLimitReadsPerDevice() throws Exception {
+        var queue = new ReadScheduler(new ScanOptions().setDeviceReads(1));
+        queue.add(new FileEntry(dataDir.resolve("a"), 1));
+        queue.add(new FileEntry(dataDir.resolve("b"), 1));
+
+        var first = queue.poll();
+        assertNull(queue.poll());
+        assertEquals(2, queue.getOutstanding());
+
+        queue.done(first);
+        var second = queue.poll();
+        assertEquals(dataDir.resolve("b"), second.getPath());
+        queue.done(second);
+        queue.awaitIdle();
+        assertEquals(0, queue.getOutstanding());
+    }
+
+    @Test
+    public void shouldFindDuplicatesWithOneReadPerDevice() throws Exception {
+        Files.writeString(dataDir.resolve("a.txt"), "same content");
+        Files.writeString(dataDir.resolve("b.txt"), "same content");
+        Files.writeString(dataDir.resolve("c.txt"), "diff content");
+        var res = new ThreadedScanner(new ScanOptions().setDeviceReads(1)).scan(Set.of(dataDir));
+        assertEquals(1, res.size());
+    }
+
+}
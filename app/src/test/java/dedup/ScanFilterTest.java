@@ -0,0 +1,93 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path root;
+
+    ScanFilter filter;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root").toPath();
+        var git = Files.createDirectories(root.resolve(".git/objects"));
+        var modules = Files.createDirectories(root.resolve("app/node_modules/lib"));
+        var src = Files.createDirectories(root.resolve("app/src"));
+
+        // One group that survives the filter and several that do not
+        Files.writeString(src.resolve("a.txt"), "kept duplicate");
+        Files.writeString(root.resolve("b.txt"), "kept duplicate");
+        Files.writeString(git.resolve("x"), "pruned duplicate");
+        Files.writeString(modules.resolve("y.js"), "pruned duplicate");
+        Files.writeString(src.resolve("c.tmp"), "temp duplicate");
+        Files.writeString(root.resolve("d.tmp"), "temp duplicate");
+        Files.writeString(src.resolve("e.txt"), "!");
+        Files.writeString(root.resolve("f.txt"), "!");
+
+        filter = new ScanFilter().excludeCommonDirectories().excludeFiles("*.tmp").setMinSize(2);
+    }
+
+    @Test
+    public void shouldMatchNamesAndPaths() throws Exception {
+        var file = root.resolve("b.txt");
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        assertTrue(new ScanFilter().acceptFile(file, 14, attrs));
+        assertFalse(new ScanFilter().acceptFile(file, 0, attrs));
+        assertFalse(new ScanFilter().setMaxSize(10).acceptFile(file, 14, attrs));
+        assertFalse(new ScanFilter().includeFiles("*.jpg").acceptFile(file, 14, attrs));
+        assertTrue(new ScanFilter().includeFiles("*.jpg").includeFiles("*.txt").acceptFile(file, 14, attrs));
+        assertFalse(new ScanFilter().excludeFiles(root + "/*").acceptFile(file, 14, attrs));
+        assertFalse(new ScanFilter().requireFiles((p, a) -> a.isSymbolicLink()).acceptFile(file, 14, attrs));
+
+        var dir = root.resolve("app/node_modules");
+        var dirAttrs = Files.readAttributes(dir, BasicFileAttributes.class);
+        assertFalse(filter.acceptDirectory(dir, dirAttrs));
+        assertTrue(filter.acceptDirectory(root.resolve("app"), dirAttrs));
+        assertFalse(new ScanFilter().excludeDirectories("**/app").acceptDirectory(root.resolve("app"), dirAttrs));
+    }
+
+    @Test
+    public void shouldPruneInEveryScanner() throws Exception {
+        var expected = Set.of(root.resolve("app/src/a.txt"), root.resolve("b.txt"));
+        var options = new ScanOptions().setFilter(filter);
+        for (var scanner : List.of(new SimpleScanner(options), new HybridScanner(options),
+                new ThreadedScanner(options), new VirtualThreadScanner(options),
+                new ExternalSortScanner(options))) {
+            var res = scanner.scan(Set.of(root));
+            assertEquals(scanner.getClass().getSimpleName(), 1, res.size());
+            assertEquals(expected, new HashSet<>(res.iterator().next()));
+        }
+    }
+
+    @Test
+    public void shouldNotDescendIntoExcludedDirectories() throws Exception {
+        var scanner = new ThreadedScanner(new ScanOptions().setFilter(filter));
+        scanner.scan(Set.of(root));
+        // root, app and app/src
+        assertEquals(3, scanner.getMetrics().getDirectories());
+
+        scanner = new ThreadedScanner(new ScanOptions().setFilter(filter));
+        Collection<Path> candidates = scanner.getPotentialDuplicates(Set.of(root), new HashSet<>());
+        assertEquals(2, candidates.size());
+    }
+
+}
@@ -0,0 +1,144 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScanHandleTest {
+
+    Collection<Path> iconPath;
+
+    CountDownLatch entered;
+
+    CountDownLatch release;
+
+    @Before
+    public void setUp() throws Exception {
+        iconPath = Set.of(Path.of(getClass().getResource("icons").toURI()));
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    /**
+     * Holds up the scan in the first group until it is released or
+     * interrupted
+     */
+    Consumer<Collection<Path>> blockingConsumer() {
+        var first = new AtomicBoolean(true);
+        return group -> {
+            if (!first.compareAndSet(true, false))
+                return;
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void shouldCompleteInTheBackground() throws Exception {
+        var handle = new ThreadedScanner().start(iconPath);
+        assertEquals(4, handle.get().size());
+        assertEquals(ScanHandle.State.COMPLETED, handle.getState());
+
+        var progress = handle.getProgress();
+        assertTrue(progress.isTraversed());
+        assertEquals(progress.getFilesQueued(), progress.getFilesDone());
+        assertEquals(1.0, progress.getFraction(), 0);
+        assertEquals(Duration.ZERO, progress.getRemaining());
+    }
+
+    @Test
+    public void shouldScanAgainAfterAStoppedScan() throws Exception {
+        var scanner = new ThreadedScanner();
+        var handle = scanner.start(iconPath, blockingConsumer());
+        entered.await();
+        try {
+            scanner.start(iconPath);
+            fail("A second scan must not start while one runs");
+        } catch (IllegalStateException ex) {
+        }
+        handle.cancel();
+        handle.await();
+
+        var again = scanner.start(iconPath);
+        assertEquals(4, again.get().size());
+        assertEquals(ScanHandle.State.COMPLETED, again.getState());
+        assertEquals(4, scanner.scan(iconPath).size());
+    }
+
+    @Test
+    public void shouldCancelTheScan() throws Exception {
+        var handle = new ThreadedScanner().start(iconPath, blockingConsumer());
+        entered.await();
+        assertFalse(handle.isDone());
+        handle.cancel();
+        assertTrue(handle.await(10, TimeUnit.SECONDS));
+        assertEquals(ScanHandle.State.CANCELLED, handle.getState());
+        assertNull(handle.get());
+    }
+
+    @Test
+    public void shouldHandOverNothingOnceCancelled() throws Exception {
+        var over = new AtomicBoolean();
+        var late = new AtomicBoolean();
+        var blocking = blockingConsumer();
+        var handle = new ThreadedScanner().start(iconPath, group -> {
+            late.compareAndSet(false, over.get());
+            blocking.accept(group);
+        });
+        entered.await();
+        handle.cancel();
+        handle.await();
+        over.set(true);
+        // The checksum threads have all ended with the scan
+        Thread.sleep(100);
+        assertFalse(late.get());
+    }
+
+    @Test
+    public void shouldCancelTheScanOnInterrupt() throws Exception {
+        var scanner = new ThreadedScanner();
+        var thread = new Thread(() -> scanner.scan(iconPath, blockingConsumer()));
+        thread.start();
+        entered.await();
+        thread.interrupt();
+        thread.join(10_000);
+        assertFalse(thread.isAlive());
+        assertEquals(ScanHandle.State.CANCELLED, scanner.getHandle().getState());
+    }
+
+    @Test
+    public void shouldStopWhenTheTimeIsUp() throws Exception {
+        var options = new ScanOptions().setTimeBudget(Duration.ofNanos(1));
+        var scanner = new HybridScanner(options);
+        var res = scanner.scan(iconPath);
+        assertEquals(ScanHandle.State.EXPIRED, scanner.getHandle().getState());
+        assertTrue(res.size() < 4);
+    }
+
+    @Test
+    public void shouldCompleteWithinTheBudget() throws Exception {
+        var options = new ScanOptions().setTimeBudget(Duration.ofMinutes(5));
+        var scanner = new ThreadedScanner(options);
+        assertEquals(4, scanner.scan(iconPath).size());
+        assertEquals(ScanHandle.State.COMPLETED, scanner.getHandle().getState());
+    }
+
+}
@@ -0,0 +1,136 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+public class ScanMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path iconPath;
+
+    @Before
+    public void setUp() throws Exception {
+        iconPath = Path.of(getClass().getResource("icons").toURI());
+    }
+
+    @Test
+    public void shouldCountTheScan() throws Exception {
+        var scanner = new ThreadedScanner();
+        scanner.scan(Set.of(iconPath));
+        var metrics = scanner.getMetrics();
+
+        long files;
+        try (var stream = Files.walk(iconPath)) {
+            files = stream.filter(Files::isRegularFile).count();
+        }
+        assertEquals(2, metrics.getDirectories());
+        assertEquals(files, metrics.getFiles());
+        assertTrue(metrics.getFilesHashed() > 0);
+        assertTrue(metrics.getBytesHashed() > 0);
+        assertEquals(metrics.getFilesHashed(), metrics.getLatency(ScanMetrics.Stage.HASH).getCount());
+        assertEquals(files, metrics.getLatency(ScanMetrics.Stage.INDEX).getCount());
+        assertTrue(metrics.getPeakDepth(ScanMetrics.Queue.CHECKSUM_ITEMS) > 0);
+        assertEquals(0, metrics.getDepth(ScanMetrics.Queue.CHECKSUM_ITEMS));
+        assertEquals(1, metrics.getDeviceThroughput().size());
+        assertTrue(metrics.getReport().contains("Stage HASH"));
+    }
+
+    @Test
+    public void shouldStartOverWithEveryScan() throws Exception {
+        var scanner = new ThreadedScanner();
+        scanner.scan(Set.of(iconPath));
+        var first = scanner.getProgress();
+        long hashed = scanner.getMetrics().getFilesHashed();
+        assertTrue(first.getFilesQueued() > 0);
+
+        scanner.scan(Set.of(iconPath));
+        var second = scanner.getProgress();
+        assertEquals(2, second.getDirectories());
+        assertEquals(first.getFiles(), second.getFiles());
+        assertEquals(first.getFilesQueued(), second.getFilesQueued());
+        assertEquals(first.getBytesQueued(), second.getBytesQueued());
+        assertEquals(second.getFilesQueued(), second.getFilesDone());
+        assertEquals(second.getBytesQueued(), second.getBytesDone());
+        assertEquals(hashed, scanner.getMetrics().getFilesHashed());
+        assertEquals(hashed, scanner.getMetrics().getLatency(ScanMetrics.Stage.HASH).getCount());
+    }
+
+    @Test
+    public void shouldMeasureDevicesOverWallClockTime() throws Exception {
+        var metrics = new ScanMetrics();
+        var file = iconPath.resolve("uu.gif");
+        // Four threads that each read 100 MB in the same second
+        long second = Duration.ofSeconds(1).toNanos();
+        for (int i = 0; i < 4; ++i)
+            metrics.fileHashed(file, 100L << 20, second);
+
+        double throughput = metrics.getDeviceThroughput().values().iterator().next();
+        assertTrue(throughput > 300 && throughput <= 400);
+    }
+
+    @Test
+    public void shouldCountTheScanOnVirtualThreads() throws Exception {
+        var scanner = new VirtualThreadScanner();
+        scanner.scan(Set.of(iconPath));
+        var metrics = scanner.getMetrics();
+        assertEquals(2, metrics.getDirectories());
+        assertTrue(metrics.getFilesHashed() > 0);
+        assertEquals(0, metrics.getDepth(ScanMetrics.Queue.PENDING_FOLDERS));
+    }
+
+    @Test
+    public void shouldReportPercentilesByBucket() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(Duration.ofNanos(50500), histogram.getMean());
+        assertEquals(Duration.ofNanos(100_000), histogram.getMax());
+        // 50000 ns falls in the bucket up to 2^16 - 1 ns
+        assertEquals(Duration.ofNanos(65535), histogram.getPercentile(50));
+        assertEquals(Duration.ofNanos(100_000), histogram.getPercentile(100));
+        assertEquals(Duration.ZERO, new LatencyHistogram().getPercentile(99));
+    }
+
+    @Test
+    public void shouldEmitFlightRecorderEvents() throws Exception {
+        var file = folder.getRoot().toPath().resolve("scan.jfr");
+        try (var recording = new Recording()) {
+            recording.enable("dedup.Directory");
+            recording.enable("dedup.Checksum");
+            recording.start();
+            new ThreadedScanner().scan(Set.of(iconPath));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        int directories = 0;
+        int checksums = 0;
+        for (var event : RecordingFile.readAllEvents(file)) {
+            var name = event.getEventType().getName();
+            if (name.equals("dedup.Directory"))
+                ++directories;
+            else if (name.equals("dedup.Checksum"))
+                ++checksums;
+        }
+        assertEquals(2, directories);
+        assertTrue(checksums > 0);
+    }
+
+}
@@ -0,0 +1,134 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path work;
+
+    List<Path> roots;
+
+    @Before
+    public void setUp() throws Exception {
+        work = folder.newFolder("work").toPath();
+        var a = folder.newFolder("a").toPath();
+        var b = folder.newFolder("b").toPath();
+        var c = folder.newFolder("c").toPath();
+        roots = List.of(a, b, c);
+
+        // A duplicate within a shard, one across shards and a file of the
+        // same size that differs
+        Files.writeString(a.resolve("local1.txt"), "local duplicate");
+        Files.writeString(a.resolve("local2.txt"), "local duplicate");
+        Files.writeString(a.resolve("cross.txt"), "cross shard");
+        Files.writeString(b.resolve("cross.txt"), "cross shard");
+        Files.writeString(c.resolve("other.txt"), "other shard");
+        Files.writeString(c.resolve("unique.txt"), "a unique size");
+    }
+
+    @Test
+    public void shouldOnlyRequestCrossShardCollisions() throws Exception {
+        var worker = new ShardWorker();
+        var shards = new ArrayList<Path>();
+        for (int i = 0; i < roots.size(); ++i) {
+            shards.add(work.resolve("shard-" + i + ".sig"));
+            worker.walk(Set.of(roots.get(i)), shards.get(i));
+        }
+
+        var merger = new ShardMerger();
+        // cross.txt twice and other.txt share a size but none was sampled,
+        // as they have no collision within their shard
+        assertEquals(3, merger.plan(shards));
+        for (var shard : shards) {
+            worker.hash(shard);
+        }
+        // Only the two whose samples collide are hashed
+        assertEquals(2, merger.plan(shards));
+        for (var shard : shards) {
+            worker.hash(shard);
+        }
+        assertEquals(0, merger.plan(shards));
+        var other = SignatureFile.readAll(shards.get(2), ScanOptions.defaults());
+        for (var s : other) {
+            assertTrue(!s.hasDigest());
+        }
+
+        var groups = new ArrayList<Collection<Path>>();
+        merger.merge(shards, groups::add);
+        assertEquals(2, groups.size());
+    }
+
+    @Test
+    public void shouldMergeShardsOfSeveralProcesses() throws Exception {
+        var args = new ArrayList<String>(List.of("local", work.toString(), "3"));
+        roots.forEach(r -> args.add(r.toString()));
+        var bytes = new ByteArrayOutputStream();
+        int exit = ShardTool.run(args.toArray(String[]::new), new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        assertEquals(ShardTool.OK, exit);
+
+        var out = bytes.toString(StandardCharsets.UTF_8);
+        assertTrue(out.contains(roots.get(0).resolve("cross.txt").toString()));
+        assertTrue(out.contains(roots.get(1).resolve("cross.txt").toString()));
+        assertTrue(out.contains(roots.get(0).resolve("local2.txt").toString()));
+        assertTrue(!out.contains("other.txt"));
+    }
+
+    @Test
+    public void shouldRejectBadShardCounts() throws Exception {
+        var out = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        for (var shards : new String[] { "0", "-2", "two" }) {
+            var args = new String[] { "local", work.toString(), shards, work.toString() };
+            assertEquals(ShardTool.USAGE, ShardTool.run(args, out));
+        }
+    }
+
+    @Test
+    public void shouldKeepPathsThatAreNotValidStrings() throws Exception {
+        var dir = folder.newFolder("names").toPath().toRealPath();
+        var bad = Files.write(Path.of(URI.create(dir.toUri() + "bad%FF%FEname")), new byte[] { 1 });
+        // Longer than the 64 KiB a modified UTF-8 string can hold
+        var name = new StringBuilder();
+        while (name.length() < 70000)
+            name.append("/nested");
+        var paths = List.of(bad, Path.of(name.toString()));
+
+        var signatures = new ArrayList<SignatureFile.Signature>();
+        for (var path : paths)
+            signatures.add(new SignatureFile.Signature(1, path));
+        var file = work.resolve("names.sig");
+        SignatureFile.write(file, ScanOptions.defaults(), signatures);
+        var read = SignatureFile.readAll(file, ScanOptions.defaults());
+        assertEquals(2, read.size());
+        assertEquals(Set.copyOf(paths), Set.of(read.get(0).getPath(), read.get(1).getPath()));
+
+        var requests = work.resolve("names.request");
+        var written = new ArrayList<ShardMerger.Request>();
+        for (var path : paths)
+            written.add(new ShardMerger.Request(path, true));
+        ShardMerger.writeRequests(requests, written);
+        var requested = ShardMerger.readRequests(requests);
+        assertEquals(paths.get(0), requested.get(0).path);
+        assertEquals(paths.get(1), requested.get(1).path);
+    }
+
+}
@@ -6,17 +6,26 @@ package dedup;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class SimpleScannerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     DuplicateScanner driver;
 
     Collection<Path> iconPath;
@@ -33,6 +42,69 @@ public class SimpleScannerTest {
         assertEquals(4, res.size());
     }
 
+    @Test
+    public void shouldNotHashFilesWhoseSamplesDiffer() throws Exception {
+        // Every sample and full checksum the scanner needs is a cache miss
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var res = scanCandidates(new ScanOptions().setChecksumCache(cache));
+            assertEquals(1, res.size());
+            // The 6 samples and the full checksums of the 4 files whose
+            // samples collide
+            assertEquals(10, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldHashEveryCandidateWithoutSampleStage() throws Exception {
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var res = scanCandidates(new ScanOptions().setChecksumCache(cache).setSampleStage(false));
+            assertEquals(1, res.size());
+            assertEquals(6, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldFindDuplicatesBySampleOnly() throws Exception {
+        var res = scanCandidates(new ScanOptions().setFullHashStage(false));
+        // The files that only differ in the middle pass for duplicates
+        assertEquals(2, res.size());
+    }
+
+    @Test
+    public void shouldNotReadFilesWithEveryStageOff() throws Exception {
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var res = scanCandidates(
+                    new ScanOptions().setChecksumCache(cache).setSampleStage(false).setFullHashStage(false));
+            assertEquals(3, res.size());
+            assertEquals(0, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void shouldSplitCollisionsWithVerifyStage() throws Exception {
+        var dir = Set.of(GroupVerifierTest.writeCollision(folder.newFolder("collision").toPath()));
+        var options = new ScanOptions().setHashAlgorithm(HashAlgorithm.CRC32).setCompareThreshold(0);
+        assertEquals(1, new SimpleScanner(options).scan(dir).size());
+        assertEquals(0, new SimpleScanner(options.setVerifyStage(true)).scan(dir).size());
+    }
+
+    @Test
+    public void shouldStreamDuplicates() throws Exception {
+        // Two sizes of duplicates, the first is handed over before the files
+        // of the second are hashed
+        var dir = folder.newFolder("data").toPath();
+        for (var name : List.of("a1", "a2"))
+            Files.writeString(dir.resolve(name), "short");
+        for (var name : List.of("b1", "b2"))
+            Files.writeString(dir.resolve(name), "a little longer");
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var options = new ScanOptions().setChecksumCache(cache).setSampleStage(false);
+            var misses = new ArrayList<Long>();
+            new SimpleScanner(options).scan(Set.of(dir), group -> misses.add(cache.getMisses()));
+            assertEquals(List.of(2L, 4L), misses);
+        }
+    }
+
     @Test
     public void shouldFindPotentialDuplicates() throws Exception {
         var res = driver.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>());
@@ -53,4 +125,9 @@ public class SimpleScannerTest {
         });
     }
 
+    private Collection<Collection<Path>> scanCandidates(ScanOptions options) throws IOException {
+        var dir = ThreadedScannerTest.writeCandidates(folder.newFolder("data").toPath());
+        return new SimpleScanner(options).scan(Set.of(dir));
+    }
+
 }
@@ -0,0 +1,59 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SizeIndexTest {
+
+    @Test
+    public void shouldReturnFirstIdOnceThenKnown() throws Exception {
+        var index = new SizeIndex();
+        assertEquals(SizeIndex.ABSENT, index.offer(42, () -> 7));
+        assertEquals(7, index.offer(42, () -> 8));
+        assertEquals(SizeIndex.KNOWN, index.offer(42, () -> 9));
+        assertEquals(SizeIndex.ABSENT, index.offer(0, () -> 10));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void shouldKeepEntriesWhenGrowing() throws Exception {
+        var index = new SizeIndex();
+        for (int i = 0; i < 100_000; ++i) {
+            int id = i;
+            assertEquals(SizeIndex.ABSENT, index.offer(i * 31L, () -> id));
+        }
+        for (int i = 0; i < 100_000; ++i) {
+            assertEquals(i, index.offer(i * 31L, () -> -1));
+        }
+        assertEquals(100_000, index.size());
+    }
+
+    @Test
+    public void shouldPromoteEachFirstIdOnceUnderContention() throws Exception {
+        var index = new SizeIndex(4);
+        var ids = new AtomicInteger();
+        var promoted = new ConcurrentLinkedQueue<Integer>();
+        var threads = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; ++t) {
+            threads.execute(() -> {
+                for (long size = 0; size < 10_000; ++size) {
+                    int first = index.offer(size, ids::getAndIncrement);
+                    if (first >= 0)
+                        promoted.add(first);
+                }
+            });
+        }
+        threads.shutdown();
+        threads.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(10_000, ids.get());
+        assertEquals(10_000, promoted.size());
+    }
+
+}
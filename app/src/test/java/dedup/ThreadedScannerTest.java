@@ -4,19 +4,34 @@
 package dedup;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class ThreadedScannerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     DuplicateScanner driver;
 
     Collection<Path> iconPath;
@@ -33,6 +48,98 @@ public class ThreadedScannerTest {
         assertEquals(4, res.size());
     }
 
+    @Test
+    public void shouldNotHashFilesWhoseSamplesDiffer() throws Exception {
+        var scanner = new ThreadedScanner();
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(1, res.size());
+        // The pair whose heads differ is ruled out by its sample
+        assertEquals(6, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(4, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldHashEveryCandidateWithoutSampleStage() throws Exception {
+        var scanner = new ThreadedScanner(new ScanOptions().setSampleStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(1, res.size());
+        assertEquals(0, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(6, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldFindDuplicatesBySampleOnly() throws Exception {
+        var scanner = new ThreadedScanner(new ScanOptions().setFullHashStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        // The files that only differ in the middle pass for duplicates
+        assertEquals(2, res.size());
+        assertEquals(6, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(0, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldNotReadFilesWithEveryStageOff() throws Exception {
+        var scanner = new ThreadedScanner(new ScanOptions().setSampleStage(false).setFullHashStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(3, res.size());
+        assertEquals(0, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(0, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldSplitCollisionsWithVerifyStage() throws Exception {
+        var dir = Set.of(GroupVerifierTest.writeCollision(folder.newFolder("collision").toPath()));
+        var options = new ScanOptions().setHashAlgorithm(HashAlgorithm.CRC32).setCompareThreshold(0);
+        assertEquals(1, new ThreadedScanner(options).scan(dir).size());
+        assertEquals(0, new ThreadedScanner(options.setVerifyStage(true)).scan(dir).size());
+    }
+
+    @Test
+    public void shouldHashFilesInSegmentsAboveTheThreshold() throws Exception {
+        var dir = folder.newFolder("data").toPath();
+        var content = new byte[1000];
+        new Random(42).nextBytes(content);
+        var large = Files.write(dir.resolve("large1.bin"), content);
+        Files.write(dir.resolve("large2.bin"), content);
+        var small = Files.write(dir.resolve("small1.bin"), Arrays.copyOf(content, 999));
+        Files.write(dir.resolve("small2.bin"), Arrays.copyOf(content, 999));
+
+        try (var cache = ChecksumCache.open(folder.newFile("cache").toPath())) {
+            var options = new ScanOptions().setChecksumCache(cache).setSegmentThreshold(1000).setSegmentSize(128);
+            assertEquals(2, new ThreadedScanner(options).scan(Set.of(dir)).size());
+
+            // The cache holds the digests the scan calculated
+            var whole = new ScanOptions();
+            long hits = cache.getHits();
+            assertEquals(FileComparator.digestFor(large, options), cache.digestFor(large, options));
+            assertNotEquals(FileComparator.digestFor(large, whole), cache.digestFor(large, options));
+            assertEquals(FileComparator.digestFor(small, whole), cache.digestFor(small, options));
+            assertEquals(hits + 3, cache.getHits());
+        }
+    }
+
+    @Test
+    public void shouldFindDuplicatesWithFileTreeTraversal() throws Exception {
+        driver = new ThreadedScanner(new ScanOptions().setTraversal(Traversal.FILE_TREE));
+        var res = driver.scan(iconPath);
+        assertEquals(4, res.size());
+    }
+
+    @Test
+    public void shouldHandOverTheSizeOfEveryGroup() throws Exception {
+        var report = new DuplicateReport();
+        driver.scanWithSizes(iconPath, report::add);
+        var read = new DuplicateReport();
+        driver.scan(iconPath).forEach(read);
+        assertEquals(4, report.getGroups());
+        assertEquals(read.getReclaimable(), report.getReclaimable());
+    }
+
+    @Test
+    public void shouldStreamDuplicates() throws Exception {
+        assertStreams(driver, iconPath);
+    }
+
     @Test
     public void shouldFindPotentialDuplicates() throws Exception {
         var res = driver.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>());
@@ -53,4 +160,50 @@ public class ThreadedScannerTest {
         });
     }
 
+    /**
+     * Scans on another thread and holds the consumer up on the first group,
+     * which has to arrive while the scan is still running
+     */
+    static void assertStreams(DuplicateScanner scanner, Collection<Path> dirs) throws Exception {
+        var groups = new LinkedBlockingQueue<Collection<Path>>();
+        var release = new CountDownLatch(1);
+        var scan = new Thread(() -> scanner.scan(dirs, group -> {
+            groups.add(group);
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        scan.start();
+        try {
+            assertNotNull(groups.poll(30, TimeUnit.SECONDS));
+            assertTrue(scan.isAlive());
+        } finally {
+            release.countDown();
+            scan.join();
+        }
+        assertEquals(3, groups.size());
+    }
+
+    /**
+     * Writes three pairs of files of the same size: one whose heads differ,
+     * one of equal files and one whose files only differ in the middle
+     */
+    static Path writeCandidates(Path dir) throws IOException {
+        var content = new byte[3 * ScanOptions.DEFAULT_SAMPLE_SIZE];
+        new Random(42).nextBytes(content);
+        Files.write(dir.resolve("head1.bin"), content);
+        ++content[0];
+        Files.write(dir.resolve("head2.bin"), content);
+        var same = Arrays.copyOf(content, content.length + 1);
+        Files.write(dir.resolve("same1.bin"), same);
+        Files.write(dir.resolve("same2.bin"), same);
+        var middle = Arrays.copyOf(content, content.length + 2);
+        Files.write(dir.resolve("middle1.bin"), middle);
+        ++middle[middle.length / 2];
+        Files.write(dir.resolve("middle2.bin"), middle);
+        return dir;
+    }
+
 }
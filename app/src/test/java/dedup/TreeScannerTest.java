@@ -0,0 +1,107 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dataDir;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = folder.newFolder("data").toPath();
+    }
+
+    Path write(String name, String content) throws Exception {
+        var file = dataDir.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, content);
+    }
+
+    @Test
+    public void shouldGroupIdenticalTrees() throws Exception {
+        write("a/x.txt", "hello world");
+        write("a/sub/y.txt", "content y");
+        write("b/x.txt", "hello world");
+        write("b/sub/y.txt", "content y");
+        write("c/sub/y.txt", "content y");
+        var loose = write("d.txt", "hello world");
+
+        var report = new TreeScanner().scan(Set.of(dataDir));
+
+        var groups = report.getDirectoryGroups();
+        assertEquals(2, groups.size());
+        assertEquals(List.of(dataDir.resolve("a"), dataDir.resolve("b")), groups.get(0).getDirectories());
+        assertEquals(20, groups.get(0).getBytes());
+        assertEquals(2, groups.get(0).getFiles());
+        // b/sub is part of the copy b
+        assertEquals(List.of(dataDir.resolve("a/sub"), dataDir.resolve("c/sub")), groups.get(1).getDirectories());
+        assertEquals(29, report.getReclaimableBytes());
+
+        // Only the loose file is reported next to the trees
+        assertEquals(1, report.getFileGroups().size());
+        var files = report.getFileGroups().iterator().next();
+        assertEquals(2, files.size());
+        assertTrue(files.contains(loose));
+        assertTrue(files.contains(dataDir.resolve("a/x.txt")));
+        assertEquals(3, report.getSuppressedFiles());
+    }
+
+    @Test
+    public void shouldGroupTheSameTreesWithEitherTraversal() throws Exception {
+        write("a/x.txt", "hello world");
+        write("a/sub/y.txt", "content y");
+        write("b/x.txt", "hello world");
+        write("b/sub/y.txt", "content y");
+        write("c/sub/y.txt", "content y");
+
+        var listed = new TreeScanner().scan(Set.of(dataDir));
+        var walked = new TreeScanner(new ScanOptions().setTraversal(Traversal.FILE_TREE)).scan(Set.of(dataDir));
+        assertEquals(2, listed.getDirectoryGroups().size());
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(walked.getDirectoryGroups().get(i).getDirectories(),
+                    listed.getDirectoryGroups().get(i).getDirectories());
+        }
+        assertEquals(walked.getReclaimableBytes(), listed.getReclaimableBytes());
+    }
+
+    @Test
+    public void shouldCompareContentNotShape() throws Exception {
+        write("a/f.txt", "aaaa");
+        write("b/f.txt", "bbbb");
+        write("c/g.txt", "aaaa");
+
+        var report = new TreeScanner().scan(Set.of(dataDir));
+
+        // Same shape but different content, or same content by another name
+        assertEquals(0, report.getDirectoryGroups().size());
+        assertEquals(1, report.getFileGroups().size());
+        assertEquals(0, report.getSuppressedFiles());
+    }
+
+    @Test
+    public void shouldMatchScanRoots() throws Exception {
+        write("one/x.txt", "hello world");
+        write("two/x.txt", "hello world");
+
+        var report = new TreeScanner().scan(Set.of(dataDir.resolve("one"), dataDir.resolve("two")));
+
+        assertEquals(1, report.getDirectoryGroups().size());
+        assertEquals(0, report.getFileGroups().size());
+        assertEquals(1, report.getSuppressedFiles());
+    }
+
+}
@@ -0,0 +1,108 @@
+package dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VirtualThreadScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DuplicateScanner driver;
+
+    Collection<Path> iconPath;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = new VirtualThreadScanner();
+        iconPath = Set.of(Path.of(getClass().getResource("icons").toURI()));
+    }
+
+    @Test
+    public void shouldFindDuplicates() throws Exception {
+        var res = driver.scan(iconPath);
+        assertEquals(4, res.size());
+    }
+
+    @Test
+    public void shouldNotHashFilesWhoseSamplesDiffer() throws Exception {
+        var scanner = new VirtualThreadScanner();
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(1, res.size());
+        // The pair whose heads differ is ruled out by its sample
+        assertEquals(6, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(4, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldNotReadFilesWithEveryStageOff() throws Exception {
+        var scanner = new VirtualThreadScanner(new ScanOptions().setSampleStage(false).setFullHashStage(false));
+        var res = scanner.scan(Set.of(ThreadedScannerTest.writeCandidates(folder.getRoot().toPath())));
+        assertEquals(3, res.size());
+        assertEquals(0, scanner.getMetrics().getLatency(ScanMetrics.Stage.SAMPLE).getCount());
+        assertEquals(0, scanner.getMetrics().getFilesHashed());
+    }
+
+    @Test
+    public void shouldScanAgainFromScratch() throws Exception {
+        var scanner = new VirtualThreadScanner();
+        assertEquals(4, scanner.scan(iconPath).size());
+        assertEquals(4, scanner.scan(iconPath).size());
+        assertEquals(120, scanner.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>()).size());
+        // The scan time stops at the end of the traversal
+        var metrics = scanner.getMetrics();
+        assertEquals(metrics.getScanTime(), metrics.getScanTime());
+    }
+
+    @Test
+    public void shouldSplitCollisionsWithVerifyStage() throws Exception {
+        var dir = Set.of(GroupVerifierTest.writeCollision(folder.newFolder("collision").toPath()));
+        var options = new ScanOptions().setHashAlgorithm(HashAlgorithm.CRC32).setCompareThreshold(0);
+        assertEquals(1, new VirtualThreadScanner(options).scan(dir).size());
+        assertEquals(0, new VirtualThreadScanner(options.setVerifyStage(true)).scan(dir).size());
+    }
+
+    @Test
+    public void shouldStreamDuplicates() throws Exception {
+        ThreadedScannerTest.assertStreams(driver, iconPath);
+    }
+
+    @Test
+    public void shouldFindDuplicatesWithOnePermit() throws Exception {
+        driver = new VirtualThreadScanner(new ScanOptions().setMaxOpens(1).setMaxReads(1));
+        var res = driver.scan(iconPath);
+        assertEquals(4, res.size());
+    }
+
+    @Test
+    public void shouldFindPotentialDuplicates() throws Exception {
+        var res = driver.getPotentialDuplicates(iconPath, new ConcurrentLinkedQueue<>());
+        assertEquals(120, res.size());
+    }
+
+    @Test
+    public void shouldFindNoDuplicatesGivenAFile() throws Exception {
+        var folder = iconPath.iterator().next().toString();
+        var res = driver.scan(Set.of(Paths.get(folder, "uu.png")));
+        assertEquals(0, res.size());
+    }
+
+    @Test
+    public void shouldThrowErrorOnNull() throws Exception {
+        assertThrows(NullPointerException.class, () -> {
+            driver.scan(null);
+        });
+    }
+
+}